@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.benchmarks;
+
+import com.github.snieking.retry.RetryStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a single strategy instance that is shared by many threads, which is how a strategy kept in a static
+ * field is used. Compare against {@link RetryStrategyBenchmark} to see the cost of contention.
+ *
+ * @author Viktor Plane
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class ContendedRetryStrategyBenchmark {
+
+    @Param({"basic", "exponential", "fibonacci", "oneTime"})
+    private String strategyName;
+
+    private RetryStrategy strategy;
+    private final String value = "value";
+
+    @Setup
+    public void setup() {
+        strategy = ZeroDelayStrategies.create(strategyName);
+    }
+
+    /**
+     * A supplier that succeeds on the first attempt.
+     */
+    @Benchmark
+    public Optional<String> performAndGetSuccess() {
+        return strategy.performAndGet(() -> value);
+    }
+
+    /**
+     * A runnable that keeps failing until the strategy gives up, see {@link RetryStrategyBenchmark#performExhausted()}.
+     */
+    @Benchmark
+    public RuntimeException performExhausted() {
+        try {
+            strategy.perform(ContendedRetryStrategyBenchmark::fail);
+            throw new IllegalStateException("Expected the strategy to give up");
+        } catch (ZeroDelayStrategies.AttemptFailed e) {
+            return e;
+        }
+    }
+
+    private static void fail() {
+        throw new ZeroDelayStrategies.AttemptFailed();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.benchmarks;
+
+import com.github.snieking.retry.BasicRetryStrategy;
+import com.github.snieking.retry.DurableRetryQueue;
+import com.github.snieking.time.VirtualScheduler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures enqueuing into a {@link DurableRetryQueue} from several threads, where every task succeeds right away on
+ * the enqueuing thread. Every operation therefore writes a task and its completion to the journal. The strategy runs
+ * on a {@link VirtualScheduler}, so timing the attempts doesn't add to the cost of the journal.
+ *
+ * @author Viktor Plane
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class DurableRetryQueueBenchmark {
+
+    private static final DurableRetryQueue.Serializer<byte[]> BYTES = new DurableRetryQueue.Serializer<byte[]>() {
+        @Override
+        public byte[] serialize(final byte[] task) {
+            return task;
+        }
+
+        @Override
+        public byte[] deserialize(final byte[] bytes) {
+            return bytes;
+        }
+    };
+
+    private final byte[] task = new byte[128];
+    private Path directory;
+    private DurableRetryQueue<byte[]> queue;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("durable-retry-queue");
+        queue = DurableRetryQueue.createDurableRetryQueue(directory,
+                BasicRetryStrategy.createRetryStrategy(Duration.ZERO, 3)
+                        .executor(Runnable::run)
+                        .scheduler(VirtualScheduler.createVirtualScheduler()), BYTES,
+                bytes -> { });
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        queue.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Enqueues a task that succeeds on its first attempt.
+     */
+    @Benchmark
+    public void enqueue() {
+        queue.enqueue(task);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.benchmarks;
+
+import com.github.snieking.retry.RetryStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead that each strategy adds around a task, on the success path and on the failure path.
+ * Run with {@code -prof gc} to also get the allocation rate per operation.
+ *
+ * @author Viktor Plane
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RetryStrategyBenchmark {
+
+    @Param({"basic", "exponential", "fibonacci", "oneTime"})
+    private String strategyName;
+
+    private RetryStrategy strategy;
+    private final String value = "value";
+    private int failuresLeft;
+
+    @Setup
+    public void setup() {
+        strategy = ZeroDelayStrategies.create(strategyName);
+    }
+
+    /**
+     * A runnable that succeeds on the first attempt.
+     */
+    @Benchmark
+    public void performSuccess(final Blackhole blackhole) {
+        strategy.perform(() -> blackhole.consume(value));
+    }
+
+    /**
+     * A supplier that succeeds on the first attempt.
+     */
+    @Benchmark
+    public Optional<String> performAndGetSuccess() {
+        return strategy.performAndGet(() -> value);
+    }
+
+    /**
+     * A supplier that fails once and succeeds on the retry.
+     */
+    @Benchmark
+    public Optional<String> performAndGetSuccessAfterRetry() {
+        failuresLeft = 1;
+        return strategy.performAndGet(this::failThenSucceed);
+    }
+
+    /**
+     * A runnable that keeps failing until the strategy gives up. Uses perform, since the basic and one-time
+     * strategies return an empty result from performAndGet instead of throwing.
+     */
+    @Benchmark
+    public RuntimeException performExhausted() {
+        try {
+            strategy.perform(this::fail);
+            throw new IllegalStateException("Expected the strategy to give up");
+        } catch (ZeroDelayStrategies.AttemptFailed e) {
+            return e;
+        }
+    }
+
+    private String failThenSucceed() {
+        if (failuresLeft-- > 0) {
+            throw new ZeroDelayStrategies.AttemptFailed();
+        }
+
+        return value;
+    }
+
+    private void fail() {
+        throw new ZeroDelayStrategies.AttemptFailed();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.benchmarks;
+
+import com.github.snieking.retry.BasicRetryStrategy;
+import com.github.snieking.retry.ExponentialRetryStrategy;
+import com.github.snieking.retry.FibonacciRetryStrategy;
+import com.github.snieking.retry.OneTimeRetryStrategy;
+import com.github.snieking.retry.RetryStrategy;
+import com.github.snieking.time.VirtualScheduler;
+
+import java.time.Duration;
+
+/**
+ * Creates the strategies under benchmark, configured so that every wait between attempts is zero.
+ * That way the benchmarks measure the overhead of the strategies and not the time spent waiting.
+ * Every strategy also gets a {@link VirtualScheduler} of its own, so the retry loop reads a virtual clock instead
+ * of {@link System#nanoTime()}, and no wait ever reaches a real timer.
+ *
+ * @author Viktor Plane
+ */
+final class ZeroDelayStrategies {
+
+    /**
+     * Retries performed by every strategy, except the one-time strategy which retries once.
+     */
+    static final int RETRIES = 3;
+
+    // base^n and offset * fib(n) milliseconds are truncated to 0 for these values.
+    private static final double EXPONENTIAL_BASE = 0.5;
+    private static final double FIBONACCI_OFFSET = 0.1;
+
+    private ZeroDelayStrategies() {
+    }
+
+    /**
+     * Creates the named strategy.
+     *
+     * @param name one of basic, exponential, fibonacci or oneTime.
+     * @return the {@link RetryStrategy} with zero delays.
+     */
+    static RetryStrategy create(final String name) {
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        switch (name) {
+            case "basic":
+                // Basic and fibonacci take the number of attempts, the first one included.
+                return BasicRetryStrategy.createRetryStrategy(Duration.ZERO, RETRIES + 1).scheduler(scheduler);
+            case "exponential":
+                return ExponentialRetryStrategy.createRetryStrategy(RETRIES, EXPONENTIAL_BASE).scheduler(scheduler);
+            case "fibonacci":
+                return FibonacciRetryStrategy.createRetryStrategy(RETRIES + 1, FIBONACCI_OFFSET).scheduler(scheduler);
+            case "oneTime":
+                return OneTimeRetryStrategy.createRetryStrategy(Duration.ZERO).scheduler(scheduler);
+            default:
+                throw new IllegalArgumentException("Unknown strategy " + name);
+        }
+    }
+
+    /**
+     * Failure thrown by the benchmarked tasks. Skips filling in the stack trace, which would otherwise dominate.
+     */
+    static final class AttemptFailed extends RuntimeException {
+        AttemptFailed() {
+            super(null, null, true, false);
+        }
+    }
+}
@@ -0,0 +1,839 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.time.Scheduler;
+import com.github.snieking.time.TimeManager;
+import com.github.snieking.util.SanityChecker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Base for the retry strategies in this package. A strategy only describes its backoff, meaning how many retries
+ * it performs and how long to wait before each of them, while the retry loop itself is shared.
+ *
+ * Strategies are immutable. Configuring one returns a new instance, which leaves the original untouched,
+ * so a strategy can be kept in a static field and shared by any number of threads.
+ *
+ * A synchronous call that is interrupted while waiting to retry gives up right away with a
+ * {@link java.util.concurrent.CancellationException}, caused by the failures so far, and leaves the interrupt flag
+ * of the thread set.
+ *
+ * @param <S> the type of the strategy, returned when configuring it.
+ * @author Viktor Plane
+ */
+abstract class AbstractRetryStrategy<S extends AbstractRetryStrategy<S>> implements RetryStrategy {
+
+    static final String FAILED_TASK = "Failed with task, performing retry attempt {}. Max attempt is {}.";
+    static final String BUDGET_EXHAUSTED = "Failed with task, but the retry budget is exhausted. Giving up.";
+    static final String TIME_BUDGET_EXHAUSTED = "Failed with task, but the time budget runs out before the next "
+            + "attempt. Giving up.";
+    static final long NO_RETRY = -1;
+    private static final String BAD_EXECUTOR = "Executor can't be null";
+    private static final String BAD_RETRY_BUDGET = "Retry budget can't be null";
+    private static final String BAD_LISTENER = "Listener can't be null";
+    private static final String BAD_SCHEDULER = "Scheduler can't be null";
+    private static final String BAD_TIME_BUDGET = "Time budget must be positive";
+    private static final String BAD_ATTEMPT_TIMEOUT = "Attempt timeout must be positive";
+    private static final String FAILED_BATCH = "Failed with {} keys of batch, performing retry attempt {}. "
+            + "Max attempt is {}.";
+    private static final String BAD_BATCH = "Keys and operation can't be null";
+    private static final String MISSING_RESULT = "Batch operation returned no result for the key";
+    private static final String INTERRUPTED = "Interrupted while waiting for the attempt";
+    private static final String INTERRUPTED_RETRY = "Interrupted while waiting to retry. Giving up.";
+    private static final String LISTENER_FAILED = "Retry listener failed, ignoring it.";
+    private static final String GAVE_UP = "Gave up on task, returning an empty result.";
+    private static final long PRECISE_WAIT_NANOS = 1_000_000;
+    private static final int TIME_BUDGET_MARGIN_DIVISOR = 10;
+
+    final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final int maxRetries;
+    private final long[] backoffNanos;
+    private final RetryOptions options;
+
+    /**
+     * Creates the strategy with a precomputed backoff schedule and default options.
+     *
+     * @param maxRetries   the max number of retries that will be performed after the first attempt.
+     * @param backoffNanos the nanoseconds to wait before each retry. Must hold at least one value, the last value
+     *                     is used for every retry beyond the end of the array.
+     */
+    AbstractRetryStrategy(final int maxRetries, final long[] backoffNanos) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.backoffNanos = backoffNanos.length > 0 ? backoffNanos : new long[]{0};
+        this.options = RetryOptions.DEFAULT;
+    }
+
+    /**
+     * Creates a copy of the provided strategy with new options. The backoff schedule is shared, not recomputed.
+     *
+     * @param original the strategy to copy.
+     * @param options  the options of the copy.
+     */
+    AbstractRetryStrategy(final AbstractRetryStrategy<S> original, final RetryOptions options) {
+        this.maxRetries = original.maxRetries;
+        this.backoffNanos = original.backoffNanos;
+        this.options = options;
+    }
+
+    /**
+     * Creates a copy of this strategy with the provided options.
+     *
+     * @param options the options of the copy.
+     * @return the new retry strategy instance.
+     */
+    abstract S withOptions(RetryOptions options);
+
+    /**
+     * Checks if {@link #performAndGet(Supplier)} returns an empty result instead of throwing once the call has
+     * failed, which the basic and one-time strategies have always done. Other ways to perform a task always pass
+     * the failure on.
+     *
+     * @return true if a failed call returns an empty result.
+     */
+    boolean isEmptyOnFailure() {
+        return false;
+    }
+
+    /**
+     * Gets the options of this strategy, for subclasses that copy themselves with other settings.
+     *
+     * @return the {@link RetryOptions}.
+     */
+    final RetryOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Gets the max number of retries that will be performed after the first attempt.
+     *
+     * @return the max number of retries.
+     */
+    public final int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Gets the time to wait before performing the provided retry.
+     *
+     * @param retry the zero based retry that is about to be performed.
+     * @return the nanoseconds to wait before the retry.
+     */
+    public final long getDelayNanos(final int retry) {
+        return backoffNanos[Math.min(retry, backoffNanos.length - 1)];
+    }
+
+    /**
+     * Gets the time to wait before performing the provided retry of a single call. Uses the precomputed schedule,
+     * strategies whose waits depend on the previous wait of the call override it.
+     *
+     * @param retry              the zero based retry that is about to be performed.
+     * @param previousDelayNanos the nanoseconds waited before the previous retry of the call, 0 before the first one.
+     * @return the nanoseconds to wait before the retry.
+     */
+    long nextDelayNanos(final int retry, final long previousDelayNanos) {
+        return getDelayNanos(retry);
+    }
+
+    /**
+     * Gets the full backoff schedule, which is computed once when the strategy is created.
+     *
+     * @return a copy of the nanoseconds to wait before each retry, with one value per retry.
+     */
+    public long[] getBackoffSchedule() {
+        final long[] schedule = new long[maxRetries];
+        for (int retry = 0; retry < maxRetries; retry++) {
+            schedule[retry] = getDelayNanos(retry);
+        }
+
+        return schedule;
+    }
+
+    /**
+     * Skip retry if one of the provided exceptions occur. Subclasses of the provided exceptions are skipped as well,
+     * and so are exceptions caused by one of them.
+     *
+     * @param exceptions list of exceptions to not perform retry if one of them occurs.
+     * @return a new retry strategy instance, this instance is left untouched.
+     */
+    @Override
+    public S nonRetryExceptions(final Class<?>... exceptions) {
+        return withOptions(options.withNonRetryableExceptions(ExceptionClassifier.of(exceptions)));
+    }
+
+    /**
+     * Sets the executor that asynchronous attempts should be run on,
+     * instead of the shared {@link RetryExecutors#defaultExecutor()}.
+     *
+     * @param executor the {@link Executor} to run asynchronous attempts on.
+     * @return a new retry strategy instance, this instance is left untouched.
+     */
+    public S executor(final Executor executor) {
+        SanityChecker.verifyNoObjectIsNull(BAD_EXECUTOR, executor);
+        return withOptions(options.withExecutor(executor));
+    }
+
+    /**
+     * Gets the executor that asynchronous attempts are run on.
+     *
+     * @return the configured {@link Executor}, or the shared default if none has been configured.
+     */
+    public Executor getExecutor() {
+        return options.executor != null ? options.executor : RetryExecutors.defaultExecutor();
+    }
+
+    /**
+     * Shares the provided budget with this strategy. Retries are then only performed while the budget allows it,
+     * once it's exhausted a failed task gives up right away instead of waiting for the next attempt.
+     *
+     * @param retryBudget the {@link RetryBudget} to withdraw retries from.
+     * @return a new retry strategy instance, this instance is left untouched.
+     */
+    public S retryBudget(final RetryBudget retryBudget) {
+        SanityChecker.verifyNoObjectIsNull(BAD_RETRY_BUDGET, retryBudget);
+        return withOptions(options.withRetryBudget(retryBudget));
+    }
+
+    /**
+     * Limits the total time of every call, including the waits between attempts. A retry whose wait would run past
+     * the time budget isn't waited for, the call gives up right away with the failures collected so far.
+     * Attempts themselves are not interrupted.
+     *
+     * @param timeBudget the max time of a call.
+     * @return a new retry strategy instance, this instance is left untouched.
+     */
+    public S timeBudget(final Duration timeBudget) {
+        return withOptions(options.withTimeBudgetNanos(verifyTimeBudget(timeBudget)));
+    }
+
+    /**
+     * Gets the time budget of every call.
+     *
+     * @return the time budget in nanoseconds, or 0 if calls are only limited by the max number of retries.
+     */
+    public long getTimeBudgetNanos() {
+        return options.timeBudgetNanos;
+    }
+
+    /**
+     * Limits the time of every attempt. Attempts are then run on the configured executor, also when performing
+     * synchronously, while the caller waits at most the attempt timeout. An attempt that doesn't finish in time is
+     * interrupted and fails with an {@link AttemptTimeoutException}, which is retried like any other failure.
+     * A task that ignores interrupts keeps its executor thread until it returns, but its result is dropped.
+     *
+     * @param attemptTimeout the max time of an attempt.
+     * @return a new retry strategy instance, this instance is left untouched.
+     */
+    public S attemptTimeout(final Duration attemptTimeout) {
+        SanityChecker.verifyNoObjectIsNull(BAD_ATTEMPT_TIMEOUT, attemptTimeout);
+        final long nanos = toNanos(attemptTimeout);
+        if (nanos <= 0) {
+            throw new IllegalArgumentException(BAD_ATTEMPT_TIMEOUT);
+        }
+
+        return withOptions(options.withAttemptTimeoutNanos(nanos));
+    }
+
+    /**
+     * Gets the time limit of every attempt.
+     *
+     * @return the attempt timeout in nanoseconds, or 0 if attempts aren't limited.
+     */
+    public long getAttemptTimeoutNanos() {
+        return options.attemptTimeoutNanos;
+    }
+
+    /**
+     * Notifies the provided listener of the attempts and outcomes of every call, for example {@link RetryMetrics}.
+     *
+     * @param listener the {@link RetryListener} to notify.
+     * @return a new retry strategy instance, this instance is left untouched.
+     */
+    public S listener(final RetryListener listener) {
+        SanityChecker.verifyNoObjectIsNull(BAD_LISTENER, listener);
+        return withOptions(options.withListener(listener));
+    }
+
+    /**
+     * Waits for retries and times calls with the provided scheduler, instead of the one installed in
+     * {@link TimeManager}. A {@link com.github.snieking.time.VirtualScheduler} lets backoffs pass in virtual time,
+     * while the timeouts of attempts that are performed synchronously still follow the real clock.
+     *
+     * @param scheduler the {@link Scheduler} to wait with.
+     * @return a new retry strategy instance, this instance is left untouched.
+     */
+    public S scheduler(final Scheduler scheduler) {
+        SanityChecker.verifyNoObjectIsNull(BAD_SCHEDULER, scheduler);
+        return withOptions(options.withScheduler(scheduler));
+    }
+
+    /**
+     * Gets the scheduler that retries wait with.
+     *
+     * @return the configured {@link Scheduler}, or the one installed in {@link TimeManager} if none has been
+     * configured.
+     */
+    public Scheduler getScheduler() {
+        return options.scheduler != null ? options.scheduler : TimeManager.getScheduler();
+    }
+
+    /**
+     * Gets the scheduler of the provided strategy, or the one installed in {@link TimeManager} for strategies that
+     * aren't based on this class.
+     *
+     * @param strategy the strategy.
+     * @return the {@link Scheduler} of the strategy.
+     */
+    static Scheduler schedulerOf(final RetryStrategy strategy) {
+        return strategy instanceof AbstractRetryStrategy
+                ? ((AbstractRetryStrategy<?>) strategy).getScheduler()
+                : TimeManager.getScheduler();
+    }
+
+    /**
+     * Reads the clock if a call with the provided time budget needs to be timed, either for the budget or for the
+     * listener. Calls that don't need it skip reading the clock.
+     *
+     * @param timeBudgetNanos the time budget of the call, or 0 if there is none.
+     * @return the {@link Scheduler#nanoTime()}, or 0 if the call isn't timed.
+     */
+    final long startTiming(final long timeBudgetNanos) {
+        return timeBudgetNanos > 0 || options.listener != null ? getScheduler().nanoTime() : 0;
+    }
+
+    /**
+     * Reads the clock at the start of an attempt, if there is a listener to report the time of the attempt to.
+     *
+     * @return the {@link Scheduler#nanoTime()}, or 0 if there is no listener.
+     */
+    final long startAttempt() {
+        return options.listener != null ? getScheduler().nanoTime() : 0;
+    }
+
+    /**
+     * Records that an attempt succeeded, which completes the call.
+     *
+     * @param retry        the zero based retry that succeeded, 0 being the first attempt.
+     * @param attemptNanos the {@link #startAttempt()} of the attempt.
+     * @param startNanos   the {@link #startTiming(long)} of the call.
+     */
+    final void onSuccess(final int retry, final long attemptNanos, final long startNanos) {
+        if (retry == 0 && options.retryBudget != null) {
+            options.retryBudget.recordSuccess(getScheduler().nanoTime());
+        }
+
+        if (options.listener != null) {
+            final long now = getScheduler().nanoTime();
+            notifyListener(listener -> listener.onAttemptSucceeded(retry, now - attemptNanos));
+            notifyListener(listener -> listener.onCallCompleted(RetryListener.Outcome.SUCCESS, retry + 1,
+                    now - startNanos));
+        }
+    }
+
+    /**
+     * Records that an attempt failed, before deciding on the retry with
+     * {@link #retryDelayNanos(int, RuntimeException, long, long, long)}.
+     *
+     * @param retry        the zero based retry that failed, 0 being the first attempt.
+     * @param e            the exception that the attempt failed with.
+     * @param attemptNanos the {@link #startAttempt()} of the attempt.
+     */
+    final void onFailure(final int retry, final RuntimeException e, final long attemptNanos) {
+        if (options.listener != null) {
+            final long now = getScheduler().nanoTime();
+            notifyListener(listener -> listener.onAttemptFailed(retry, e, now - attemptNanos));
+        }
+    }
+
+    /**
+     * Decides if a retry should be performed after the provided exception, and how long to wait before it.
+     * Withdraws the retry from the retry budget, if there is one. A task rejected by an open
+     * {@link CircuitBreaker} is never retried. A wait that would run past the time budget is shortened, so that a
+     * tenth of the budget is left for one last attempt, and the call gives up once not even that is left.
+     *
+     * @param retry           the zero based retry that is about to be performed.
+     * @param e               the exception that the attempt failed with.
+     * @param delayNanos      the nanoseconds to wait before the retry, according to the backoff.
+     * @param startNanos      the {@link #startTiming(long)} of the call.
+     * @param timeBudgetNanos the time budget of the call, or 0 if there is none.
+     * @return the nanoseconds to wait before the retry, or {@link #NO_RETRY} if the task shouldn't be retried.
+     */
+    final long retryDelayNanos(final int retry, final RuntimeException e, final long delayNanos,
+                               final long startNanos, final long timeBudgetNanos) {
+        if (retry >= maxRetries) {
+            return giveUp(RetryListener.Outcome.RETRIES_EXHAUSTED, retry, startNanos);
+        }
+
+        if (e instanceof CircuitBreakerOpenException || options.nonRetryableExceptions.matches(e)) {
+            return giveUp(RetryListener.Outcome.NON_RETRYABLE, retry, startNanos);
+        }
+
+        long waitNanos = delayNanos;
+        if (timeBudgetNanos > 0) {
+            final long leftNanos = timeBudgetNanos - (getScheduler().nanoTime() - startNanos);
+            final long marginNanos = timeBudgetNanos / TIME_BUDGET_MARGIN_DIVISOR;
+            if (leftNanos <= marginNanos) {
+                log.warn(TIME_BUDGET_EXHAUSTED);
+                return giveUp(RetryListener.Outcome.TIME_BUDGET_EXHAUSTED, retry, startNanos);
+            }
+            if (leftNanos <= delayNanos) {
+                waitNanos = leftNanos - marginNanos;
+            }
+        }
+
+        if (options.retryBudget != null && !options.retryBudget.tryAcquireRetry(getScheduler().nanoTime())) {
+            log.warn(BUDGET_EXHAUSTED);
+            return giveUp(RetryListener.Outcome.RETRY_BUDGET_EXHAUSTED, retry, startNanos);
+        }
+
+        if (options.listener != null) {
+            final long scheduledNanos = waitNanos;
+            notifyListener(listener -> listener.onRetryScheduled(retry + 1, scheduledNanos));
+        }
+        return waitNanos;
+    }
+
+    /**
+     * Notifies the listener that the call gave up.
+     *
+     * @return always {@link #NO_RETRY}, so that it can be returned as the decision not to retry.
+     */
+    private long giveUp(final RetryListener.Outcome outcome, final int retry, final long startNanos) {
+        if (options.listener != null) {
+            final long now = getScheduler().nanoTime();
+            notifyListener(listener -> listener.onCallCompleted(outcome, retry + 1, now - startNanos));
+        }
+        return NO_RETRY;
+    }
+
+    /**
+     * Notifies the listener, logging instead of passing on whatever it throws, so that a broken listener can't
+     * change the outcome of a call.
+     */
+    private void notifyListener(final Consumer<RetryListener> notification) {
+        try {
+            notification.accept(options.listener);
+        } catch (RuntimeException e) {
+            log.warn(LISTENER_FAILED, e);
+        }
+    }
+
+    @Override
+    public void perform(final Runnable task) {
+        if (task != null) {
+            performAndGet(() -> {
+                task.run();
+                return null;
+            }, options.timeBudgetNanos);
+        }
+    }
+
+    /**
+     * Performs (and retries) a runnable task asynchronously on the configured executor. Does not return anything,
+     * a failure that remains after the last retry is logged.
+     *
+     * @param runnable the {@link Runnable} that should be tried (and retried).
+     */
+    @Override
+    public void performAsync(final Runnable runnable) {
+        performAsync(runnable, getExecutor());
+    }
+
+    /**
+     * Performs (and retries) a runnable task asynchronously on the provided executor. Does not return anything,
+     * a failure that remains after the last retry is logged.
+     *
+     * @param runnable the {@link Runnable} that should be tried (and retried).
+     * @param executor the {@link Executor} that the attempts should be run on.
+     */
+    @Override
+    public void performAsync(final Runnable runnable, final Executor executor) {
+        if (runnable == null) {
+            return;
+        }
+
+        performAndGetAsync(() -> {
+            runnable.run();
+            return null;
+        }, executor).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                log.warn("Gave up on asynchronous task.", throwable);
+            }
+        });
+    }
+
+    /**
+     * Performs (and retries) a runnable task within the provided time budget, see {@link #timeBudget(Duration)}.
+     * Does not return anything.
+     *
+     * @param task       the {@link Runnable} that should be tried (and retried).
+     * @param timeBudget the max time of the call, overriding the configured time budget.
+     */
+    public void perform(final Runnable task, final Duration timeBudget) {
+        final long timeBudgetNanos = verifyTimeBudget(timeBudget);
+        if (task != null) {
+            performAndGet(() -> {
+                task.run();
+                return null;
+            }, timeBudgetNanos);
+        }
+    }
+
+    @Override
+    public <T> Optional<T> performAndGet(final Supplier<T> task) {
+        return performAndGetOrEmpty(task, options.timeBudgetNanos);
+    }
+
+    /**
+     * Performs (and retries if failed) a supplied task within the provided time budget and returns the result,
+     * see {@link #timeBudget(Duration)}.
+     *
+     * @param task       the {@link Supplier} that should be tried (and retried).
+     * @param timeBudget the max time of the call, overriding the configured time budget.
+     * @param <T>        the return type.
+     * @return {@link Optional} of the result from the provided {@link Supplier}.
+     */
+    public <T> Optional<T> performAndGet(final Supplier<T> task, final Duration timeBudget) {
+        return performAndGetOrEmpty(task, verifyTimeBudget(timeBudget));
+    }
+
+    /**
+     * Performs (and retries if failed) a supplied task with the provided strategy, and throws once the call has
+     * failed even if the strategy returns an empty result instead, see {@link #isEmptyOnFailure()}. Used by the
+     * classes of this package that pass the failure of the call on to their callers.
+     *
+     * @param strategy the {@link RetryStrategy} to perform the task with.
+     * @param task     the {@link Supplier} that should be tried (and retried).
+     * @param <T>      the return type.
+     * @return {@link Optional} of the result from the provided {@link Supplier}.
+     */
+    static <T> Optional<T> performAndGetOrThrow(final RetryStrategy strategy, final Supplier<T> task) {
+        if (strategy instanceof AbstractRetryStrategy) {
+            final AbstractRetryStrategy<?> retryStrategy = (AbstractRetryStrategy<?>) strategy;
+            return retryStrategy.performAndGet(task, retryStrategy.options.timeBudgetNanos);
+        }
+        if (strategy instanceof CircuitBreakingRetryStrategy) {
+            return ((CircuitBreakingRetryStrategy) strategy).performAndGetOrThrow(task);
+        }
+        return strategy.performAndGet(task);
+    }
+
+    private <T> Optional<T> performAndGetOrEmpty(final Supplier<T> task, final long timeBudgetNanos) {
+        if (!isEmptyOnFailure()) {
+            return performAndGet(task, timeBudgetNanos);
+        }
+
+        try {
+            return performAndGet(task, timeBudgetNanos);
+        } catch (RuntimeException e) {
+            log.warn(GAVE_UP, e);
+            return Optional.empty();
+        }
+    }
+
+    private <T> Optional<T> performAndGet(final Supplier<T> task, final long timeBudgetNanos) {
+        if (task == null) {
+            return Optional.empty();
+        }
+
+        final long startNanos = startTiming(timeBudgetNanos);
+        RuntimeException exception = null;
+        int retry = 0;
+        long delay = 0;
+        while (true) {
+            final long attemptNanos = startAttempt();
+            try {
+                log.trace("Attempt {} of running task", retry + 1);
+                final T result = attempt(task);
+                onSuccess(retry, attemptNanos, startNanos);
+                return Optional.ofNullable(result);
+            } catch (RuntimeException e) {
+                exception = addFailure(exception, e);
+                onFailure(retry, e, attemptNanos);
+
+                final long nextDelay = retryDelayNanos(retry, e, nextDelayNanos(retry, delay), startNanos,
+                        timeBudgetNanos);
+                if (nextDelay == NO_RETRY) {
+                    throw exception;
+                }
+
+                log.warn(FAILED_TASK, ++retry, maxRetries);
+                delay = nextDelay;
+                if (!waitForRetry(retry, delay, startNanos)) {
+                    throw interrupted(exception);
+                }
+            }
+        }
+    }
+
+    /**
+     * Performs (and retries) a bulk operation, where each key can succeed or fail on its own. Every attempt only
+     * passes the keys that are still failing to the operation, and waits according to the backoff of the strategy
+     * before the next one. A key without a result, or every key when the operation itself throws, counts as failed.
+     * Keys that fail with one of the non-retryable exceptions are not retried.
+     *
+     * Failed keys don't make this method throw. Once all keys succeeded or the retries are exhausted, the last
+     * outcome of every key is returned. So is it when the thread is interrupted while waiting, and the interrupt
+     * flag of the thread is left set.
+     *
+     * @param keys      the keys of the batch, duplicates are only passed once.
+     * @param operation the bulk operation, which gets the keys to perform and returns the outcome of each key.
+     * @param <K>       the type of the keys.
+     * @param <V>       the type of the value of a successful key.
+     * @return the {@link BatchResult} of every key, in the order of the provided keys.
+     */
+    public <K, V> Map<K, BatchResult<V>> performBatch(final Collection<K> keys,
+                                                      final Function<List<K>, Map<K, BatchResult<V>>> operation) {
+        SanityChecker.verifyNoObjectIsNull(BAD_BATCH, keys, operation);
+
+        final Map<K, BatchResult<V>> results = new LinkedHashMap<>();
+        for (K key : keys) {
+            results.put(key, null);
+        }
+
+        final long startNanos = startTiming(options.timeBudgetNanos);
+        List<K> pending = new ArrayList<>(results.keySet());
+        int retry = 0;
+        long delay = 0;
+        while (!pending.isEmpty()) {
+            log.trace("Attempt {} of batch with {} keys", retry + 1, pending.size());
+            final List<K> attemptKeys = Collections.unmodifiableList(pending);
+            final long attemptNanos = startAttempt();
+
+            Map<K, BatchResult<V>> outcome;
+            RuntimeException attemptFailure = null;
+            try {
+                outcome = attempt(() -> operation.apply(attemptKeys));
+            } catch (RuntimeException e) {
+                outcome = null;
+                attemptFailure = e;
+            }
+
+            final List<K> failed = new ArrayList<>();
+            RuntimeException firstFailure = null;
+            RuntimeException retryableFailure = null;
+            for (K key : pending) {
+                BatchResult<V> result = outcome != null ? outcome.get(key) : null;
+                if (result == null) {
+                    if (attemptFailure == null) {
+                        attemptFailure = new IllegalStateException(MISSING_RESULT);
+                    }
+                    result = BatchResult.failure(attemptFailure);
+                }
+
+                results.put(key, result);
+                final RuntimeException failure = result.getFailure().orElse(null);
+                if (failure == null) {
+                    continue;
+                }
+
+                if (firstFailure == null) {
+                    firstFailure = failure;
+                }
+                if (!options.nonRetryableExceptions.matches(failure)) {
+                    failed.add(key);
+                    if (retryableFailure == null) {
+                        retryableFailure = failure;
+                    }
+                }
+            }
+
+            if (firstFailure == null) {
+                onSuccess(retry, attemptNanos, startNanos);
+                break;
+            }
+
+            onFailure(retry, firstFailure, attemptNanos);
+            if (failed.isEmpty()) {
+                giveUp(RetryListener.Outcome.NON_RETRYABLE, retry, startNanos);
+                break;
+            }
+
+            final long nextDelay = retryDelayNanos(retry, retryableFailure, nextDelayNanos(retry, delay), startNanos,
+                    options.timeBudgetNanos);
+            if (nextDelay == NO_RETRY) {
+                break;
+            }
+
+            log.warn(FAILED_BATCH, failed.size(), ++retry, maxRetries);
+            delay = nextDelay;
+            if (!waitForRetry(retry, delay, startNanos)) {
+                break;
+            }
+            pending = failed;
+        }
+
+        return results;
+    }
+
+    /**
+     * Waits before the provided retry. Waits shorter than a millisecond are timed precisely, see
+     * {@link Scheduler#sleepNanosPrecisely(long)}. An interrupt ends the call, and the interrupt flag of the thread
+     * is left set.
+     *
+     * @return false if the thread was interrupted.
+     */
+    private boolean waitForRetry(final int retry, final long delayNanos, final long startNanos) {
+        final Scheduler scheduler = getScheduler();
+        final boolean waited = delayNanos < PRECISE_WAIT_NANOS
+                ? scheduler.sleepNanosPrecisely(delayNanos)
+                : scheduler.sleepNanos(delayNanos);
+        if (waited) {
+            return true;
+        }
+
+        log.warn(INTERRUPTED_RETRY);
+        giveUp(RetryListener.Outcome.INTERRUPTED, retry - 1, startNanos);
+        return false;
+    }
+
+    /**
+     * Creates the failure of a call that was interrupted, caused by the failures of its attempts so far.
+     */
+    private static CancellationException interrupted(final RuntimeException failure) {
+        final CancellationException e = new CancellationException(INTERRUPTED_RETRY);
+        e.initCause(failure);
+        return e;
+    }
+
+    /**
+     * Runs a single attempt, on the executor if attempts are limited by a timeout.
+     */
+    private <T> T attempt(final Supplier<T> task) {
+        final long timeoutNanos = options.attemptTimeoutNanos;
+        if (timeoutNanos == 0) {
+            return task.get();
+        }
+
+        final FutureTask<T> attempt = new FutureTask<>(task::get);
+        getExecutor().execute(attempt);
+        try {
+            return attempt.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            attempt.cancel(true);
+            throw timedOut(timeoutNanos);
+        } catch (InterruptedException e) {
+            attempt.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException(INTERRUPTED);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CompletionException(cause);
+        }
+    }
+
+    /**
+     * Creates the failure of an attempt that didn't finish within the provided timeout.
+     */
+    static AttemptTimeoutException timedOut(final long timeoutNanos) {
+        return new AttemptTimeoutException("Attempt didn't finish within "
+                + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms");
+    }
+
+    /**
+     * Performs (and retries if failed) a supplied task asynchronously and returns the result.
+     * Attempts are run on the configured executor, no thread is held while waiting between them.
+     *
+     * @param task the {@link Supplier} that should be tried (and retried).
+     * @param <T>  the return type.
+     * @return CompletableFuture holding a {@link Optional} of the result from the provided {@link Supplier}.
+     */
+    @Override
+    public <T> CompletableFuture<Optional<T>> performAndGetAsync(final Supplier<T> task) {
+        return performAndGetAsync(task, getExecutor());
+    }
+
+    /**
+     * Performs (and retries if failed) a supplied task asynchronously and returns the result.
+     * Attempts are run on the provided {@link Executor}, while the waits between them are handed to the
+     * {@link #getScheduler() scheduler}, so no thread is held while waiting.
+     *
+     * @param task     the {@link Supplier} that should be tried (and retried).
+     * @param executor the {@link Executor} that the attempts should be run on.
+     * @param <T>      the return type.
+     * @return CompletableFuture holding a {@link Optional} of the result from the provided {@link Supplier}.
+     */
+    @Override
+    public <T> CompletableFuture<Optional<T>> performAndGetAsync(final Supplier<T> task, final Executor executor) {
+        SanityChecker.verifyNoObjectIsNull(BAD_EXECUTOR, executor);
+        if (task == null) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        return new AsyncRetry<>(this, task, executor).start();
+    }
+
+    /**
+     * Converts the provided duration to nanoseconds, capped at {@link Long#MAX_VALUE} instead of overflowing.
+     */
+    static long toNanos(final Duration duration) {
+        try {
+            return Math.max(0, duration.toNanos());
+        } catch (ArithmeticException e) {
+            return duration.isNegative() ? 0 : Long.MAX_VALUE;
+        }
+    }
+
+    private static long verifyTimeBudget(final Duration timeBudget) {
+        SanityChecker.verifyNoObjectIsNull(BAD_TIME_BUDGET, timeBudget);
+        final long nanos = toNanos(timeBudget);
+        if (nanos <= 0) {
+            throw new IllegalArgumentException(BAD_TIME_BUDGET);
+        }
+
+        return nanos;
+    }
+
+    /**
+     * Keeps the first failure and adds the later ones as suppressed to it.
+     */
+    static RuntimeException addFailure(final RuntimeException exception, final RuntimeException e) {
+        if (exception == null) {
+            return e;
+        }
+
+        exception.addSuppressed(e);
+        return exception;
+    }
+}
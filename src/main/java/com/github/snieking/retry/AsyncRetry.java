@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.time.Scheduler;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * A single asynchronous call of an {@link AbstractRetryStrategy}.
+ *
+ * Every attempt is submitted to the executor, and the wait before the next attempt is handed to the
+ * {@link Scheduler} of the strategy. A pending retry therefore only costs the memory of this object, not a thread.
+ * The state below is handed from one attempt to the next through the executor and the scheduler.
+ *
+ * With an attempt timeout, a timer is started along with every attempt. The attempt and its timer race to settle
+ * the outcome, and whichever loses is ignored. A timed out attempt is cancelled, and the next attempt may start while
+ * a task that ignores interrupts is still running, but its outcome is dropped.
+ *
+ * @param <T> the return type of the task.
+ */
+final class AsyncRetry<T> implements Runnable {
+
+    private final AbstractRetryStrategy<?> strategy;
+    private final Supplier<T> task;
+    private final Executor executor;
+    private final CompletableFuture<Optional<T>> future = new CompletableFuture<>();
+    private final long startNanos;
+    private final long attemptTimeoutNanos;
+    private final AtomicInteger settled;
+    private final BiConsumer<Integer, Long> beforeRetry;
+
+    private RuntimeException exception;
+    private int retry;
+    private long delay;
+    private volatile Future<?> pendingRetry;
+    private volatile Future<?> runningAttempt;
+    private volatile Future<?> attemptTimer;
+
+    AsyncRetry(final AbstractRetryStrategy<?> strategy, final Supplier<T> task, final Executor executor) {
+        this(strategy, task, executor, 0, 0, null);
+    }
+
+    /**
+     * Creates a call that continues after the provided number of retries, such as one replayed from a journal.
+     *
+     * @param retry       the retries that were already performed.
+     * @param delay       the nanoseconds waited before the last of them.
+     * @param beforeRetry gets the number of the retry and the nanoseconds to wait before it, once a retry is
+     *                    decided on and before it's scheduled, or null.
+     */
+    AsyncRetry(final AbstractRetryStrategy<?> strategy, final Supplier<T> task, final Executor executor,
+               final int retry, final long delay, final BiConsumer<Integer, Long> beforeRetry) {
+        this.strategy = strategy;
+        this.task = task;
+        this.executor = executor;
+        this.attemptTimeoutNanos = strategy.getAttemptTimeoutNanos();
+        this.startNanos = strategy.startTiming(strategy.getTimeBudgetNanos());
+        this.retry = retry;
+        this.delay = delay;
+        this.settled = new AtomicInteger(retry - 1);
+        this.beforeRetry = beforeRetry;
+    }
+
+    /**
+     * Submits the first attempt.
+     *
+     * @return the future that completes with the outcome of the call.
+     */
+    CompletableFuture<Optional<T>> start() {
+        future.whenComplete((result, throwable) -> {
+            cancel(pendingRetry);
+            cancel(attemptTimer);
+        });
+        submit();
+        return future;
+    }
+
+    @Override
+    public void run() {
+        if (future.isDone()) {
+            return;
+        }
+
+        try {
+            attempt();
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+    }
+
+    private void attempt() {
+        final int attempt = retry;
+        final long attemptNanos = strategy.startAttempt();
+        Future<?> timer = null;
+        if (attemptTimeoutNanos > 0) {
+            final Future<?> running = runningAttempt;
+            timer = strategy.getScheduler().schedule(() -> timeOut(attempt, attemptNanos, running),
+                    attemptTimeoutNanos, TimeUnit.NANOSECONDS);
+            attemptTimer = timer;
+        }
+
+        final T result;
+        try {
+            strategy.log.trace("Attempt {} of running task", attempt + 1);
+            result = task.get();
+        } catch (RuntimeException e) {
+            if (settle(attempt, timer)) {
+                onFailure(e, attemptNanos);
+            }
+            return;
+        }
+
+        if (settle(attempt, timer)) {
+            strategy.onSuccess(attempt, attemptNanos, startNanos);
+            future.complete(Optional.ofNullable(result));
+        }
+    }
+
+    /**
+     * Claims the outcome of the provided attempt and cancels its timer, which fails if the timer already claimed it.
+     * The timer is the one of the attempt, since a later attempt may already have started its own.
+     */
+    private boolean settle(final int attempt, final Future<?> timer) {
+        if (attemptTimeoutNanos == 0) {
+            return true;
+        }
+
+        if (!settled.compareAndSet(attempt - 1, attempt)) {
+            return false;
+        }
+        cancel(timer);
+        return true;
+    }
+
+    private void timeOut(final int attempt, final long attemptNanos, final Future<?> running) {
+        if (!future.isDone() && settled.compareAndSet(attempt - 1, attempt)) {
+            running.cancel(true);
+            onFailure(AbstractRetryStrategy.timedOut(attemptTimeoutNanos), attemptNanos);
+        }
+    }
+
+    private void onFailure(final RuntimeException e, final long attemptNanos) {
+        exception = AbstractRetryStrategy.addFailure(exception, e);
+        strategy.onFailure(retry, e, attemptNanos);
+
+        final long nextDelay = strategy.retryDelayNanos(retry, e, strategy.nextDelayNanos(retry, delay), startNanos,
+                strategy.getTimeBudgetNanos());
+        if (nextDelay == AbstractRetryStrategy.NO_RETRY) {
+            future.completeExceptionally(exception);
+            return;
+        }
+
+        strategy.log.warn(AbstractRetryStrategy.FAILED_TASK, ++retry, strategy.getMaxRetries());
+        delay = nextDelay;
+        if (beforeRetry != null) {
+            beforeRetry.accept(retry, delay);
+        }
+        try {
+            pendingRetry = strategy.getScheduler().schedule(this::submit, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException rejected) {
+            rejected.addSuppressed(exception);
+            future.completeExceptionally(rejected);
+            return;
+        }
+        if (future.isDone()) {
+            cancel(pendingRetry);
+        }
+    }
+
+    private void submit() {
+        try {
+            if (attemptTimeoutNanos > 0) {
+                final FutureTask<Void> running = new FutureTask<>(this, null);
+                runningAttempt = running;
+                executor.execute(running);
+            } else {
+                executor.execute(this);
+            }
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static void cancel(final Future<?> pending) {
+        if (pending != null) {
+            pending.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+/**
+ * Failure of an attempt that didn't finish within the attempt timeout of its strategy. The attempt is cancelled,
+ * and like any other failure it's retried unless the retries are exhausted. It carries no stack trace, since it's
+ * thrown by the timer rather than by the task.
+ *
+ * @author Viktor Plane
+ */
+public class AttemptTimeoutException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates the exception with the provided message.
+     *
+     * @param message the detail message.
+     */
+    public AttemptTimeoutException(final String message) {
+        super(message, null, true, false);
+    }
+}
@@ -16,36 +16,22 @@
 
 package com.github.snieking.retry;
 
-import com.github.snieking.time.TimeManager;
 import com.github.snieking.util.SanityChecker;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
-import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Supplier;
 
 /**
  * Applies a basic retry strategy. Meaning that it will keep retrying for until a max attempts has been reached,
- * and wait a set duration between each attempt.
+ * and wait a set duration between each attempt. {@link #performAndGet(java.util.function.Supplier)} returns an
+ * empty result instead of throwing once the attempts are exhausted.
  */
-public final class BasicRetryStrategy implements RetryStrategy {
+public final class BasicRetryStrategy extends AbstractRetryStrategy<BasicRetryStrategy> {
 
-    private static final String FAILED_TASK = "Failed with task, performing retry attempt {}. Max attempt is {}.";
     private static final String BAD_ARGUMENTS = "Provided arguments can't be null";
 
-    private static final Logger LOG = LoggerFactory.getLogger(BasicRetryStrategy.class);
-
     private static final Duration DEFAULT_DURATION = Duration.ofSeconds(5);
     private static final int DEFAULT_MAX_ATTEMPTS = 10;
 
-    private static Map<Class, Object> nonRetryableExceptions;
-
-    private final Duration durationBeforeNextRetry;
-    private final int maxAttempts;
-
     /**
      * Creates a BasicRetryStrategy.
      *
@@ -53,91 +39,21 @@ public final class BasicRetryStrategy implements RetryStrategy {
      * @param maxAttempts the max retry attempts that will be performed.
      */
     private BasicRetryStrategy(final Duration duration, final int maxAttempts) {
-        this.durationBeforeNextRetry = duration;
-        this.maxAttempts = maxAttempts;
-        this.nonRetryableExceptions = new ConcurrentHashMap<>();
+        super(maxAttempts - 1, new long[]{toNanos(duration)});
     }
 
-    @Override
-    public BasicRetryStrategy nonRetryExceptions(Class... exceptions) {
-        this.nonRetryableExceptions = new ConcurrentHashMap<>();
-        for (Class e : exceptions) {
-            nonRetryableExceptions.put(e, new Object());
-        }
-
-        return this;
+    private BasicRetryStrategy(final BasicRetryStrategy original, final RetryOptions options) {
+        super(original, options);
     }
 
     @Override
-    public void perform(Runnable task) {
-        RuntimeException exception = null;
-        if (task != null) {
-            int currentAttempt = 0;
-            while (currentAttempt < maxAttempts) {
-
-                try {
-                    LOG.trace("Attempt {} of running task", currentAttempt+1);
-                    task.run();
-                    break;
-                } catch (RuntimeException e) {
-
-                    if (exception != null) {
-                        exception.addSuppressed(e);
-                    } else {
-                        exception = e;
-                    }
-
-                    if (!nonRetryableExceptions.containsKey(e.getClass())) {
-                        LOG.warn(FAILED_TASK, currentAttempt++, maxAttempts);
-                        TimeManager.waitUntilDurationPassed(durationBeforeNextRetry);
-                    } else {
-                        break;
-                    }
-
-                }
-
-            }
-        }
-
-        if (exception != null) {
-            throw exception;
-        }
+    BasicRetryStrategy withOptions(final RetryOptions options) {
+        return new BasicRetryStrategy(this, options);
     }
 
     @Override
-    public <T> Optional<T> performAndGet(Supplier<T> task) {
-        RuntimeException exception = null;
-        boolean latestFailed = false;
-        if (task != null) {
-            int currentAttempt = 0;
-
-            while (currentAttempt < maxAttempts) {
-                try {
-                    LOG.trace("Attempt {} of running task", currentAttempt+1);
-                    return Optional.ofNullable(task.get());
-                } catch (RuntimeException e) {
-
-                    if (exception != null) {
-                        exception.addSuppressed(e);
-                    } else {
-                        exception = e;
-                    }
-
-                    if (!nonRetryableExceptions.containsKey(e.getClass())) {
-                        LOG.warn(FAILED_TASK, currentAttempt++, maxAttempts);
-                        TimeManager.waitUntilDurationPassed(durationBeforeNextRetry);
-                    } else {
-                        break;
-                    }
-                }
-            }
-        }
-
-        if (latestFailed && exception != null) {
-            throw exception;
-        } else {
-            return Optional.empty();
-        }
+    boolean isEmptyOnFailure() {
+        return true;
     }
 
     /**
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.util.SanityChecker;
+
+import java.util.Optional;
+
+/**
+ * The outcome of a single key of a batch, see {@code performBatch} of the retry strategies.
+ *
+ * @param <V> the type of the value of a successful key.
+ * @author Viktor Plane
+ */
+public final class BatchResult<V> {
+
+    private static final String BAD_FAILURE = "Failure can't be null";
+    private static final BatchResult<?> EMPTY_SUCCESS = new BatchResult<>(null, null);
+
+    private final V value;
+    private final RuntimeException failure;
+
+    private BatchResult(final V value, final RuntimeException failure) {
+        this.value = value;
+        this.failure = failure;
+    }
+
+    /**
+     * Creates the outcome of a key that succeeded.
+     *
+     * @param value the value of the key, may be null.
+     * @param <V>   the type of the value.
+     * @return {@link BatchResult} holding the value.
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> BatchResult<V> success(final V value) {
+        return value == null ? (BatchResult<V>) EMPTY_SUCCESS : new BatchResult<>(value, null);
+    }
+
+    /**
+     * Creates the outcome of a key that failed. The key is retried unless the failure is one of the non-retryable
+     * exceptions of the strategy.
+     *
+     * @param failure the exception that the key failed with.
+     * @param <V>     the type of the value.
+     * @return {@link BatchResult} holding the failure.
+     */
+    public static <V> BatchResult<V> failure(final RuntimeException failure) {
+        SanityChecker.verifyNoObjectIsNull(BAD_FAILURE, failure);
+        return new BatchResult<>(null, failure);
+    }
+
+    /**
+     * Checks if the key succeeded.
+     *
+     * @return true if the key succeeded.
+     */
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+    /**
+     * Gets the value of a key that succeeded.
+     *
+     * @return {@link Optional} of the value, empty if the key failed or succeeded without a value.
+     */
+    public Optional<V> getValue() {
+        return Optional.ofNullable(value);
+    }
+
+    /**
+     * Gets the failure of a key that failed.
+     *
+     * @return {@link Optional} of the exception, empty if the key succeeded.
+     */
+    public Optional<RuntimeException> getFailure() {
+        return Optional.ofNullable(failure);
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess() ? "BatchResult[success=" + value + "]" : "BatchResult[failure=" + failure + "]";
+    }
+}
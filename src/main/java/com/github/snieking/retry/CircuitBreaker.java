@@ -0,0 +1,498 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.time.TimeManager;
+import com.github.snieking.util.SanityChecker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stops calling a dependency that keeps failing. The breaker tracks the failure rate of the attempts over a sliding
+ * window, and opens once the rate reaches a threshold. While open, tasks are rejected right away with a
+ * {@link CircuitBreakerOpenException} instead of being attempted, retried and waited on. After a cool-down the
+ * breaker lets a single trial task through, which closes it again on success or reopens it on failure. A trial that
+ * doesn't report its outcome within another cool-down, for example because its attempt hangs, is given up on and
+ * the next task is let through as a new trial.
+ *
+ * The window is either the last N attempts or the attempts of the last period of time, both kept in lock-free rings
+ * of primitive counters. Use {@link #wrap(RetryStrategy)} to put a strategy behind the breaker. Wrapped strategies
+ * read the time from their own scheduler, while the methods of the breaker itself read it from {@link TimeManager}.
+ *
+ * @author Viktor Plane
+ */
+public final class CircuitBreaker {
+
+    /**
+     * The states of the breaker.
+     */
+    public enum State {
+        /**
+         * Tasks are attempted as usual.
+         */
+        CLOSED,
+        /**
+         * Tasks are rejected without being attempted.
+         */
+        OPEN,
+        /**
+         * A single trial task is let through to check if the dependency has recovered.
+         */
+        HALF_OPEN
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private static final String BAD_ARGUMENTS = "Window and cool-down must be positive, and threshold within (0, 1]";
+    private static final String OPEN = "Circuit breaker is open";
+
+    private static final int DEFAULT_WINDOW_SIZE = 100;
+    private static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+    private static final Duration DEFAULT_COOL_DOWN = Duration.ofSeconds(30);
+    private static final int MINIMUM_CALLS = 10;
+    private static final Permit NO_TRIAL = new Permit(0);
+
+    private final SlidingWindow window;
+    private final double failureRateThreshold;
+    private final long coolDownNanos;
+    private final int minimumCalls;
+
+    private final AtomicReference<Status> status = new AtomicReference<>(Status.CLOSED);
+    private final AtomicReference<Permit> trial = new AtomicReference<>();
+
+    private CircuitBreaker(final SlidingWindow window, final double failureRateThreshold, final Duration coolDown,
+                           final int minimumCalls) {
+        this.window = window;
+        this.failureRateThreshold = failureRateThreshold;
+        this.coolDownNanos = coolDown.toNanos();
+        this.minimumCalls = minimumCalls;
+    }
+
+    /**
+     * Puts the provided strategy behind this breaker. Calls are rejected while the breaker is open, and the outcome
+     * of every attempt is recorded. An attempt that is about to start after the breaker opened is rejected as well,
+     * which stops the strategy from retrying.
+     *
+     * @param strategy the {@link RetryStrategy} to protect.
+     * @return {@link RetryStrategy} that goes through this breaker.
+     */
+    public RetryStrategy wrap(final RetryStrategy strategy) {
+        SanityChecker.verifyNoObjectIsNull("Strategy can't be null", strategy);
+        return new CircuitBreakingRetryStrategy(this, strategy);
+    }
+
+    /**
+     * Checks if a task may be attempted, and moves an open breaker whose cool-down has passed to half-open.
+     * A permitted trial in the half-open state must be followed by {@link #recordSuccess()} or
+     * {@link #recordFailure()}, otherwise no other trial is let through until another cool-down has passed.
+     *
+     * @return true if the task may be attempted.
+     */
+    public boolean tryAcquirePermission() {
+        return acquirePermission(TimeManager.nanoTime()) != null;
+    }
+
+    /**
+     * Checks if a task may be attempted at the provided time, see {@link #tryAcquirePermission()}.
+     *
+     * @param now the current time in nanoseconds.
+     * @return the permit of the task, which is a trial in the half-open state, or null if the task is rejected.
+     */
+    Permit acquirePermission(final long now) {
+        final Status current = status.get();
+        switch (current.state) {
+            case CLOSED:
+                return NO_TRIAL;
+            case OPEN:
+                if (now - current.openedAt < coolDownNanos || !status.compareAndSet(current, Status.HALF_OPEN)) {
+                    return null;
+                }
+                LOG.info("Circuit breaker cool-down has passed, letting a trial task through.");
+                return startTrial(now);
+            default:
+                return startTrial(now);
+        }
+    }
+
+    /**
+     * Lets a trial through, unless another trial is in progress and hasn't passed its deadline yet.
+     */
+    private Permit startTrial(final long now) {
+        final Permit current = trial.get();
+        if (current != null && now - current.trialDeadline < 0) {
+            return null;
+        }
+
+        final Permit next = new Permit(now + coolDownNanos);
+        if (!trial.compareAndSet(current, next)) {
+            return null;
+        }
+        if (current != null) {
+            LOG.warn("Circuit breaker trial task didn't finish within the cool-down, letting another trial through.");
+        }
+        return next;
+    }
+
+    /**
+     * Checks if the task of the provided permit may start another attempt. While half-open, only the trial may.
+     *
+     * @param permit the permit from {@link #acquirePermission(long)}.
+     * @return true if the attempt may start.
+     */
+    boolean permits(final Permit permit) {
+        switch (status.get().state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return false;
+            default:
+                return permit != NO_TRIAL && trial.get() == permit;
+        }
+    }
+
+    /**
+     * Ends the trial of the provided permit, if it's still in progress, so that another trial can be let through.
+     * Used when the task of the permit ends without an attempt that recorded its outcome, for example because it
+     * was rejected by its executor or cancelled.
+     *
+     * @param permit the permit from {@link #acquirePermission(long)}.
+     */
+    void release(final Permit permit) {
+        if (permit != NO_TRIAL && trial.compareAndSet(permit, null)) {
+            LOG.info("Circuit breaker trial task ended without an outcome, letting another trial through.");
+        }
+    }
+
+    /**
+     * Records an attempt that succeeded, which closes a half-open breaker.
+     */
+    public void recordSuccess() {
+        recordSuccess(trial.get(), TimeManager.nanoTime());
+    }
+
+    /**
+     * Records an attempt of the task of the provided permit that succeeded at the provided time. While half-open,
+     * only the outcome of the trial is recorded.
+     *
+     * @param permit the permit from {@link #acquirePermission(long)}.
+     * @param now    the current time in nanoseconds.
+     */
+    void recordSuccess(final Permit permit, final long now) {
+        if (status.get().state == State.HALF_OPEN) {
+            if (trial.get() == permit && status.compareAndSet(Status.HALF_OPEN, Status.CLOSED)) {
+                LOG.info("Circuit breaker trial task succeeded, closing.");
+                trial.set(null);
+                window.reset();
+            }
+            return;
+        }
+
+        window.record(false, now);
+    }
+
+    /**
+     * Records an attempt that failed, which opens the breaker once the failure rate reaches the threshold.
+     */
+    public void recordFailure() {
+        recordFailure(trial.get(), TimeManager.nanoTime());
+    }
+
+    /**
+     * Records an attempt of the task of the provided permit that failed at the provided time. While half-open,
+     * only the outcome of the trial is recorded.
+     *
+     * @param permit the permit from {@link #acquirePermission(long)}.
+     * @param now    the current time in nanoseconds.
+     */
+    void recordFailure(final Permit permit, final long now) {
+        if (status.get().state == State.HALF_OPEN) {
+            if (trial.get() == permit) {
+                open(Status.HALF_OPEN, permit, now);
+            }
+            return;
+        }
+
+        window.record(true, now);
+        final long calls = window.getCalls(now);
+        if (calls >= minimumCalls && window.getFailures(now) >= failureRateThreshold * calls) {
+            open(Status.CLOSED, null, now);
+        }
+    }
+
+    /**
+     * Gets the current state of the breaker.
+     *
+     * @return the {@link State}.
+     */
+    public State getState() {
+        return status.get().state;
+    }
+
+    /**
+     * Gets the failure rate of the attempts in the current window.
+     *
+     * @return the failure rate between 0 and 1, 0 if nothing has been recorded.
+     */
+    public double getFailureRate() {
+        final long now = TimeManager.nanoTime();
+        final long calls = window.getCalls(now);
+        return calls == 0 ? 0 : window.getFailures(now) / (double) calls;
+    }
+
+    /**
+     * Opens the breaker if it's still in the provided status. The time it opened is published along with the state,
+     * so that a late failure can't extend the cool-down of a breaker that is already open.
+     */
+    private void open(final Status from, final Permit permit, final long now) {
+        if (status.compareAndSet(from, new Status(State.OPEN, now))) {
+            trial.compareAndSet(permit, null);
+            LOG.warn("Circuit breaker opened, rejecting tasks for the next {} ms.", coolDownNanos / 1_000_000);
+        }
+    }
+
+    /**
+     * Creates the exception that rejected tasks fail with.
+     */
+    static CircuitBreakerOpenException rejection() {
+        return new CircuitBreakerOpenException(OPEN);
+    }
+
+    /**
+     * Creates a CircuitBreaker over the last 100 attempts, that opens at a failure rate of 50% and cools down for
+     * 30 seconds.
+     *
+     * @return {@link CircuitBreaker} instance.
+     */
+    public static CircuitBreaker createCircuitBreaker() {
+        return createCountBasedCircuitBreaker(DEFAULT_WINDOW_SIZE, DEFAULT_FAILURE_RATE_THRESHOLD, DEFAULT_COOL_DOWN);
+    }
+
+    /**
+     * Creates a CircuitBreaker over the provided number of latest attempts. The breaker doesn't open before the
+     * window holds at least 10 attempts, or the window size if that is smaller.
+     *
+     * @param windowSize           the number of latest attempts the failure rate is computed over.
+     * @param failureRateThreshold the failure rate, between 0 and 1, that opens the breaker.
+     * @param coolDown             the time the breaker stays open before letting a trial task through.
+     * @return {@link CircuitBreaker} instance.
+     */
+    public static CircuitBreaker createCountBasedCircuitBreaker(final int windowSize, final double failureRateThreshold,
+                                                                final Duration coolDown) {
+        verify(windowSize > 0, failureRateThreshold, coolDown);
+        return new CircuitBreaker(new CountBasedWindow(windowSize), failureRateThreshold, coolDown,
+                Math.min(windowSize, MINIMUM_CALLS));
+    }
+
+    /**
+     * Creates a CircuitBreaker over the attempts of the provided period of time. The breaker doesn't open before
+     * the window holds at least 10 attempts.
+     *
+     * @param window               the period of time the failure rate is computed over.
+     * @param failureRateThreshold the failure rate, between 0 and 1, that opens the breaker.
+     * @param coolDown             the time the breaker stays open before letting a trial task through.
+     * @return {@link CircuitBreaker} instance.
+     */
+    public static CircuitBreaker createTimeBasedCircuitBreaker(final Duration window, final double failureRateThreshold,
+                                                               final Duration coolDown) {
+        SanityChecker.verifyNoObjectIsNull(BAD_ARGUMENTS, window);
+        verify(!window.isNegative() && !window.isZero(), failureRateThreshold, coolDown);
+        return new CircuitBreaker(new TimeBasedWindow(window.toNanos()), failureRateThreshold, coolDown,
+                MINIMUM_CALLS);
+    }
+
+    private static void verify(final boolean validWindow, final double failureRateThreshold, final Duration coolDown) {
+        SanityChecker.verifyNoObjectIsNull(BAD_ARGUMENTS, coolDown);
+        if (!validWindow || failureRateThreshold <= 0 || failureRateThreshold > 1
+                || coolDown.isNegative() || coolDown.isZero()) {
+            throw new IllegalArgumentException(BAD_ARGUMENTS);
+        }
+    }
+
+    /**
+     * The permission to attempt a task, which holds the deadline of the trial in the half-open state.
+     */
+    static final class Permit {
+
+        private final long trialDeadline;
+
+        private Permit(final long trialDeadline) {
+            this.trialDeadline = trialDeadline;
+        }
+    }
+
+    /**
+     * The state of the breaker, along with the time it opened while open.
+     */
+    private static final class Status {
+
+        private static final Status CLOSED = new Status(State.CLOSED, 0);
+        private static final Status HALF_OPEN = new Status(State.HALF_OPEN, 0);
+
+        private final State state;
+        private final long openedAt;
+
+        private Status(final State state, final long openedAt) {
+            this.state = state;
+            this.openedAt = openedAt;
+        }
+    }
+
+    /**
+     * The attempts that the failure rate is computed over.
+     */
+    private interface SlidingWindow {
+
+        void record(boolean failure, long now);
+
+        long getCalls(long now);
+
+        long getFailures(long now);
+
+        void reset();
+    }
+
+    /**
+     * Keeps the outcome of the latest attempts in a ring, along with running totals.
+     */
+    private static final class CountBasedWindow implements SlidingWindow {
+
+        private static final int EMPTY = 0;
+        private static final int SUCCESS = 1;
+        private static final int FAILURE = 2;
+
+        private final AtomicIntegerArray outcomes;
+        private final AtomicLong next = new AtomicLong();
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+
+        CountBasedWindow(final int size) {
+            this.outcomes = new AtomicIntegerArray(size);
+        }
+
+        @Override
+        public void record(final boolean failure, final long now) {
+            final int slot = (int) (next.getAndIncrement() % outcomes.length());
+            final int previous = outcomes.getAndSet(slot, failure ? FAILURE : SUCCESS);
+
+            if (previous == EMPTY) {
+                calls.incrementAndGet();
+            } else if (previous == FAILURE) {
+                failures.decrementAndGet();
+            }
+
+            if (failure) {
+                failures.incrementAndGet();
+            }
+        }
+
+        @Override
+        public long getCalls(final long now) {
+            return calls.get();
+        }
+
+        @Override
+        public long getFailures(final long now) {
+            return failures.get();
+        }
+
+        @Override
+        public void reset() {
+            for (int i = 0; i < outcomes.length(); i++) {
+                final int previous = outcomes.getAndSet(i, EMPTY);
+                if (previous != EMPTY) {
+                    calls.decrementAndGet();
+                }
+                if (previous == FAILURE) {
+                    failures.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the attempts of the latest period of time, split into buckets that are reused once they fall out of
+     * the window.
+     */
+    private static final class TimeBasedWindow implements SlidingWindow {
+
+        private static final int BUCKETS = 10;
+
+        private final long bucketNanos;
+        private final AtomicLongArray periods = new AtomicLongArray(BUCKETS);
+        private final AtomicLongArray calls = new AtomicLongArray(BUCKETS);
+        private final AtomicLongArray failures = new AtomicLongArray(BUCKETS);
+
+        TimeBasedWindow(final long windowNanos) {
+            this.bucketNanos = Math.max(1, windowNanos / BUCKETS);
+            reset();
+        }
+
+        @Override
+        public void record(final boolean failure, final long now) {
+            final long period = now / bucketNanos;
+            final int bucket = (int) Math.floorMod(period, (long) BUCKETS);
+
+            final long bucketPeriod = periods.get(bucket);
+            if (bucketPeriod != period && periods.compareAndSet(bucket, bucketPeriod, period)) {
+                calls.set(bucket, 0);
+                failures.set(bucket, 0);
+            }
+
+            calls.incrementAndGet(bucket);
+            if (failure) {
+                failures.incrementAndGet(bucket);
+            }
+        }
+
+        @Override
+        public long getCalls(final long now) {
+            return sum(calls, now);
+        }
+
+        @Override
+        public long getFailures(final long now) {
+            return sum(failures, now);
+        }
+
+        private long sum(final AtomicLongArray counts, final long now) {
+            final long period = now / bucketNanos;
+            long sum = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                final long bucketPeriod = periods.get(i);
+                if (bucketPeriod > period - BUCKETS && bucketPeriod <= period) {
+                    sum += counts.get(i);
+                }
+            }
+
+            return sum;
+        }
+
+        @Override
+        public void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                periods.set(i, Long.MIN_VALUE);
+            }
+        }
+    }
+}
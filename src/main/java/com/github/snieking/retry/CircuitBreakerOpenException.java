@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+/**
+ * Thrown instead of running a task while a {@link CircuitBreaker} is open. The strategies in this package never
+ * retry it. It carries no stack trace, which keeps rejecting a task cheap.
+ *
+ * @author Viktor Plane
+ */
+public class CircuitBreakerOpenException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates the exception with the provided message.
+     *
+     * @param message the detail message.
+     */
+    public CircuitBreakerOpenException(final String message) {
+        super(message, null, true, false);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A {@link RetryStrategy} behind a {@link CircuitBreaker}. Every call asks the breaker for permission first, and
+ * every attempt records its outcome in it, timed by the scheduler of the wrapped strategy.
+ *
+ * @author Viktor Plane
+ */
+final class CircuitBreakingRetryStrategy implements RetryStrategy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreakingRetryStrategy.class);
+
+    private final CircuitBreaker circuitBreaker;
+    private final RetryStrategy strategy;
+
+    CircuitBreakingRetryStrategy(final CircuitBreaker circuitBreaker, final RetryStrategy strategy) {
+        this.circuitBreaker = circuitBreaker;
+        this.strategy = strategy;
+    }
+
+    /**
+     * Skip retry if one of the provided exceptions occur, see {@link RetryStrategy#nonRetryExceptions(Class[])}.
+     *
+     * @param exceptions list of exceptions to not perform retry if one of them occurs.
+     * @return a new retry strategy instance behind the same circuit breaker.
+     */
+    @Override
+    public RetryStrategy nonRetryExceptions(final Class<?>... exceptions) {
+        return new CircuitBreakingRetryStrategy(circuitBreaker, (RetryStrategy) strategy.nonRetryExceptions(exceptions));
+    }
+
+    @Override
+    public void perform(final Runnable runnable) {
+        if (runnable != null) {
+            performAndGetOrThrow(supplierOf(runnable));
+        }
+    }
+
+    @Override
+    public void performAsync(final Runnable runnable) {
+        if (runnable != null) {
+            logFailure(performGuardedAsync(acquirePermission(), strategy::performAndGetAsync, supplierOf(runnable)));
+        }
+    }
+
+    @Override
+    public void performAsync(final Runnable runnable, final Executor executor) {
+        if (runnable != null) {
+            logFailure(performGuardedAsync(acquirePermission(),
+                    guarded -> strategy.performAndGetAsync(guarded, executor), supplierOf(runnable)));
+        }
+    }
+
+    @Override
+    public <T> Optional<T> performAndGet(final Supplier<T> task) {
+        if (task == null) {
+            return Optional.empty();
+        }
+
+        final CircuitBreaker.Permit permit = acquirePermission();
+        try {
+            return strategy.performAndGet(guard(task, permit));
+        } finally {
+            circuitBreaker.release(permit);
+        }
+    }
+
+    /**
+     * Performs the task like {@link #performAndGet(Supplier)}, but throws once the call has failed even if the
+     * wrapped strategy returns an empty result instead.
+     */
+    <T> Optional<T> performAndGetOrThrow(final Supplier<T> task) {
+        final CircuitBreaker.Permit permit = acquirePermission();
+        try {
+            return AbstractRetryStrategy.performAndGetOrThrow(strategy, guard(task, permit));
+        } finally {
+            circuitBreaker.release(permit);
+        }
+    }
+
+    @Override
+    public <T> CompletableFuture<Optional<T>> performAndGetAsync(final Supplier<T> task) {
+        if (task == null) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        final CircuitBreaker.Permit permit = circuitBreaker.acquirePermission(nanoTime());
+        return permit != null ? performGuardedAsync(permit, strategy::performAndGetAsync, task) : rejected();
+    }
+
+    @Override
+    public <T> CompletableFuture<Optional<T>> performAndGetAsync(final Supplier<T> task, final Executor executor) {
+        if (task == null) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        final CircuitBreaker.Permit permit = circuitBreaker.acquirePermission(nanoTime());
+        return permit != null
+                ? performGuardedAsync(permit, guarded -> strategy.performAndGetAsync(guarded, executor), task)
+                : rejected();
+    }
+
+    private CircuitBreaker.Permit acquirePermission() {
+        final CircuitBreaker.Permit permit = circuitBreaker.acquirePermission(nanoTime());
+        if (permit == null) {
+            throw CircuitBreaker.rejection();
+        }
+        return permit;
+    }
+
+    /**
+     * Performs the guarded task asynchronously, and releases the permit once the call completes. A call that is
+     * rejected by its executor or cancelled before an attempt recorded its outcome thereby doesn't keep the trial
+     * of a half-open breaker.
+     */
+    private <T> CompletableFuture<Optional<T>> performGuardedAsync(
+            final CircuitBreaker.Permit permit,
+            final Function<Supplier<T>, CompletableFuture<Optional<T>>> perform,
+            final Supplier<T> task) {
+        final CompletableFuture<Optional<T>> future;
+        try {
+            future = perform.apply(guard(task, permit));
+        } catch (RuntimeException | Error e) {
+            circuitBreaker.release(permit);
+            throw e;
+        }
+
+        future.whenComplete((result, throwable) -> circuitBreaker.release(permit));
+        return future;
+    }
+
+    /**
+     * Wraps a task so that each attempt records its outcome, and so that no attempt is started once the breaker
+     * has opened. While the breaker is half-open, only the attempts of the trial are started, so that calls that
+     * began before it opened can't decide the trial.
+     */
+    private <T> Supplier<T> guard(final Supplier<T> task, final CircuitBreaker.Permit permit) {
+        return () -> {
+            if (!circuitBreaker.permits(permit)) {
+                throw CircuitBreaker.rejection();
+            }
+
+            final T result;
+            try {
+                result = task.get();
+            } catch (RuntimeException | Error e) {
+                circuitBreaker.recordFailure(permit, nanoTime());
+                throw e;
+            }
+
+            circuitBreaker.recordSuccess(permit, nanoTime());
+            return result;
+        };
+    }
+
+    /**
+     * Reads the time from the scheduler of the wrapped strategy.
+     */
+    private long nanoTime() {
+        return AbstractRetryStrategy.schedulerOf(strategy).nanoTime();
+    }
+
+    private static Supplier<Object> supplierOf(final Runnable runnable) {
+        return () -> {
+            runnable.run();
+            return null;
+        };
+    }
+
+    private static void logFailure(final CompletableFuture<?> future) {
+        future.whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                LOG.warn("Gave up on asynchronous task.", throwable);
+            }
+        });
+    }
+
+    private static <T> CompletableFuture<Optional<T>> rejected() {
+        final CompletableFuture<Optional<T>> future = new CompletableFuture<>();
+        future.completeExceptionally(CircuitBreaker.rejection());
+        return future;
+    }
+}
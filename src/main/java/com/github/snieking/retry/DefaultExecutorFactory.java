@@ -0,0 +1,43 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Creates the executor that is shared by all strategies that haven't been configured with one. The multi-release
+ * jar replaces this class on newer Java versions, so it's kept to the part that differs between them.
+ *
+ * @author Viktor Plane
+ */
+final class DefaultExecutorFactory {
+
+    private static final int DEFAULT_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+
+    private DefaultExecutorFactory() {
+    }
+
+    /**
+     * Creates a pool of twice the number of processors (at least 4) threads, that queues up to 10000 attempts.
+     *
+     * @return the default {@link Executor}.
+     */
+    static Executor create() {
+        return RetryExecutors.newBoundedExecutor(DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY);
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.util.SanityChecker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A retry queue that survives restarts, for fire-and-forget side effects such as webhook deliveries.
+ * Every task is serialized into a journal on disk before it's attempted, along with its attempt state after every
+ * failure, and completed tasks are dropped from the journal as it's compacted. Creating a queue on the directory of
+ * a previous one replays the tasks that were still pending, and continues their backoff where it was left.
+ *
+ * Tasks are handled on the executor of the strategy, and retried like its asynchronous calls: its backoff, retry
+ * budget, time budget, attempt timeout and listener all apply, with the waits handed to its scheduler. The time
+ * budget of a replayed task counts from when it's replayed. A task that is given up on is logged and dropped.
+ *
+ * A task that the executor or scheduler of the strategy rejects stays pending, and waits in memory until it's
+ * submitted again after a backoff that doubles from 10 ms up to a second while the rejections go on. Tasks are
+ * submitted in turn until the first rejection, so replaying a large journal, or a burst of tasks, never submits
+ * more than the executor accepts.
+ *
+ * The journal is a set of memory-mapped segment files that are forced to disk once per sync interval, so enqueuing
+ * only copies the task into memory shared with the file system. A task survives the process crashing right after
+ * it's enqueued, while a crash of the whole machine may lose the tasks of the last sync interval, unless
+ * {@link #sync()} is called.
+ *
+ * @param <T> the type of the tasks.
+ * @author Viktor Plane
+ */
+public final class DurableRetryQueue<T> implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DurableRetryQueue.class);
+    private static final String BAD_ARGUMENTS = "Directory, strategy, serializer and handler can't be null";
+    private static final String BAD_STRATEGY = "Strategy must be one of the strategies in this package";
+    private static final String BAD_SEGMENT_SIZE = "Segment size must be at least 64 KiB";
+    private static final String BAD_SYNC_INTERVAL = "Sync interval must be positive";
+    private static final String BAD_TASK = "Task can't be null";
+    private static final String CLOSED = "Queue is closed";
+    private static final String GAVE_UP = "Gave up on durable task {} after {} attempts.";
+    private static final String UNREADABLE = "Dropping durable task {} that can't be deserialized.";
+    private static final String REJECTED = "Durable task {} was rejected, submitting it again in {} ns.";
+    private static final String NOT_SCHEDULED = "Couldn't schedule durable tasks, {} stay pending until replayed.";
+
+    private static final int DEFAULT_SEGMENT_BYTES = 64 << 20;
+    private static final int MIN_SEGMENT_BYTES = 64 << 10;
+    private static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofMillis(10);
+    private static final long MIN_RESUBMIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long MAX_RESUBMIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final RetryJournal journal;
+    private final AbstractRetryStrategy<?> strategy;
+    private final Serializer<T> serializer;
+    private final Consumer<T> handler;
+    private final Map<Long, CompletableFuture<?>> calls = new ConcurrentHashMap<>();
+    private final Queue<Runnable> backlog = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger drains = new AtomicInteger();
+    private final AtomicBoolean throttled = new AtomicBoolean();
+
+    private volatile long resubmitNanos = MIN_RESUBMIT_NANOS;
+    private volatile boolean closed;
+
+    private DurableRetryQueue(final RetryJournal journal, final AbstractRetryStrategy<?> strategy,
+                              final Serializer<T> serializer, final Consumer<T> handler) {
+        this.journal = journal;
+        this.strategy = strategy;
+        this.serializer = serializer;
+        this.handler = handler;
+    }
+
+    /**
+     * Creates a queue with 64 MiB segments that are synced every 10 ms, and replays the pending tasks that are
+     * found in the directory.
+     *
+     * @param directory  the directory of the journal, which is created if it doesn't exist.
+     * @param strategy   the {@link RetryStrategy} that tasks are retried with.
+     * @param serializer the {@link Serializer} of the tasks.
+     * @param handler    performs a task, and fails it by throwing.
+     * @param <T>        the type of the tasks.
+     * @return {@link DurableRetryQueue}
+     */
+    public static <T> DurableRetryQueue<T> createDurableRetryQueue(final Path directory,
+                                                                   final RetryStrategy strategy,
+                                                                   final Serializer<T> serializer,
+                                                                   final Consumer<T> handler) {
+        return createDurableRetryQueue(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_SYNC_INTERVAL, strategy, serializer,
+                handler);
+    }
+
+    /**
+     * Creates a queue and replays the pending tasks that are found in the directory.
+     *
+     * @param directory    the directory of the journal, which is created if it doesn't exist.
+     * @param segmentBytes the size of every segment file, which is also the max size of a serialized task.
+     * @param syncInterval how often the journal is forced to disk.
+     * @param strategy     the {@link RetryStrategy} that tasks are retried with.
+     * @param serializer   the {@link Serializer} of the tasks.
+     * @param handler      performs a task, and fails it by throwing.
+     * @param <T>          the type of the tasks.
+     * @return {@link DurableRetryQueue}
+     * @throws java.io.UncheckedIOException if the journal can't be read or created.
+     */
+    public static <T> DurableRetryQueue<T> createDurableRetryQueue(final Path directory, final int segmentBytes,
+                                                                   final Duration syncInterval,
+                                                                   final RetryStrategy strategy,
+                                                                   final Serializer<T> serializer,
+                                                                   final Consumer<T> handler) {
+        SanityChecker.verifyNoObjectIsNull(BAD_ARGUMENTS, directory, strategy, serializer, handler);
+        SanityChecker.verifyNoObjectIsNull(BAD_SYNC_INTERVAL, syncInterval);
+        if (!(strategy instanceof AbstractRetryStrategy)) {
+            throw new IllegalArgumentException(BAD_STRATEGY);
+        }
+        if (segmentBytes < MIN_SEGMENT_BYTES) {
+            throw new IllegalArgumentException(BAD_SEGMENT_SIZE);
+        }
+        if (syncInterval.isNegative() || syncInterval.isZero()) {
+            throw new IllegalArgumentException(BAD_SYNC_INTERVAL);
+        }
+
+        final RetryJournal journal = RetryJournal.open(directory, segmentBytes, syncInterval.toNanos());
+        final DurableRetryQueue<T> queue = new DurableRetryQueue<>(journal, (AbstractRetryStrategy<?>) strategy,
+                serializer, handler);
+        queue.replay();
+        return queue;
+    }
+
+    /**
+     * Writes the task to the journal and submits its first attempt, or leaves it waiting while the executor of the
+     * strategy rejects tasks.
+     *
+     * @param task the task to perform.
+     * @throws RejectedExecutionException if the queue is closed.
+     * @throws IllegalArgumentException   if the serialized task doesn't fit into a segment.
+     */
+    public void enqueue(final T task) {
+        SanityChecker.verifyNoObjectIsNull(BAD_TASK, task);
+        if (closed) {
+            throw new RejectedExecutionException(CLOSED);
+        }
+
+        final RetryJournal.Entry entry = journal.append(serializer.serialize(task));
+        if (entry == null) {
+            throw new RejectedExecutionException(CLOSED);
+        }
+        backlog.add(() -> submit(entry, task));
+        drain();
+    }
+
+    /**
+     * Gets the number of tasks that are neither done nor given up on.
+     *
+     * @return the number of pending tasks.
+     */
+    public int getPendingTasks() {
+        return journal.getLiveEntryCount();
+    }
+
+    /**
+     * Forces the journal to disk right away, instead of waiting for the next sync interval.
+     */
+    public void sync() {
+        journal.sync();
+    }
+
+    /**
+     * Syncs the journal and stops attempting tasks. Attempts that are running still finish, but their outcome is
+     * not recorded, and the tasks that are pending are replayed by the next queue on the same directory.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        journal.close();
+        backlog.clear();
+        calls.values().forEach(call -> call.cancel(false));
+    }
+
+    private void replay() {
+        final long now = System.currentTimeMillis();
+        for (RetryJournal.Entry entry : journal.getLiveEntries()) {
+            final T task;
+            try {
+                task = serializer.deserialize(entry.payload);
+            } catch (RuntimeException e) {
+                LOG.error(UNREADABLE, entry.id, e);
+                journal.complete(entry);
+                continue;
+            }
+
+            final long delayMillis = Math.max(0, entry.nextAttemptMillis - now);
+            if (delayMillis == 0) {
+                backlog.add(() -> submit(entry, task));
+                continue;
+            }
+
+            try {
+                strategy.getScheduler().schedule(() -> {
+                    backlog.add(() -> submit(entry, task));
+                    drain();
+                }, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                LOG.error(NOT_SCHEDULED, 1, e);
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Submits the waiting tasks in turn until one is rejected. Only one thread drains at a time, while a request to
+     * drain from another thread, or from a task that completes right away, makes it go on.
+     */
+    private void drain() {
+        if (drains.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+            Runnable next;
+            while (!closed && !throttled.get() && (next = backlog.poll()) != null) {
+                next.run();
+            }
+            missed = drains.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Stops submitting the waiting tasks until the backoff has passed.
+     */
+    private void throttle() {
+        if (!throttled.compareAndSet(false, true)) {
+            return;
+        }
+
+        final long delayNanos = resubmitNanos;
+        resubmitNanos = Math.min(delayNanos * 2, MAX_RESUBMIT_NANOS);
+        try {
+            strategy.getScheduler().schedule(() -> {
+                throttled.set(false);
+                drain();
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.error(NOT_SCHEDULED, backlog.size(), e);
+        }
+    }
+
+    private void submit(final RetryJournal.Entry entry, final T task) {
+        if (closed) {
+            return;
+        }
+
+        final CompletableFuture<?> call = new AsyncRetry<>(strategy, () -> {
+            handler.accept(task);
+            return null;
+        }, strategy.getExecutor(), entry.attempts, entry.delayNanos, (retry, delayNanos) -> journal.recordAttempt(
+                entry, retry, delayNanos, System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(delayNanos)))
+                .start();
+        calls.put(entry.id, call);
+        call.whenComplete((result, throwable) -> onCompleted(entry, task, call, throwable));
+        if (closed) {
+            call.cancel(false);
+        }
+    }
+
+    private void onCompleted(final RetryJournal.Entry entry, final T task, final CompletableFuture<?> call,
+                             final Throwable throwable) {
+        calls.remove(entry.id, call);
+        if (closed) {
+            return;
+        }
+
+        if (throwable instanceof RejectedExecutionException) {
+            LOG.debug(REJECTED, entry.id, resubmitNanos);
+            backlog.add(() -> submit(entry, task));
+            throttle();
+            return;
+        }
+
+        if (throwable != null) {
+            LOG.error(GAVE_UP, entry.id, entry.attempts + 1, throwable);
+        }
+        journal.complete(entry);
+        resubmitNanos = MIN_RESUBMIT_NANOS;
+        drain();
+    }
+
+    /**
+     * Turns tasks into bytes for the journal, and back.
+     *
+     * @param <T> the type of the tasks.
+     */
+    public interface Serializer<T> {
+
+        /**
+         * Serializes the task.
+         *
+         * @param task the task to serialize.
+         * @return the bytes of the task.
+         */
+        byte[] serialize(T task);
+
+        /**
+         * Deserializes a task that was serialized by {@link #serialize(Object)}, possibly by an earlier process.
+         *
+         * @param bytes the bytes of the task.
+         * @return the task.
+         */
+        T deserialize(byte[] bytes);
+    }
+}
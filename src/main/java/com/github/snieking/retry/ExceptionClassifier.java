@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.util.SanityChecker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decides if an exception is one of a set of exception types. Subclasses of a type match as well, and so does an
+ * exception that has a matching exception somewhere in its cause chain.
+ *
+ * The decision is cached per concrete exception class, so the class hierarchy is only walked the first time a
+ * class is seen. Types that aren't exceptions never match.
+ *
+ * @author Viktor Plane
+ */
+final class ExceptionClassifier {
+
+    static final ExceptionClassifier NONE = new ExceptionClassifier(Collections.emptyList());
+
+    private static final String BAD_EXCEPTIONS = "Exceptions can't be null";
+    private static final int MAX_CAUSE_DEPTH = 32;
+
+    private final List<Class<? extends Throwable>> exceptions;
+    private final ClassValue<Boolean> decisions = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(final Class<?> type) {
+            for (Class<? extends Throwable> exception : exceptions) {
+                if (exception.isAssignableFrom(type)) {
+                    return Boolean.TRUE;
+                }
+            }
+
+            return Boolean.FALSE;
+        }
+    };
+
+    private ExceptionClassifier(final List<Class<? extends Throwable>> exceptions) {
+        this.exceptions = exceptions;
+    }
+
+    /**
+     * Creates a classifier matching the provided exception types.
+     *
+     * @param exceptions the exception types, and their subclasses, that should match.
+     * @return {@link ExceptionClassifier} instance.
+     */
+    static ExceptionClassifier of(final Class<?>... exceptions) {
+        if (exceptions == null) {
+            throw new IllegalArgumentException(BAD_EXCEPTIONS);
+        }
+
+        SanityChecker.verifyNoObjectIsNull(BAD_EXCEPTIONS, (Object[]) exceptions);
+        final List<Class<? extends Throwable>> throwables = new ArrayList<>(exceptions.length);
+        for (Class<?> exception : exceptions) {
+            if (Throwable.class.isAssignableFrom(exception)) {
+                throwables.add(exception.asSubclass(Throwable.class));
+            }
+        }
+        return throwables.isEmpty() ? NONE : new ExceptionClassifier(throwables);
+    }
+
+    /**
+     * Checks if the provided exception, or one of its causes, is of one of the types.
+     *
+     * @param throwable the exception to check.
+     * @return true if it matches.
+     */
+    boolean matches(final Throwable throwable) {
+        if (exceptions.isEmpty()) {
+            return false;
+        }
+
+        Throwable current = throwable;
+        for (int depth = 0; current != null && depth < MAX_CAUSE_DEPTH; depth++) {
+            if (decisions.get(current.getClass())) {
+                return true;
+            }
+
+            final Throwable cause = current.getCause();
+            current = cause != current ? cause : null;
+        }
+
+        return false;
+    }
+}
@@ -16,120 +16,53 @@
 
 package com.github.snieking.retry;
 
-import com.github.snieking.time.TimeManager;
 import com.github.snieking.util.SanityChecker;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.time.Duration;
-import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Supplier;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
 
 /**
  * Performs an exponential retry strategy.
  *
- * For example, if base is 10ms and maxExponent is 5, it will perform retries after 10, 100, 1000 and 100000 milliseconds.
+ * For example, if base is 10ms and maxExponent is 4, it will perform retries after 10, 100, 1000 and 10000 milliseconds.
  */
-public final class ExponentialRetryStrategy implements RetryStrategy {
+public final class ExponentialRetryStrategy extends AbstractRetryStrategy<ExponentialRetryStrategy> {
 
-    private static final Logger LOG = LoggerFactory.getLogger(ExponentialRetryStrategy.class);
-
-    private static final String FAILED_TASK = "Failed with task, performing retry attempt {}. Max attempt is {}.";
     private static final String BAD_ARGUMENTS = "Provided arguments can't be null";
 
     private static final double DEFAULT_BASE = 10;
     private static final int DEFAULT_MAX_EXPONENT = 4;
 
-    private int maxExponent;
-    private double base;
-    private Map<Class, Object> nonRetryableExceptions;
-
     private ExponentialRetryStrategy(final int maxExponent, final double base) {
-        this.maxExponent = maxExponent;
-        this.base = base;
-        this.nonRetryableExceptions = new ConcurrentHashMap<>();
-    }
-
-    @Override
-    public ExponentialRetryStrategy nonRetryExceptions(Class... exceptions) {
-        this.nonRetryableExceptions = new ConcurrentHashMap<>();
-        for (Class exception : exceptions) {
-            nonRetryableExceptions.put(exception, new Object());
-        }
-        return this;
+        super(maxExponent, createBackoff(maxExponent, base));
     }
 
-    @Override
-    public void perform(final Runnable task) throws RuntimeException {
-        RuntimeException exception = null;
-        if (task != null) {
-            int exponent = 0;
-
-            while (exponent < maxExponent) {
-                try {
-                    LOG.trace("Attempt {} of running task", exponent+1);
-                    task.run();
-                    return;
-                } catch (RuntimeException e) {
-
-                    if (exception != null) {
-                        exception.addSuppressed(e);
-                    } else {
-                        exception = e;
-                    }
-
-                    if (!nonRetryableExceptions.containsKey(e.getClass())) {
-                        LOG.warn(FAILED_TASK, exponent++, maxExponent);
-                        TimeManager.waitUntilDurationPassed(Duration.ofMillis((long) Math.pow(base, exponent++)));
-                    } else {
-                        break;
-                    }
-                }
+    /**
+     * Computes the waits of base^1 up to base^maxExponent milliseconds. Stops as soon as the waits can't change
+     * anymore, either because they're capped at {@link Long#MAX_VALUE} nanoseconds or because the base doesn't
+     * make them grow.
+     */
+    private static long[] createBackoff(final int maxExponent, final double base) {
+        final LongStream.Builder backoff = LongStream.builder();
+        for (int exponent = 1; exponent <= maxExponent; exponent++) {
+            final long nanos = TimeUnit.MILLISECONDS.toNanos((long) Math.pow(base, exponent));
+            backoff.add(nanos);
+
+            if (nanos == Long.MAX_VALUE || base <= 1) {
+                break;
             }
         }
 
-        if (exception != null) {
-            throw exception;
-        }
+        return backoff.build().toArray();
+    }
 
+    private ExponentialRetryStrategy(final ExponentialRetryStrategy original, final RetryOptions options) {
+        super(original, options);
     }
 
     @Override
-    public <T> Optional<T> performAndGet(final Supplier<T> task) throws RuntimeException {
-        RuntimeException exception = null;
-        boolean latestFailed = false;
-        if (task != null) {
-            int exponent = 0;
-
-            while (exponent <= maxExponent) {
-                try {
-                    LOG.trace("Attempt {} of running task", exponent);
-                    return Optional.ofNullable(task.get());
-                } catch (RuntimeException e) {
-
-                    if (exception != null) {
-                        exception.addSuppressed(e);
-                    } else {
-                        exception = e;
-                    }
-
-                    if (!nonRetryableExceptions.containsKey(e.getClass())) {
-                        LOG.warn(FAILED_TASK, exponent++, maxExponent);
-                        TimeManager.waitUntilDurationPassed(Duration.ofMillis((long) Math.pow(base, exponent++)));
-                    } else {
-                        break;
-                    }
-                }
-            }
-        }
-
-        if (latestFailed && exception != null) {
-            throw exception;
-        } else {
-            return Optional.empty();
-        }
+    ExponentialRetryStrategy withOptions(final RetryOptions options) {
+        return new ExponentialRetryStrategy(this, options);
     }
 
     /**
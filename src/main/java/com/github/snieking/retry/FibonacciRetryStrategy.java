@@ -16,130 +16,55 @@
 
 package com.github.snieking.retry;
 
-import com.github.snieking.time.TimeManager;
 import com.github.snieking.util.SanityChecker;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.time.Duration;
-import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Supplier;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
 
-public class FibonacciRetryStrategy implements RetryStrategy {
+public class FibonacciRetryStrategy extends AbstractRetryStrategy<FibonacciRetryStrategy> {
 
-    private static final Logger LOG = LoggerFactory.getLogger(FibonacciRetryStrategy.class);
-
-    private static final String FAILED_TASK = "Failed with task, performing retry attempt {}. Max attempt is {}.";
     private static final String BAD_ARGUMENTS = "Provided arguments can't be null";
 
     private static final int DEFAULT_MAX_FIB = 10;
     private static final double DEFAULT_OFFSET = 100;
 
-    private Map<Class, Object> nonRetryableExceptions;
-
-    private int maxFib;
-    private double offset;
-
     private FibonacciRetryStrategy(int maxFib, double offset) {
-        this.maxFib = maxFib;
-        this.offset = offset;
-        this.nonRetryableExceptions = new ConcurrentHashMap<>();
+        super(maxFib - 1, createBackoff(maxFib, offset));
     }
 
-    @Override
-    public FibonacciRetryStrategy nonRetryExceptions(Class... exceptions) {
-        nonRetryableExceptions = new ConcurrentHashMap<>();
-        for (Class exception : exceptions) {
-            nonRetryableExceptions.put(exception, new Object());
-        }
+    /**
+     * Computes the waits of the fibonacci serie times the offset in milliseconds. Stops as soon as the waits can't
+     * change anymore, either because they're capped at {@link Integer#MAX_VALUE} milliseconds or because the
+     * offset doesn't make them grow.
+     */
+    private static long[] createBackoff(final int maxFib, final double offset) {
+        final LongStream.Builder backoff = LongStream.builder();
+        double previousOffset = offset;
+        double currentOffset = offset;
 
-        return this;
-    }
+        for (int fib = 1; fib <= maxFib; fib++) {
+            final int millis = (int) currentOffset;
+            backoff.add(TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis)));
 
-    @Override
-    public void perform(final Runnable runnable) {
-        if (Optional.ofNullable(runnable).isPresent()) {
-            RuntimeException exception = null;
-            int currentFib = 1;
-
-            double previousOffset = offset;
-            double currentOffset = offset;
-
-            while (currentFib <= maxFib) {
-                try {
-                    LOG.trace("Attempt {} of running task", currentFib);
-                    runnable.run();
-                    return;
-                } catch (RuntimeException e) {
-
-                    if (exception != null) {
-                        exception.addSuppressed(e);
-                    } else {
-                        exception = e;
-                    }
-
-                    if (!nonRetryableExceptions.containsKey(e.getClass())) {
-                        LOG.warn(FAILED_TASK, currentFib++, maxFib);
-                        TimeManager.waitUntilDurationPassed(Duration.ofMillis((int) currentOffset));
-
-                        double temp = currentOffset;
-                        currentOffset += previousOffset;
-                        previousOffset = temp;
-                    } else {
-                        break;
-                    }
-
-                }
+            if (millis == Integer.MAX_VALUE || offset <= 0) {
+                break;
             }
 
-            if (exception != null) {
-                throw exception;
-            }
+            double temp = currentOffset;
+            currentOffset += previousOffset;
+            previousOffset = temp;
         }
-    }
 
-    @Override
-    public <T> Optional<T> performAndGet(final Supplier<T> task) {
-        if (Optional.ofNullable(task).isPresent()) {
-            RuntimeException exception = null;
-            int currentFib = 1;
-
-            double previousOffset = offset;
-            double currentOffset = offset;
-
-            while (currentFib <= maxFib) {
-                try {
-                    LOG.trace("Attempt {} of running task", currentFib);
-                    return Optional.ofNullable(task.get());
-                } catch (RuntimeException e) {
-
-                    if (exception != null) {
-                        exception.addSuppressed(e);
-                    } else {
-                        exception = e;
-                    }
-
-                    if (!nonRetryableExceptions.containsKey(e.getClass())) {
-                        LOG.warn(FAILED_TASK, currentFib++, maxFib);
-                        TimeManager.waitUntilDurationPassed(Duration.ofMillis((int) currentOffset));
-
-                        double temp = currentOffset;
-                        currentOffset += previousOffset;
-                        previousOffset = temp;
-                    } else {
-                        break;
-                    }
-                }
-            }
+        return backoff.build().toArray();
+    }
 
-            if (exception != null) {
-                throw exception;
-            }
-        }
+    private FibonacciRetryStrategy(final FibonacciRetryStrategy original, final RetryOptions options) {
+        super(original, options);
+    }
 
-        return Optional.empty();
+    @Override
+    FibonacciRetryStrategy withOptions(final RetryOptions options) {
+        return new FibonacciRetryStrategy(this, options);
     }
 
     /**
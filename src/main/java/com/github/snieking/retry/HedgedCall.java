@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.time.Scheduler;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * A single call of a {@link HedgingExecutor}.
+ *
+ * The first attempt is submitted right away, and every time the hedge delay passes without a result another
+ * attempt is started, until the max number of hedges is reached. The first attempt that succeeds completes the call
+ * and the others are cancelled. The call fails once every attempt started so far has failed. Hedges are scheduled
+ * and the call is timed with the scheduler of the {@link HedgingExecutor}.
+ *
+ * @param <T> the return type of the task.
+ */
+final class HedgedCall<T> {
+
+    private final HedgingExecutor hedging;
+    private final Supplier<T> task;
+    private final Executor executor;
+    private final long delayNanos;
+    private final Scheduler scheduler;
+    private final long startNanos;
+    private final CompletableFuture<Optional<T>> future = new CompletableFuture<>();
+
+    private final AtomicReferenceArray<Attempt> attempts;
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicBoolean succeeded = new AtomicBoolean();
+    private RuntimeException exception;
+    private volatile Future<?> pendingHedge;
+
+    HedgedCall(final HedgingExecutor hedging, final Supplier<T> task, final Executor executor) {
+        this.hedging = hedging;
+        this.task = task;
+        this.executor = executor;
+        this.delayNanos = hedging.getHedgeDelayNanos();
+        this.scheduler = hedging.getScheduler();
+        this.startNanos = scheduler.nanoTime();
+        this.attempts = new AtomicReferenceArray<>(hedging.getMaxHedges() + 1);
+    }
+
+    /**
+     * Submits the first attempt.
+     *
+     * @return the future that completes with the outcome of the call.
+     */
+    CompletableFuture<Optional<T>> start() {
+        future.whenComplete((result, throwable) -> cancelAttempts());
+        launch();
+        return future;
+    }
+
+    private void launch() {
+        if (future.isDone()) {
+            return;
+        }
+
+        final int index = started.getAndIncrement();
+        final Attempt attempt = new Attempt();
+        attempts.set(index, attempt);
+        try {
+            executor.execute(attempt);
+        } catch (RejectedExecutionException e) {
+            onFailure(e);
+            return;
+        }
+
+        if (index + 1 < attempts.length()) {
+            pendingHedge = scheduler.schedule(this::launch, delayNanos, TimeUnit.NANOSECONDS);
+            if (future.isDone()) {
+                cancelPendingHedge();
+            }
+        }
+    }
+
+    private synchronized void onFailure(final RuntimeException e) {
+        exception = AbstractRetryStrategy.addFailure(exception, e);
+        if (failed.incrementAndGet() == started.get()) {
+            future.completeExceptionally(exception);
+        }
+    }
+
+    private void cancelAttempts() {
+        cancelPendingHedge();
+        for (int i = 0; i < attempts.length(); i++) {
+            final Attempt attempt = attempts.get(i);
+            if (attempt != null) {
+                attempt.cancel(true);
+            }
+        }
+    }
+
+    private void cancelPendingHedge() {
+        final Future<?> pending = pendingHedge;
+        if (pending != null) {
+            pending.cancel(false);
+        }
+    }
+
+    /**
+     * A single attempt of the task, which reports its outcome to the call once it's done.
+     */
+    private final class Attempt extends FutureTask<T> {
+
+        Attempt() {
+            super(task::get);
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                return;
+            }
+
+            try {
+                final T result = get();
+                if (succeeded.compareAndSet(false, true)) {
+                    hedging.recordLatency(scheduler.nanoTime() - startNanos);
+                }
+                future.complete(Optional.ofNullable(result));
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    onFailure((RuntimeException) e.getCause());
+                } else {
+                    future.completeExceptionally(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
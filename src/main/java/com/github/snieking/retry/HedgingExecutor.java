@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.time.Scheduler;
+import com.github.snieking.time.TimeManager;
+import com.github.snieking.util.Histogram;
+import com.github.snieking.util.SanityChecker;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cuts tail latency by hedging slow tasks. When an attempt hasn't finished within the hedge delay another attempt
+ * of the same task is started, and whichever attempt succeeds first wins while the others are cancelled.
+ *
+ * The hedge delay is either fixed, or a tracked percentile of the latencies of earlier successful calls, so that
+ * for example only the slowest 5% of the calls are hedged. A latency is measured from the start of the call rather
+ * than of the winning attempt, as the slow attempts that lost would otherwise drag the percentile down. The number of
+ * hedges per call is capped, which bounds the extra load.
+ *
+ * Hedging doesn't retry. A call fails as soon as every attempt started so far has failed,
+ * so combine it with a {@link RetryStrategy} to retry failures as well:
+ * <pre>
+ * retryStrategy.performAndGet(() -&gt; hedgingExecutor.performAndGet(task));
+ * </pre>
+ *
+ * @author Viktor Plane
+ */
+public final class HedgingExecutor {
+
+    private static final String BAD_ARGUMENTS = "Delay must be positive, percentile within (0, 100) "
+            + "and max hedges at least 1";
+    private static final String BAD_EXECUTOR = "Executor can't be null";
+    private static final String BAD_SCHEDULER = "Scheduler can't be null";
+
+    private static final int MIN_SAMPLES = 100;
+    private static final int RECOMPUTE_INTERVAL = 64;
+
+    private final HedgeDelay hedgeDelay;
+    private final int maxHedges;
+    private final Executor executor;
+    private final Scheduler scheduler;
+
+    private HedgingExecutor(final HedgeDelay hedgeDelay, final int maxHedges, final Executor executor,
+                            final Scheduler scheduler) {
+        this.hedgeDelay = hedgeDelay;
+        this.maxHedges = maxHedges;
+        this.executor = executor;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Sets the executor that the attempts should be run on, instead of the shared
+     * {@link RetryExecutors#defaultExecutor()}. The tracked latencies are shared with this instance.
+     *
+     * @param executor the {@link Executor} to run attempts on.
+     * @return a new hedging executor instance, this instance is left untouched.
+     */
+    public HedgingExecutor executor(final Executor executor) {
+        SanityChecker.verifyNoObjectIsNull(BAD_EXECUTOR, executor);
+        return new HedgingExecutor(hedgeDelay, maxHedges, executor, scheduler);
+    }
+
+    /**
+     * Schedules hedges and times calls with the provided scheduler, instead of the one installed in
+     * {@link TimeManager}. The tracked latencies are shared with this instance.
+     *
+     * @param scheduler the {@link Scheduler} to schedule hedges with.
+     * @return a new hedging executor instance, this instance is left untouched.
+     */
+    public HedgingExecutor scheduler(final Scheduler scheduler) {
+        SanityChecker.verifyNoObjectIsNull(BAD_SCHEDULER, scheduler);
+        return new HedgingExecutor(hedgeDelay, maxHedges, executor, scheduler);
+    }
+
+    /**
+     * Gets the scheduler that hedges are scheduled with.
+     *
+     * @return the configured {@link Scheduler}, or the one installed in {@link TimeManager} if none has been
+     * configured.
+     */
+    public Scheduler getScheduler() {
+        return scheduler != null ? scheduler : TimeManager.getScheduler();
+    }
+
+    /**
+     * Gets the time an attempt may run before the next one is started.
+     *
+     * @return the hedge delay in nanoseconds.
+     */
+    public long getHedgeDelayNanos() {
+        return hedgeDelay.nanos;
+    }
+
+    /**
+     * Gets the max number of attempts started in addition to the first one.
+     *
+     * @return the max number of hedges per call.
+     */
+    public int getMaxHedges() {
+        return maxHedges;
+    }
+
+    /**
+     * Performs a supplied task, hedging it if it's slow, and returns the result of the first attempt that succeeds.
+     *
+     * @param task the {@link Supplier} that should be performed.
+     * @param <T>  the return type.
+     * @return {@link Optional} of the result from the provided {@link Supplier}.
+     */
+    public <T> Optional<T> performAndGet(final Supplier<T> task) {
+        try {
+            return performAndGetAsync(task).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Performs a supplied task asynchronously, hedging it if it's slow, and returns the result of the first attempt
+     * that succeeds. No thread is held while waiting for the hedge delay.
+     *
+     * @param task the {@link Supplier} that should be performed.
+     * @param <T>  the return type.
+     * @return CompletableFuture holding a {@link Optional} of the result from the provided {@link Supplier}.
+     */
+    public <T> CompletableFuture<Optional<T>> performAndGetAsync(final Supplier<T> task) {
+        if (task == null) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        final Executor attemptExecutor = executor != null ? executor : RetryExecutors.defaultExecutor();
+        return new HedgedCall<>(this, task, attemptExecutor).start();
+    }
+
+    /**
+     * Records the latency of a successful call, from its start until its first attempt succeeded.
+     */
+    void recordLatency(final long nanos) {
+        hedgeDelay.record(nanos);
+    }
+
+    /**
+     * Creates a HedgingExecutor that starts another attempt every time the provided delay passes without a result.
+     *
+     * @param delay     the time an attempt may run before the next one is started.
+     * @param maxHedges the max number of attempts started in addition to the first one.
+     * @return {@link HedgingExecutor}
+     */
+    public static HedgingExecutor createHedgingExecutor(final Duration delay, final int maxHedges) {
+        return new HedgingExecutor(new HedgeDelay(verify(delay, maxHedges), 0), maxHedges, null, null);
+    }
+
+    /**
+     * Creates a HedgingExecutor that starts another attempt every time the provided percentile of the latencies of
+     * earlier successful calls passes without a result. The initial delay is used until 100 latencies have been
+     * tracked.
+     *
+     * @param percentile   the percentile of the latencies to hedge after, e.g. 95.
+     * @param initialDelay the delay to use before enough latencies have been tracked.
+     * @param maxHedges    the max number of attempts started in addition to the first one.
+     * @return {@link HedgingExecutor}
+     */
+    public static HedgingExecutor createHedgingExecutor(final double percentile, final Duration initialDelay,
+                                                        final int maxHedges) {
+        final long initialNanos = verify(initialDelay, maxHedges);
+        if (!(percentile > 0 && percentile < 100)) {
+            throw new IllegalArgumentException(BAD_ARGUMENTS);
+        }
+
+        return new HedgingExecutor(new HedgeDelay(initialNanos, percentile), maxHedges, null, null);
+    }
+
+    private static long verify(final Duration delay, final int maxHedges) {
+        SanityChecker.verifyNoObjectIsNull(BAD_ARGUMENTS, delay);
+        final long nanos = AbstractRetryStrategy.toNanos(delay);
+        if (nanos <= 0 || maxHedges < 1) {
+            throw new IllegalArgumentException(BAD_ARGUMENTS);
+        }
+
+        return nanos;
+    }
+
+    /**
+     * The hedge delay, which follows a percentile of the tracked latencies unless it's fixed.
+     * The percentile is recomputed every 64 latencies rather than for every call.
+     */
+    private static final class HedgeDelay {
+
+        private final double percentile;
+        private final Histogram latencies;
+        private final AtomicLong count = new AtomicLong();
+        private volatile long nanos;
+
+        HedgeDelay(final long nanos, final double percentile) {
+            this.nanos = nanos;
+            this.percentile = percentile;
+            this.latencies = percentile > 0 ? Histogram.createHistogram() : null;
+        }
+
+        void record(final long latencyNanos) {
+            if (latencies == null) {
+                return;
+            }
+
+            latencies.record(latencyNanos);
+            final long recorded = count.incrementAndGet();
+            if (recorded == MIN_SAMPLES || recorded > MIN_SAMPLES && recorded % RECOMPUTE_INTERVAL == 0) {
+                nanos = Math.max(1, latencies.snapshot().getValueAtPercentile(percentile));
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.util.SanityChecker;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.LongStream;
+
+/**
+ * Performs an exponential retry strategy with randomized waits, so that clients which failed together don't retry
+ * together. The waits are capped exponential, base * 2^retry, with one of the following jitters applied:
+ * <ul>
+ * <li>{@link Jitter#FULL} waits a random time between 0 and the capped exponential wait.</li>
+ * <li>{@link Jitter#EQUAL} waits half of the capped exponential wait, plus a random time up to the other half.</li>
+ * <li>{@link Jitter#DECORRELATED} waits a random time between base and three times the previous wait, capped.</li>
+ * </ul>
+ *
+ * For example, with full jitter, a base of 100ms and a cap of 10s, the first retry is performed after up to 100ms,
+ * the second after up to 200ms and the eighth, and every one after it, after up to 10s.
+ *
+ * Randomness comes from {@link ThreadLocalRandom} unless a seeded {@link Random} is configured,
+ * and no object is allocated per attempt.
+ */
+public final class JitteredRetryStrategy extends AbstractRetryStrategy<JitteredRetryStrategy> {
+
+    /**
+     * The ways that the waits can be randomized.
+     */
+    public enum Jitter {
+        /**
+         * Wait between 0 and the capped exponential wait.
+         */
+        FULL,
+        /**
+         * Wait between half and all of the capped exponential wait.
+         */
+        EQUAL,
+        /**
+         * Wait between base and three times the previous wait, capped.
+         */
+        DECORRELATED
+    }
+
+    private static final String BAD_ARGUMENTS = "Provided arguments can't be null, base must be positive and no longer than cap";
+    private static final String BAD_RANDOM = "Random can't be null";
+
+    private static final Duration DEFAULT_BASE = Duration.ofMillis(100);
+    private static final Duration DEFAULT_CAP = Duration.ofSeconds(10);
+    private static final int DEFAULT_MAX_RETRIES = 4;
+
+    private final Jitter jitter;
+    private final long baseNanos;
+    private final long capNanos;
+    private final Random random;
+
+    private JitteredRetryStrategy(final Jitter jitter, final long baseNanos, final long capNanos, final int maxRetries) {
+        super(maxRetries, createBackoff(maxRetries, baseNanos, capNanos));
+        this.jitter = jitter;
+        this.baseNanos = baseNanos;
+        this.capNanos = capNanos;
+        this.random = null;
+    }
+
+    /**
+     * Computes the capped exponential waits that the jitter is applied to. Stops once the cap is reached,
+     * since every later retry uses the cap as well.
+     */
+    private static long[] createBackoff(final int maxRetries, final long baseNanos, final long capNanos) {
+        final LongStream.Builder backoff = LongStream.builder();
+        long nanos = baseNanos;
+        for (int retry = 0; retry < maxRetries; retry++) {
+            backoff.add(nanos);
+
+            if (nanos == capNanos) {
+                break;
+            }
+            nanos = nanos > capNanos / 2 ? capNanos : nanos * 2;
+        }
+
+        return backoff.build().toArray();
+    }
+
+    private JitteredRetryStrategy(final JitteredRetryStrategy original, final RetryOptions options,
+                                  final Random random) {
+        super(original, options);
+        this.jitter = original.jitter;
+        this.baseNanos = original.baseNanos;
+        this.capNanos = original.capNanos;
+        this.random = random;
+    }
+
+    @Override
+    JitteredRetryStrategy withOptions(final RetryOptions options) {
+        return new JitteredRetryStrategy(this, options, random);
+    }
+
+    /**
+     * Draws the waits from the provided random source instead of {@link ThreadLocalRandom},
+     * which makes them reproducible when the source is seeded.
+     *
+     * @param random the {@link Random} to draw the waits from.
+     * @return a new retry strategy instance, this instance is left untouched.
+     */
+    public JitteredRetryStrategy random(final Random random) {
+        SanityChecker.verifyNoObjectIsNull(BAD_RANDOM, random);
+        return new JitteredRetryStrategy(this, getOptions(), random);
+    }
+
+    /**
+     * Gets the jitter that is applied to the waits.
+     *
+     * @return the {@link Jitter}.
+     */
+    public Jitter getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Draws the wait before the provided retry. The backoff schedule only holds the upper bounds of the waits.
+     */
+    @Override
+    long nextDelayNanos(final int retry, final long previousDelayNanos) {
+        final long ceiling = getDelayNanos(retry);
+        switch (jitter) {
+            case FULL:
+                return randomNanos(ceiling);
+            case EQUAL:
+                final long half = ceiling / 2;
+                return half + randomNanos(ceiling - half);
+            default:
+                final long previous = Math.max(baseNanos, previousDelayNanos);
+                final long upper = previous > capNanos / 3 ? capNanos : previous * 3;
+                return upper <= baseNanos ? baseNanos : baseNanos + randomNanos(upper - baseNanos);
+        }
+    }
+
+    private long randomNanos(final long bound) {
+        final double fraction = random != null ? random.nextDouble() : ThreadLocalRandom.current().nextDouble();
+        return (long) (fraction * bound);
+    }
+
+    /**
+     * Creates a JitteredRetryStrategy with full jitter, a default base of 100 milliseconds, a default cap of 10
+     * seconds and a default of 4 retries.
+     *
+     * @return {@link JitteredRetryStrategy}
+     */
+    public static JitteredRetryStrategy createRetryStrategy() {
+        return createRetryStrategy(Jitter.FULL);
+    }
+
+    /**
+     * Creates a JitteredRetryStrategy with the provided jitter, a default base of 100 milliseconds, a default cap of
+     * 10 seconds and a default of 4 retries.
+     *
+     * @param jitter the {@link Jitter} to apply to the waits.
+     * @return {@link JitteredRetryStrategy}
+     */
+    public static JitteredRetryStrategy createRetryStrategy(final Jitter jitter) {
+        return createRetryStrategy(jitter, DEFAULT_BASE, DEFAULT_CAP, DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * Creates a JitteredRetryStrategy with the provided jitter, base, cap and max number of retries.
+     *
+     * @param jitter     the {@link Jitter} to apply to the waits.
+     * @param base       the wait that the exponential waits start from.
+     * @param cap        the longest wait.
+     * @param maxRetries the max number of retries before giving up.
+     * @return {@link JitteredRetryStrategy}
+     */
+    public static JitteredRetryStrategy createRetryStrategy(final Jitter jitter, final Duration base,
+                                                            final Duration cap, final int maxRetries) {
+        SanityChecker.verifyNoObjectIsNull(BAD_ARGUMENTS, jitter, base, cap);
+        final long baseNanos = toNanos(base);
+        final long capNanos = toNanos(cap);
+        if (baseNanos <= 0 || capNanos < baseNanos || maxRetries <= 0) {
+            throw new IllegalArgumentException(BAD_ARGUMENTS);
+        }
+
+        return new JitteredRetryStrategy(jitter, baseNanos, capNanos, maxRetries);
+    }
+}
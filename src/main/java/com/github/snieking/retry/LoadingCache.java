@@ -0,0 +1,298 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.time.TimeManager;
+import com.github.snieking.time.TimeSource;
+import com.github.snieking.util.SanityChecker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * A concurrent cache that loads missing values with a {@link RetryStrategy}, and keeps serving the values it has
+ * while the source of them is failing.
+ *
+ * An entry that is older than the refresh interval is still served, while it's reloaded in the background. An entry
+ * that is older than the expiry is reloaded before it's served, unless a reload of it has already failed. A failed
+ * reload, in the background or not, leaves the stale entry in place and it's served until a later reload succeeds,
+ * which is attempted once per refresh interval. Once an entry is cached, reads of it therefore don't wait for a
+ * source that is down. Concurrent loads of the same key are coalesced into one call with a {@link SingleFlight}.
+ *
+ * The size of the cache is bounded by sampled LRU eviction. When an entry is added to a full cache, a handful of
+ * entries are sampled, continuing from where the previous eviction stopped, and the least recently read one is
+ * evicted. Expired entries in the sample are evicted along with it, unless they are being served because their
+ * reload failed. The cache may briefly exceed its bound while entries are added concurrently.
+ *
+ * The cache reads the time of the scheduler of the strategy, so it follows virtual time in tests.
+ *
+ * @param <K> the type of the keys.
+ * @param <V> the type of the values.
+ * @author Viktor Plane
+ */
+public final class LoadingCache<K, V> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoadingCache.class);
+    private static final String BAD_ARGUMENTS = "Loader, strategy, refresh interval and expiry can't be null";
+    private static final String BAD_SIZE = "Maximum size must be positive";
+    private static final String BAD_DURATIONS = "Refresh interval must be positive and not longer than the expiry";
+    private static final String BAD_KEY = "Key can't be null";
+    private static final String BAD_VALUE = "Key and value can't be null";
+    private static final String SERVING_STALE = "Failed to reload {}, serving the stale value.";
+
+    private static final int SAMPLES = 8;
+
+    private final ConcurrentHashMap<K, Node<V>> entries = new ConcurrentHashMap<>();
+    private final Function<K, V> loader;
+    private final SingleFlight<K> singleFlight;
+    private final TimeSource timeSource;
+    private final int maximumSize;
+    private final long refreshAfterNanos;
+    private final long expireAfterNanos;
+
+    private Iterator<Map.Entry<K, Node<V>>> evictionCursor;
+
+    private LoadingCache(final Function<K, V> loader, final RetryStrategy strategy, final int maximumSize,
+                         final long refreshAfterNanos, final long expireAfterNanos) {
+        this.loader = loader;
+        this.singleFlight = SingleFlight.createSingleFlight(strategy);
+        this.timeSource = strategy instanceof AbstractRetryStrategy
+                ? ((AbstractRetryStrategy<?>) strategy).getScheduler()
+                : TimeManager.getScheduler();
+        this.maximumSize = maximumSize;
+        this.refreshAfterNanos = refreshAfterNanos;
+        this.expireAfterNanos = expireAfterNanos;
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param loader       loads the value of a key, and fails by throwing. A null value is not cached.
+     * @param strategy     the {@link RetryStrategy} that loads are retried with.
+     * @param maximumSize  the max number of entries.
+     * @param refreshAfter the age of an entry when it's reloaded in the background.
+     * @param expireAfter  the age of an entry when it's no longer served, unless reloading it fails.
+     * @param <K>          the type of the keys.
+     * @param <V>          the type of the values.
+     * @return {@link LoadingCache}
+     */
+    public static <K, V> LoadingCache<K, V> createLoadingCache(final Function<K, V> loader,
+                                                               final RetryStrategy strategy,
+                                                               final int maximumSize,
+                                                               final Duration refreshAfter,
+                                                               final Duration expireAfter) {
+        SanityChecker.verifyNoObjectIsNull(BAD_ARGUMENTS, loader, strategy, refreshAfter, expireAfter);
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException(BAD_SIZE);
+        }
+        if (refreshAfter.isNegative() || refreshAfter.isZero() || refreshAfter.compareTo(expireAfter) > 0) {
+            throw new IllegalArgumentException(BAD_DURATIONS);
+        }
+
+        return new LoadingCache<>(loader, strategy, maximumSize, refreshAfter.toNanos(), expireAfter.toNanos());
+    }
+
+    /**
+     * Gets the value of the key, loading it if it's missing or expired. If loading an expired entry fails, the
+     * stale value is returned instead.
+     *
+     * @param key the key.
+     * @return {@link Optional} of the value, which is empty if the loader returned null.
+     * @throws RuntimeException the failure of the load, if the key wasn't cached.
+     */
+    public Optional<V> get(final K key) {
+        SanityChecker.verifyNoObjectIsNull(BAD_KEY, key);
+        final long now = timeSource.nanoTime();
+        final Node<V> node = entries.get(key);
+        if (node == null) {
+            return load(key, null);
+        }
+
+        node.accessNanos = now;
+        if (now - node.loadedNanos < expireAfterNanos || node.failing) {
+            if (now - node.nextRefreshNanos >= 0) {
+                refresh(key, node);
+            }
+            return Optional.of(node.value);
+        }
+        return load(key, node);
+    }
+
+    /**
+     * Gets the value of the key if it's cached, without loading or refreshing it. A stale value is returned if the
+     * entry is expired but served because reloading it failed.
+     *
+     * @param key the key.
+     * @return {@link Optional} of the value, which is empty if it isn't cached.
+     */
+    public Optional<V> getIfPresent(final K key) {
+        SanityChecker.verifyNoObjectIsNull(BAD_KEY, key);
+        final Node<V> node = entries.get(key);
+        if (node == null || !node.failing && timeSource.elapsedNanos(node.loadedNanos) >= expireAfterNanos) {
+            return Optional.empty();
+        }
+        return Optional.of(node.value);
+    }
+
+    /**
+     * Caches the value of the key, replacing any cached value.
+     *
+     * @param key   the key.
+     * @param value the value.
+     */
+    public void put(final K key, final V value) {
+        SanityChecker.verifyNoObjectIsNull(BAD_VALUE, key, value);
+        store(key, value);
+    }
+
+    /**
+     * Removes the key from the cache. A load of it that is in flight may still cache its result.
+     *
+     * @param key the key.
+     */
+    public void invalidate(final K key) {
+        SanityChecker.verifyNoObjectIsNull(BAD_KEY, key);
+        entries.remove(key);
+    }
+
+    /**
+     * Gets the number of cached entries, stale ones included.
+     *
+     * @return the number of entries.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private Optional<V> load(final K key, final Node<V> stale) {
+        final Optional<V> loaded;
+        try {
+            loaded = singleFlight.performAndGet(key, () -> loader.apply(key));
+        } catch (RuntimeException e) {
+            if (stale == null) {
+                throw e;
+            }
+            LOG.warn(SERVING_STALE, key, e);
+            stale.failed(timeSource.nanoTime() + refreshAfterNanos);
+            return Optional.of(stale.value);
+        }
+
+        if (loaded.isPresent()) {
+            store(key, loaded.get());
+        } else if (stale != null) {
+            entries.remove(key, stale);
+        }
+        return loaded;
+    }
+
+    private void refresh(final K key, final Node<V> node) {
+        if (!node.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            singleFlight.<V>performAndGetAsync(key, () -> loader.apply(key)).whenComplete((loaded, throwable) -> {
+                if (throwable != null) {
+                    LOG.warn(SERVING_STALE, key, throwable);
+                    node.failed(timeSource.nanoTime() + refreshAfterNanos);
+                } else if (loaded.isPresent()) {
+                    entries.replace(key, node, new Node<>(loaded.get(), timeSource.nanoTime(), refreshAfterNanos));
+                } else {
+                    entries.remove(key, node);
+                }
+            });
+        } catch (RuntimeException e) {
+            LOG.warn(SERVING_STALE, key, e);
+            node.failed(timeSource.nanoTime() + refreshAfterNanos);
+        }
+    }
+
+    private void store(final K key, final V value) {
+        final Node<V> node = new Node<>(value, timeSource.nanoTime(), refreshAfterNanos);
+        if (entries.put(key, node) == null && entries.size() > maximumSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Evicts the least recently read entry of every sample until the cache fits, along with the expired entries of
+     * the samples. Evictions are serialized, as they share the cursor, while reads never wait for them.
+     */
+    private synchronized void evict() {
+        final long now = timeSource.nanoTime();
+        while (entries.size() > maximumSize) {
+            K victim = null;
+            Node<V> victimNode = null;
+            for (int i = 0; i < SAMPLES; i++) {
+                if (evictionCursor == null || !evictionCursor.hasNext()) {
+                    evictionCursor = entries.entrySet().iterator();
+                    if (!evictionCursor.hasNext()) {
+                        return;
+                    }
+                }
+
+                final Map.Entry<K, Node<V>> sampled = evictionCursor.next();
+                final Node<V> node = sampled.getValue();
+                if (!node.failing && now - node.loadedNanos >= expireAfterNanos) {
+                    entries.remove(sampled.getKey(), node);
+                } else if (victimNode == null || node.accessNanos - victimNode.accessNanos < 0) {
+                    victim = sampled.getKey();
+                    victimNode = node;
+                }
+            }
+
+            if (victimNode != null && entries.size() > maximumSize) {
+                entries.remove(victim, victimNode);
+            }
+        }
+    }
+
+    /**
+     * A cached value. The value and its load time never change, a successful reload replaces the node.
+     */
+    private static final class Node<V> {
+        private final V value;
+        private final long loadedNanos;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private volatile long accessNanos;
+        private volatile long nextRefreshNanos;
+        private volatile boolean failing;
+
+        private Node(final V value, final long loadedNanos, final long refreshAfterNanos) {
+            this.value = value;
+            this.loadedNanos = loadedNanos;
+            this.accessNanos = loadedNanos;
+            this.nextRefreshNanos = loadedNanos + refreshAfterNanos;
+        }
+
+        /**
+         * Keeps serving the node after a failed reload, and postpones the next reload.
+         */
+        private void failed(final long nextRefreshNanos) {
+            this.nextRefreshNanos = nextRefreshNanos;
+            this.failing = true;
+            refreshing.set(false);
+        }
+    }
+}
@@ -16,76 +16,36 @@
 
 package com.github.snieking.retry;
 
-import com.github.snieking.time.TimeManager;
 import com.github.snieking.util.SanityChecker;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
-import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Supplier;
 
 /**
- * Performs one retry if the provided task returns an exception.
+ * Performs one retry if the provided task returns an exception. {@link #performAndGet(java.util.function.Supplier)}
+ * returns an empty result instead of throwing if the retry fails too.
  *
  * @author Viktor Plane
  */
-public final class OneTimeRetryStrategy implements RetryStrategy {
+public final class OneTimeRetryStrategy extends AbstractRetryStrategy<OneTimeRetryStrategy> {
 
-    private static final String FAILED_TASK = "Failed with the task, performing a retry.";
-
-    private static final Logger LOG = LoggerFactory.getLogger(OneTimeRetryStrategy.class);
     private static final String BAD_DURATION = "Duration can't be null";
-    private static Map<Class, Object> nonRetryableExceptions;
-
-    private Duration durationBeforeNextRetry;
 
     private OneTimeRetryStrategy(final Duration duration) {
-        this.durationBeforeNextRetry = duration;
-        this.nonRetryableExceptions = new ConcurrentHashMap<>();
+        super(1, new long[]{toNanos(duration)});
     }
 
-    @Override
-    public OneTimeRetryStrategy nonRetryExceptions(final Class... exceptions) {
-        this.nonRetryableExceptions = new ConcurrentHashMap<>();
-        for (Class e : exceptions) {
-            nonRetryableExceptions.put(e, new Object());
-        }
-        return this;
+    private OneTimeRetryStrategy(final OneTimeRetryStrategy original, final RetryOptions options) {
+        super(original, options);
     }
 
     @Override
-    public void perform(final Runnable task) throws RuntimeException {
-        Optional.ofNullable(task).ifPresent(runnable -> {
-            try {
-                runnable.run();
-            } catch (RuntimeException e) {
-                LOG.warn(FAILED_TASK);
-                if (!nonRetryableExceptions.containsKey(e.getClass())) {
-                    TimeManager.waitUntilDurationPassed(durationBeforeNextRetry);
-                    runnable.run();
-                }
-            }
-        });
+    OneTimeRetryStrategy withOptions(final RetryOptions options) {
+        return new OneTimeRetryStrategy(this, options);
     }
 
     @Override
-    public <T> Optional<T> performAndGet(final Supplier<T> task) throws RuntimeException {
-        if (Optional.ofNullable(task).isPresent()) {
-            try {
-                return Optional.ofNullable(task.get());
-            } catch (RuntimeException e) {
-                LOG.warn(FAILED_TASK);
-                if (!nonRetryableExceptions.containsKey(e.getClass())) {
-                    TimeManager.waitUntilDurationPassed(durationBeforeNextRetry);
-                    return Optional.ofNullable(task.get());
-                }
-            }
-        }
-
-        return Optional.empty();
+    boolean isEmptyOnFailure() {
+        return true;
     }
 
     /**
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.time.TimeManager;
+import com.github.snieking.util.SanityChecker;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits how many retries are performed, across all the strategies that share the budget, to a ratio of the tasks
+ * that succeeded on their first attempt plus a minimum number of retries per second. This keeps a struggling
+ * dependency from being hit with several times its normal load when every caller starts to retry.
+ *
+ * The counts are kept for a sliding window, split into buckets of striped counters, so recording and checking
+ * never block or contend on a single memory location. The budget is approximate: concurrent callers may overdraw it
+ * by a few retries, and counts recorded while a bucket rolls over to a new period can get lost.
+ *
+ * Strategies that share the budget read the time from their own scheduler, while the methods of the budget itself
+ * read it from {@link TimeManager}.
+ *
+ * @author Viktor Plane
+ */
+public final class RetryBudget {
+
+    private static final String BAD_ARGUMENTS = "Ratio and min retries can't be negative, and window must be positive";
+
+    private static final double DEFAULT_RETRY_RATIO = 0.2;
+    private static final int DEFAULT_MIN_RETRIES_PER_SECOND = 10;
+    private static final Duration DEFAULT_WINDOW = Duration.ofSeconds(10);
+    private static final int BUCKETS = 10;
+
+    private final double retryRatio;
+    private final double minRetriesPerWindow;
+    private final long bucketNanos;
+
+    private final AtomicLongArray bucketPeriods = new AtomicLongArray(BUCKETS);
+    private final LongAdder[] successes = new LongAdder[BUCKETS];
+    private final LongAdder[] retries = new LongAdder[BUCKETS];
+
+    private RetryBudget(final double retryRatio, final int minRetriesPerSecond, final Duration window) {
+        final long windowNanos = window.toNanos();
+        this.retryRatio = retryRatio;
+        this.minRetriesPerWindow = minRetriesPerSecond * (windowNanos / (double) TimeUnit.SECONDS.toNanos(1));
+        this.bucketNanos = Math.max(1, windowNanos / BUCKETS);
+
+        for (int i = 0; i < BUCKETS; i++) {
+            successes[i] = new LongAdder();
+            retries[i] = new LongAdder();
+            bucketPeriods.set(i, Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Records a task that succeeded on its first attempt, which earns the budget a share of a retry.
+     */
+    public void recordSuccess() {
+        recordSuccess(TimeManager.nanoTime());
+    }
+
+    /**
+     * Records a task that succeeded on its first attempt at the provided time.
+     *
+     * @param now the current time in nanoseconds.
+     */
+    void recordSuccess(final long now) {
+        successes[currentBucket(now)].increment();
+    }
+
+    /**
+     * Withdraws a retry from the budget if one is available.
+     *
+     * @return true if the retry may be performed, false if the budget is exhausted.
+     */
+    public boolean tryAcquireRetry() {
+        return tryAcquireRetry(TimeManager.nanoTime());
+    }
+
+    /**
+     * Withdraws a retry from the budget at the provided time, if one is available.
+     *
+     * @param now the current time in nanoseconds.
+     * @return true if the retry may be performed, false if the budget is exhausted.
+     */
+    boolean tryAcquireRetry(final long now) {
+        if (getAvailableRetries(now) < 1) {
+            return false;
+        }
+
+        retries[currentBucket(now)].increment();
+        return true;
+    }
+
+    /**
+     * Gets the number of retries that are currently available.
+     *
+     * @return the available retries, rounded down.
+     */
+    public long getAvailableRetries() {
+        return (long) Math.max(0, getAvailableRetries(TimeManager.nanoTime()));
+    }
+
+    private double getAvailableRetries(final long now) {
+        final long period = now / bucketNanos;
+        long successCount = 0;
+        long retryCount = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            final long bucketPeriod = bucketPeriods.get(i);
+            if (bucketPeriod > period - BUCKETS && bucketPeriod <= period) {
+                successCount += successes[i].sum();
+                retryCount += retries[i].sum();
+            }
+        }
+
+        return minRetriesPerWindow + successCount * retryRatio - retryCount;
+    }
+
+    /**
+     * Gets the bucket of the current period, and clears it first if it still holds counts of an older period.
+     */
+    private int currentBucket(final long now) {
+        final long period = now / bucketNanos;
+        final int bucket = (int) Math.floorMod(period, (long) BUCKETS);
+
+        final long bucketPeriod = bucketPeriods.get(bucket);
+        if (bucketPeriod != period && bucketPeriods.compareAndSet(bucket, bucketPeriod, period)) {
+            successes[bucket].reset();
+            retries[bucket].reset();
+        }
+
+        return bucket;
+    }
+
+    /**
+     * Creates a RetryBudget that allows retries for 20% of the successful tasks, plus 10 retries per second,
+     * counted over a window of 10 seconds.
+     *
+     * @return {@link RetryBudget} instance.
+     */
+    public static RetryBudget createRetryBudget() {
+        return new RetryBudget(DEFAULT_RETRY_RATIO, DEFAULT_MIN_RETRIES_PER_SECOND, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Creates a RetryBudget with the provided limits.
+     *
+     * @param retryRatio          the retries allowed per task that succeeded on its first attempt, 0.2 allows one
+     *                            retry for every fifth successful task.
+     * @param minRetriesPerSecond the retries per second that are always allowed, even if nothing succeeds.
+     * @param window              the sliding window that successes and retries are counted over.
+     * @return {@link RetryBudget} instance.
+     */
+    public static RetryBudget createRetryBudget(final double retryRatio, final int minRetriesPerSecond,
+                                                final Duration window) {
+        SanityChecker.verifyNoObjectIsNull(BAD_ARGUMENTS, window);
+        if (retryRatio < 0 || minRetriesPerSecond < 0 || window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException(BAD_ARGUMENTS);
+        }
+
+        return new RetryBudget(retryRatio, minRetriesPerSecond, window);
+    }
+}
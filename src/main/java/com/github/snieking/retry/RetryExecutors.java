@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors that asynchronous retries are run on.
+ *
+ * @author Viktor Plane
+ */
+public final class RetryExecutors {
+
+    private static final String BAD_ARGUMENTS = "Threads and queue capacity must be positive";
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private RetryExecutors() {
+    }
+
+    /**
+     * Gets the executor that is shared by all strategies that haven't been configured with one.
+     * It is bounded to twice the number of processors (at least 4) threads and queues up to 10000 attempts,
+     * attempts beyond that are rejected with a {@link java.util.concurrent.RejectedExecutionException}.
+     * Idle threads are stopped after a minute. On Java 21 and later, every attempt is instead run on a new virtual
+     * thread, so attempts that block only park the virtual thread.
+     *
+     * @return the shared default {@link Executor}.
+     */
+    public static Executor defaultExecutor() {
+        return DefaultExecutorHolder.EXECUTOR;
+    }
+
+    /**
+     * Creates a new bounded executor with daemon threads. Attempts that don't fit into the queue are rejected with
+     * a {@link java.util.concurrent.RejectedExecutionException}, which fails the retry that submitted it.
+     *
+     * @param threads       the max number of threads.
+     * @param queueCapacity the max number of attempts that can be waiting for a thread.
+     * @return the new {@link ThreadPoolExecutor}.
+     */
+    public static ThreadPoolExecutor newBoundedExecutor(final int threads, final int queueCapacity) {
+        if (threads <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException(BAD_ARGUMENTS);
+        }
+
+        final String prefix = "retry-executor-" + POOL_COUNT.incrementAndGet() + "-thread-";
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Lazily creates the default executor the first time it's used.
+     */
+    private static final class DefaultExecutorHolder {
+        private static final Executor EXECUTOR = DefaultExecutorFactory.create();
+    }
+}
@@ -0,0 +1,606 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * The journal of a {@link DurableRetryQueue}: an append-only log of entries and their attempt state, spread over
+ * segment files that are memory-mapped while written. A background thread forces written segments to disk once per
+ * sync interval, so appending is a copy into the mapping under a short lock.
+ *
+ * Every record is checksummed, and reading a segment stops at the first record that is incomplete or corrupt,
+ * which is where the process stopped writing. When a record doesn't fit into the active segment, the journal moves
+ * on to a new one, which is made larger than usual for a record of a journal that was written with larger segments.
+ *
+ * The background thread also compacts the full segments. A segment only needs to be kept for the payloads of
+ * pending entries, the attempt states of pending entries whose payload is in an older segment, and the completions
+ * of entries whose payload is still in an older segment, so that a completed entry is never replayed. A segment
+ * that holds none of these is deleted right away. Once less than half of a segment is needed, its needed records
+ * are written again to the active segment, one at a time, and the segment is unmapped and deleted once they're on
+ * disk. Opening a journal compacts all the segments that are found.
+ *
+ * @author Viktor Plane
+ */
+final class RetryJournal implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RetryJournal.class);
+    private static final byte ENQUEUED = 1;
+    private static final byte ATTEMPTED = 2;
+    private static final byte COMPLETED = 3;
+    private static final int HEADER_BYTES = 1 + 4 + 8 + 4 + 8 + 8;
+    private static final int CHECKSUM_BYTES = 4;
+    private static final int STATE_BYTES = HEADER_BYTES + CHECKSUM_BYTES;
+    private static final double COMPACTION_THRESHOLD = 0.5;
+    private static final String SEGMENT_PREFIX = "retry-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String TOO_LARGE = "Task is too large for a journal segment";
+    private static final String NOT_DELETED = "Couldn't delete compacted journal segment {}";
+    private static final AtomicInteger FLUSHER_COUNT = new AtomicInteger();
+    private static final Consumer<ByteBuffer> UNMAPPER = unmapper();
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long syncIntervalNanos;
+    private final List<Segment> full = new ArrayList<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final Object syncLock = new Object();
+    private final Thread flusher;
+
+    private volatile Segment active;
+    private volatile boolean dirty;
+    private volatile boolean closed;
+    private long nextSegment;
+    private int liveEntries;
+
+    private RetryJournal(final Path directory, final int segmentBytes, final long syncIntervalNanos) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.syncIntervalNanos = syncIntervalNanos;
+        this.flusher = new Thread(this::flush, "retry-journal-flusher-" + FLUSHER_COUNT.incrementAndGet());
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * Opens the journal in the provided directory, replaying and compacting the segments that are found there.
+     *
+     * @return the journal, whose {@link #getLiveEntries()} are the entries that were still pending.
+     */
+    static RetryJournal open(final Path directory, final int segmentBytes, final long syncIntervalNanos) {
+        final RetryJournal journal = new RetryJournal(directory, segmentBytes, syncIntervalNanos);
+        try {
+            Files.createDirectories(directory);
+            journal.replay();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        synchronized (journal) {
+            journal.active = journal.createSegment(segmentBytes);
+        }
+        journal.compact(1);
+        journal.flusher.start();
+        return journal;
+    }
+
+    /**
+     * Appends a new entry, which is pending until it's completed.
+     *
+     * @return the new entry, or null if the journal is closed.
+     * @throws IllegalArgumentException if the payload doesn't fit into a segment.
+     */
+    Entry append(final byte[] payload) {
+        if (HEADER_BYTES + payload.length + CHECKSUM_BYTES > segmentBytes) {
+            throw new IllegalArgumentException(TOO_LARGE);
+        }
+
+        final Entry entry = new Entry(nextId.getAndIncrement(), payload);
+        return write(ENQUEUED, entry) ? entry : null;
+    }
+
+    /**
+     * Updates the attempt state of the entry and records it.
+     */
+    void recordAttempt(final Entry entry, final int attempts, final long delayNanos, final long nextAttemptMillis) {
+        synchronized (this) {
+            entry.attempts = attempts;
+            entry.delayNanos = delayNanos;
+            entry.nextAttemptMillis = nextAttemptMillis;
+        }
+        write(ATTEMPTED, entry);
+    }
+
+    /**
+     * Records that the entry is done, whether it succeeded or was given up on.
+     */
+    void complete(final Entry entry) {
+        write(COMPLETED, entry);
+    }
+
+    /**
+     * Gets the entries that are still pending, in the order they were written.
+     *
+     * @return a copy of the pending entries.
+     */
+    synchronized List<Entry> getLiveEntries() {
+        final List<Entry> entries = new ArrayList<>(liveEntries);
+        for (Segment segment : full) {
+            entries.addAll(segment.live);
+        }
+        if (active != null) {
+            entries.addAll(active.live);
+        }
+        return entries;
+    }
+
+    synchronized int getLiveEntryCount() {
+        return liveEntries;
+    }
+
+    /**
+     * Forces what has been written so far to disk, including full segments that haven't been forced yet.
+     */
+    void sync() {
+        dirty = false;
+        final List<Segment> unsynced = new ArrayList<>();
+        final Segment segment;
+        synchronized (this) {
+            for (Segment written : full) {
+                if (!written.synced) {
+                    unsynced.add(written);
+                }
+            }
+            segment = active;
+        }
+
+        synchronized (syncLock) {
+            for (Segment written : unsynced) {
+                if (written.buffer != null && !written.unmapped) {
+                    written.buffer.force();
+                }
+                written.synced = true;
+            }
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Forces what has been written to disk and stops writing. Pending entries stay in the journal.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        LockSupport.unpark(flusher);
+        sync();
+    }
+
+    private boolean write(final byte type, final Entry entry) {
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            writeRecord(type, entry);
+        }
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * Writes the record to the active segment, moving on to a new segment until it fits. The caller holds the lock.
+     */
+    private void writeRecord(final byte type, final Entry entry) {
+        final byte[] record = encode(type, entry);
+        while (active.buffer.remaining() < record.length) {
+            full.add(active);
+            active = createSegment(Math.max(segmentBytes, record.length));
+            LockSupport.unpark(flusher);
+        }
+        active.buffer.put(record);
+        apply(type, entry, active);
+    }
+
+    /**
+     * Updates which segments hold the records of the entry that are still needed.
+     */
+    private void apply(final byte type, final Entry entry, final Segment segment) {
+        if (type == ENQUEUED) {
+            if (entry.completed) {
+                return;
+            }
+            if (entry.segment == null) {
+                liveEntries++;
+            } else {
+                entry.segment.release(entry.segment.live, entry, recordBytes(entry));
+            }
+            entry.segment = segment;
+            segment.hold(segment.live, entry, recordBytes(entry));
+            moveAttempted(entry, null);
+        } else if (type == ATTEMPTED && !entry.completed) {
+            moveAttempted(entry, segment == entry.segment ? null : segment);
+        } else if (type == COMPLETED) {
+            if (!entry.completed) {
+                entry.completed = true;
+                liveEntries--;
+                entry.segment.release(entry.segment.live, entry, recordBytes(entry));
+                moveAttempted(entry, null);
+                if (entry.segment == segment) {
+                    return;
+                }
+                entry.segment.superseded.add(entry);
+            }
+            moveCompleted(entry, segment);
+        }
+    }
+
+    private static void moveAttempted(final Entry entry, final Segment segment) {
+        if (entry.attemptedIn != null) {
+            entry.attemptedIn.release(entry.attemptedIn.attempted, entry, STATE_BYTES);
+        }
+        entry.attemptedIn = segment;
+        if (segment != null) {
+            segment.hold(segment.attempted, entry, STATE_BYTES);
+        }
+    }
+
+    private static void moveCompleted(final Entry entry, final Segment segment) {
+        if (entry.completedIn != null) {
+            entry.completedIn.release(entry.completedIn.completed, entry, STATE_BYTES);
+        }
+        entry.completedIn = segment;
+        if (segment != null) {
+            segment.hold(segment.completed, entry, STATE_BYTES);
+        }
+    }
+
+    /**
+     * Compacts every full segment that holds at most the provided share of records that are still needed.
+     */
+    private void compact(final double threshold) {
+        final List<Segment> segments;
+        synchronized (this) {
+            segments = new ArrayList<>(full);
+        }
+
+        for (Segment segment : segments) {
+            if (closed) {
+                return;
+            }
+            compact(segment, threshold);
+        }
+    }
+
+    /**
+     * Writes the records of the segment that are still needed again to the active segment, taking the lock for one
+     * record at a time, and deletes the segment once the rewritten records are on disk.
+     *
+     * @return true if the segment was deleted.
+     */
+    private boolean compact(final Segment segment, final double threshold) {
+        final List<Entry> live;
+        final List<Entry> attempted;
+        final List<Entry> completed;
+        synchronized (this) {
+            if (closed || segment.liveBytes > segment.capacity * threshold) {
+                return false;
+            }
+            live = new ArrayList<>(segment.live);
+            attempted = new ArrayList<>(segment.attempted);
+            completed = new ArrayList<>(segment.completed);
+        }
+
+        if (!rewrite(ENQUEUED, live, segment.live) || !rewrite(ATTEMPTED, attempted, segment.attempted)
+                || !rewrite(COMPLETED, completed, segment.completed)) {
+            return false;
+        }
+
+        synchronized (this) {
+            full.remove(segment);
+        }
+        if (!live.isEmpty() || !attempted.isEmpty() || !completed.isEmpty()) {
+            sync();
+        }
+
+        synchronized (syncLock) {
+            segment.unmapped = true;
+            if (segment.buffer != null) {
+                UNMAPPER.accept(segment.buffer);
+            }
+        }
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            LOG.warn(NOT_DELETED, segment.path, e);
+            return false;
+        }
+
+        synchronized (this) {
+            for (Entry entry : segment.superseded) {
+                if (entry.segment == segment) {
+                    moveCompleted(entry, null);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the records of the entries that the segment still holds again to the active segment.
+     *
+     * @return false if the journal was closed.
+     */
+    private boolean rewrite(final byte type, final List<Entry> entries, final Set<Entry> held) {
+        for (Entry entry : entries) {
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+                if (held.contains(entry)) {
+                    writeRecord(type, entry);
+                }
+            }
+        }
+        return true;
+    }
+
+    private Segment createSegment(final int bytes) {
+        final Path path = directory.resolve(SEGMENT_PREFIX + nextSegment++ + SEGMENT_SUFFIX);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return new Segment(path, channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes), bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int recordBytes(final Entry entry) {
+        return HEADER_BYTES + entry.payload.length + CHECKSUM_BYTES;
+    }
+
+    private static byte[] encode(final byte type, final Entry entry) {
+        final int payloadLength = type == ENQUEUED ? entry.payload.length : 0;
+        final ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payloadLength + CHECKSUM_BYTES);
+        record.put(type)
+                .putInt(payloadLength)
+                .putLong(entry.id)
+                .putInt(entry.attempts)
+                .putLong(entry.delayNanos)
+                .putLong(entry.nextAttemptMillis);
+        if (type == ENQUEUED) {
+            record.put(entry.payload);
+        }
+
+        final CRC32 checksum = new CRC32();
+        checksum.update(record.array(), 0, record.position());
+        record.putInt((int) checksum.getValue());
+        return record.array();
+    }
+
+    /**
+     * Reads the segments in the directory in the order they were written, and collects the pending entries.
+     */
+    private void replay() throws IOException {
+        final Map<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    // Not a segment of this journal.
+                }
+            }
+        }
+
+        final Map<Long, Entry> entries = new TreeMap<>();
+        for (Map.Entry<Long, Path> file : segments.entrySet()) {
+            final MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file.getValue(), StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+
+            final Segment segment = new Segment(file.getValue(), null, buffer.capacity());
+            full.add(segment);
+            nextSegment = file.getKey() + 1;
+            try {
+                replay(buffer, segment, entries);
+            } finally {
+                UNMAPPER.accept(buffer);
+            }
+        }
+    }
+
+    private void replay(final ByteBuffer buffer, final Segment segment, final Map<Long, Entry> entries) {
+        final CRC32 checksum = new CRC32();
+        while (buffer.remaining() >= HEADER_BYTES + CHECKSUM_BYTES) {
+            final int start = buffer.position();
+            final byte type = buffer.get();
+            final int payloadLength = buffer.getInt();
+            if (type < ENQUEUED || type > COMPLETED || payloadLength < 0
+                    || payloadLength > buffer.remaining() - HEADER_BYTES - CHECKSUM_BYTES + 5) {
+                return;
+            }
+
+            final long id = buffer.getLong();
+            final int attempts = buffer.getInt();
+            final long delayNanos = buffer.getLong();
+            final long nextAttemptMillis = buffer.getLong();
+            final byte[] payload = new byte[payloadLength];
+            buffer.get(payload);
+
+            final byte[] record = new byte[HEADER_BYTES + payloadLength];
+            final ByteBuffer read = buffer.duplicate();
+            read.position(start);
+            read.get(record);
+            checksum.reset();
+            checksum.update(record, 0, record.length);
+            if (buffer.getInt() != (int) checksum.getValue()) {
+                return;
+            }
+
+            nextId.set(Math.max(nextId.get(), id + 1));
+            Entry entry = entries.get(id);
+            if (entry == null) {
+                if (type != ENQUEUED) {
+                    continue;
+                }
+                entry = new Entry(id, payload);
+                entries.put(id, entry);
+            }
+
+            entry.attempts = attempts;
+            entry.delayNanos = delayNanos;
+            entry.nextAttemptMillis = nextAttemptMillis;
+            apply(type, entry, segment);
+        }
+    }
+
+    private void flush() {
+        while (!closed) {
+            LockSupport.parkNanos(this, syncIntervalNanos);
+            if (dirty && !closed) {
+                sync();
+            }
+            compact(COMPACTION_THRESHOLD);
+        }
+    }
+
+    /**
+     * Finds a way to unmap a buffer right away, rather than once it's garbage collected, which keeps the file of a
+     * deleted segment on disk until then. Falls back to leaving it to the garbage collector.
+     */
+    private static Consumer<ByteBuffer> unmapper() {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+            return buffer -> invoke(invokeCleaner, unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Before Java 9, the cleaner of the buffer is used instead.
+        }
+
+        try {
+            final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> invoke(clean, invoke(cleaner, buffer));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return buffer -> { };
+        }
+    }
+
+    private static Object invoke(final Method method, final Object target, final Object... arguments) {
+        if (target == null) {
+            return null;
+        }
+
+        try {
+            return method.invoke(target, arguments);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("Couldn't unmap a retry journal segment", e);
+            return null;
+        }
+    }
+
+    /**
+     * A task in the journal and its attempt state. The state is only changed under the lock of the journal, but can
+     * be read without it.
+     */
+    static final class Entry {
+
+        final long id;
+        final byte[] payload;
+        volatile int attempts;
+        volatile long delayNanos;
+        volatile long nextAttemptMillis;
+        private Segment segment;
+        private Segment attemptedIn;
+        private Segment completedIn;
+        private boolean completed;
+
+        private Entry(final long id, final byte[] payload) {
+            this.id = id;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * A segment file, the entries whose records in it are still needed and the bytes of those records.
+     */
+    private static final class Segment {
+
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private final long capacity;
+        private final Set<Entry> live = new LinkedHashSet<>();
+        private final Set<Entry> attempted = new LinkedHashSet<>();
+        private final Set<Entry> completed = new LinkedHashSet<>();
+        private final List<Entry> superseded = new ArrayList<>();
+        private long liveBytes;
+        private volatile boolean synced;
+        private boolean unmapped;
+
+        private Segment(final Path path, final MappedByteBuffer buffer, final long capacity) {
+            this.path = path;
+            this.buffer = buffer;
+            this.capacity = capacity;
+        }
+
+        private void hold(final Set<Entry> records, final Entry entry, final int bytes) {
+            if (records.add(entry)) {
+                liveBytes += bytes;
+            }
+        }
+
+        private void release(final Set<Entry> records, final Entry entry, final int bytes) {
+            if (records.remove(entry)) {
+                liveBytes -= bytes;
+            }
+        }
+    }
+}
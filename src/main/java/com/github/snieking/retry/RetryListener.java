@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+/**
+ * Gets notified of the attempts and outcomes of the calls of a strategy that it's set on with
+ * {@code listener(RetryListener)}, for example on a {@link BasicRetryStrategy}. All methods do nothing by default.
+ *
+ * Listeners are called on the thread that performs the attempt, or that decides on the retry, so they should be
+ * quick. An exception thrown by a listener is logged and otherwise ignored. {@link RetryMetrics} is a listener that
+ * records everything as counters and histograms.
+ *
+ * @author Viktor Plane
+ */
+public interface RetryListener {
+
+    /**
+     * The ways that a call ends.
+     */
+    enum Outcome {
+        /**
+         * An attempt succeeded.
+         */
+        SUCCESS,
+        /**
+         * The last retry failed.
+         */
+        RETRIES_EXHAUSTED,
+        /**
+         * An attempt failed with an exception that isn't retried.
+         */
+        NON_RETRYABLE,
+        /**
+         * An attempt failed while the shared retry budget was exhausted.
+         */
+        RETRY_BUDGET_EXHAUSTED,
+        /**
+         * An attempt failed and the time budget would run out before the next one.
+         */
+        TIME_BUDGET_EXHAUSTED,
+        /**
+         * The thread was interrupted while waiting for the next attempt.
+         */
+        INTERRUPTED
+    }
+
+    /**
+     * Called when an attempt succeeds.
+     *
+     * @param retry        the zero based retry that succeeded, 0 being the first attempt.
+     * @param attemptNanos the time that the attempt took.
+     */
+    default void onAttemptSucceeded(final int retry, final long attemptNanos) {
+    }
+
+    /**
+     * Called when an attempt fails.
+     *
+     * @param retry        the zero based retry that failed, 0 being the first attempt.
+     * @param exception    the exception that the attempt failed with.
+     * @param attemptNanos the time that the attempt took.
+     */
+    default void onAttemptFailed(final int retry, final RuntimeException exception, final long attemptNanos) {
+    }
+
+    /**
+     * Called when a retry is about to be waited for.
+     *
+     * @param retry      the one based retry that will be performed.
+     * @param delayNanos the time that will be waited before the retry.
+     */
+    default void onRetryScheduled(final int retry, final long delayNanos) {
+    }
+
+    /**
+     * Called when a call ends.
+     *
+     * @param outcome   the {@link Outcome} of the call.
+     * @param attempts  the number of attempts that were performed.
+     * @param callNanos the time that the call took, including the waits between attempts.
+     */
+    default void onCallCompleted(final Outcome outcome, final int attempts, final long callNanos) {
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.util.Histogram;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link RetryListener} that counts calls by outcome, attempts, retries, the time waited for retries and the
+ * exceptions that attempts failed with, and tracks the latencies of calls and of single attempts in
+ * {@link Histogram}s.
+ * Everything is recorded without locks, using striped counters and atomic bucket arrays, so a single instance can be
+ * shared by any number of strategies and threads. Use {@link #snapshot()} to export the metrics.
+ *
+ * @author Viktor Plane
+ */
+public final class RetryMetrics implements RetryListener {
+
+    private static final RetryListener.Outcome[] OUTCOMES = RetryListener.Outcome.values();
+
+    private final LongAdder[] calls = new LongAdder[OUTCOMES.length];
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder failedAttempts = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder retryDelayNanos = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> failures = new ConcurrentHashMap<>();
+    private final Histogram callLatencies = Histogram.createHistogram();
+    private final Histogram attemptLatencies = Histogram.createHistogram();
+
+    private RetryMetrics() {
+        for (int i = 0; i < calls.length; i++) {
+            calls[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Creates new, empty, metrics.
+     *
+     * @return {@link RetryMetrics}
+     */
+    public static RetryMetrics createRetryMetrics() {
+        return new RetryMetrics();
+    }
+
+    @Override
+    public void onAttemptSucceeded(final int retry, final long attemptNanos) {
+        attempts.increment();
+        attemptLatencies.record(attemptNanos);
+    }
+
+    @Override
+    public void onAttemptFailed(final int retry, final RuntimeException exception, final long attemptNanos) {
+        attempts.increment();
+        failedAttempts.increment();
+        attemptLatencies.record(attemptNanos);
+
+        final String type = exception.getClass().getName();
+        LongAdder count = failures.get(type);
+        if (count == null) {
+            count = failures.computeIfAbsent(type, key -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    @Override
+    public void onRetryScheduled(final int retry, final long delayNanos) {
+        retries.increment();
+        retryDelayNanos.add(delayNanos);
+    }
+
+    @Override
+    public void onCallCompleted(final Outcome outcome, final int attempts, final long callNanos) {
+        calls[outcome.ordinal()].increment();
+        callLatencies.record(callNanos);
+    }
+
+    /**
+     * Takes a snapshot of the metrics. Metrics recorded while taking it may or may not be included.
+     *
+     * @return the {@link Snapshot}.
+     */
+    public Snapshot snapshot() {
+        final Map<RetryListener.Outcome, Long> callsByOutcome = new EnumMap<>(RetryListener.Outcome.class);
+        for (RetryListener.Outcome outcome : OUTCOMES) {
+            callsByOutcome.put(outcome, calls[outcome.ordinal()].sum());
+        }
+
+        final Map<String, Long> failuresByType = new HashMap<>();
+        failures.forEach((type, count) -> failuresByType.put(type, count.sum()));
+
+        return new Snapshot(callsByOutcome, attempts.sum(), failedAttempts.sum(), retries.sum(),
+                retryDelayNanos.sum(), failuresByType, callLatencies.snapshot(), attemptLatencies.snapshot());
+    }
+
+    /**
+     * The metrics at a single point in time.
+     */
+    public static final class Snapshot {
+
+        private final Map<RetryListener.Outcome, Long> callsByOutcome;
+        private final long attempts;
+        private final long failedAttempts;
+        private final long retries;
+        private final long retryDelayNanos;
+        private final Map<String, Long> failuresByType;
+        private final Histogram.Snapshot callLatencies;
+        private final Histogram.Snapshot attemptLatencies;
+
+        private Snapshot(final Map<RetryListener.Outcome, Long> callsByOutcome, final long attempts,
+                         final long failedAttempts, final long retries, final long retryDelayNanos,
+                         final Map<String, Long> failuresByType, final Histogram.Snapshot callLatencies,
+                         final Histogram.Snapshot attemptLatencies) {
+            this.callsByOutcome = Collections.unmodifiableMap(callsByOutcome);
+            this.attempts = attempts;
+            this.failedAttempts = failedAttempts;
+            this.retries = retries;
+            this.retryDelayNanos = retryDelayNanos;
+            this.failuresByType = Collections.unmodifiableMap(failuresByType);
+            this.callLatencies = callLatencies;
+            this.attemptLatencies = attemptLatencies;
+        }
+
+        /**
+         * Gets the number of completed calls.
+         *
+         * @return the number of calls, whatever their outcome.
+         */
+        public long getCalls() {
+            long sum = 0;
+            for (long count : callsByOutcome.values()) {
+                sum += count;
+            }
+
+            return sum;
+        }
+
+        /**
+         * Gets the number of calls that completed with the provided outcome.
+         *
+         * @param outcome the {@link RetryListener.Outcome} to count.
+         * @return the number of calls.
+         */
+        public long getCalls(final RetryListener.Outcome outcome) {
+            return callsByOutcome.get(outcome);
+        }
+
+        /**
+         * Gets the number of attempts, including the first attempt of every call.
+         *
+         * @return the number of attempts.
+         */
+        public long getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * Gets the number of attempts that failed.
+         *
+         * @return the number of failed attempts.
+         */
+        public long getFailedAttempts() {
+            return failedAttempts;
+        }
+
+        /**
+         * Gets the number of retries that were waited for.
+         *
+         * @return the number of retries.
+         */
+        public long getRetries() {
+            return retries;
+        }
+
+        /**
+         * Gets the total time waited before retries.
+         *
+         * @return the time in nanoseconds.
+         */
+        public long getRetryDelayNanos() {
+            return retryDelayNanos;
+        }
+
+        /**
+         * Gets the number of failed attempts per type of exception.
+         *
+         * @return the counts, keyed by the class name of the exception, so that the metrics don't keep classes from
+         * being unloaded.
+         */
+        public Map<String, Long> getFailuresByType() {
+            return failuresByType;
+        }
+
+        /**
+         * Gets the latency of whole calls, including the waits between attempts, at the provided percentile.
+         *
+         * @param percentile the percentile, between 0 and 100.
+         * @return the latency in nanoseconds, 0 if no call completed.
+         */
+        public long getCallLatencyNanos(final double percentile) {
+            return callLatencies.getValueAtPercentile(percentile);
+        }
+
+        /**
+         * Gets the latency of single attempts at the provided percentile.
+         *
+         * @param percentile the percentile, between 0 and 100.
+         * @return the latency in nanoseconds, 0 if no attempt completed.
+         */
+        public long getAttemptLatencyNanos(final double percentile) {
+            return attemptLatencies.getValueAtPercentile(percentile);
+        }
+
+        /**
+         * Gets the latencies of whole calls, including the waits between attempts, for example to merge or export.
+         *
+         * @return the {@link Histogram.Snapshot} of the call latencies in nanoseconds.
+         */
+        public Histogram.Snapshot getCallLatencies() {
+            return callLatencies;
+        }
+
+        /**
+         * Gets the latencies of single attempts, for example to merge or export.
+         *
+         * @return the {@link Histogram.Snapshot} of the attempt latencies in nanoseconds.
+         */
+        public Histogram.Snapshot getAttemptLatencies() {
+            return attemptLatencies;
+        }
+    }
+}
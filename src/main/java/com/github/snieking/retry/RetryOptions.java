@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.time.Scheduler;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The immutable options that all strategies share, next to their backoff. Configuring a strategy creates a copy of
+ * it with new options, so a configured strategy can safely be shared between threads.
+ *
+ * @author Viktor Plane
+ */
+final class RetryOptions {
+
+    static final RetryOptions DEFAULT = new RetryOptions(ExceptionClassifier.NONE, null, null, 0, 0, null, null);
+
+    final ExceptionClassifier nonRetryableExceptions;
+    final Executor executor;
+    final RetryBudget retryBudget;
+    final long timeBudgetNanos;
+    final long attemptTimeoutNanos;
+    final RetryListener listener;
+    final Scheduler scheduler;
+
+    private RetryOptions(final ExceptionClassifier nonRetryableExceptions, final Executor executor,
+                         final RetryBudget retryBudget, final long timeBudgetNanos,
+                         final long attemptTimeoutNanos, final RetryListener listener,
+                         final Scheduler scheduler) {
+        this.nonRetryableExceptions = nonRetryableExceptions;
+        this.executor = executor;
+        this.retryBudget = retryBudget;
+        this.timeBudgetNanos = timeBudgetNanos;
+        this.attemptTimeoutNanos = attemptTimeoutNanos;
+        this.listener = listener;
+        this.scheduler = scheduler;
+    }
+
+    RetryOptions withNonRetryableExceptions(final ExceptionClassifier nonRetryableExceptions) {
+        return new RetryOptions(nonRetryableExceptions, executor, retryBudget, timeBudgetNanos, attemptTimeoutNanos,
+                listener, scheduler);
+    }
+
+    RetryOptions withExecutor(final Executor executor) {
+        return new RetryOptions(nonRetryableExceptions, executor, retryBudget, timeBudgetNanos, attemptTimeoutNanos,
+                listener, scheduler);
+    }
+
+    RetryOptions withRetryBudget(final RetryBudget retryBudget) {
+        return new RetryOptions(nonRetryableExceptions, executor, retryBudget, timeBudgetNanos, attemptTimeoutNanos,
+                listener, scheduler);
+    }
+
+    RetryOptions withTimeBudgetNanos(final long timeBudgetNanos) {
+        return new RetryOptions(nonRetryableExceptions, executor, retryBudget, timeBudgetNanos, attemptTimeoutNanos,
+                listener, scheduler);
+    }
+
+    RetryOptions withAttemptTimeoutNanos(final long attemptTimeoutNanos) {
+        return new RetryOptions(nonRetryableExceptions, executor, retryBudget, timeBudgetNanos, attemptTimeoutNanos,
+                listener, scheduler);
+    }
+
+    RetryOptions withListener(final RetryListener listener) {
+        return new RetryOptions(nonRetryableExceptions, executor, retryBudget, timeBudgetNanos, attemptTimeoutNanos,
+                listener, scheduler);
+    }
+
+    RetryOptions withScheduler(final Scheduler scheduler) {
+        return new RetryOptions(nonRetryableExceptions, executor, retryBudget, timeBudgetNanos, attemptTimeoutNanos,
+                listener, scheduler);
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.time.Scheduler;
+import com.github.snieking.util.SanityChecker;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A Reactive Streams {@link Publisher} that resubscribes to a failing source publisher, waiting according to the
+ * backoff of a retry strategy in between. The waits are handed to the {@link Scheduler} of the strategy, so a
+ * retrying stream doesn't hold a thread. Outstanding demand of the subscriber carries over to every new
+ * subscription of the source.
+ *
+ * A subscription of the source that delivers an element and stays up for at least the stable time, a second unless
+ * set with {@link #stableAfter(Duration)}, and for no less than the wait before it, counts as progress, and its
+ * failure starts over from the first retry. A source that keeps failing right after an element or two runs out of
+ * retries like any other. Failures that aren't a {@link RuntimeException} are passed on without retrying.
+ *
+ * Requires the optional org.reactivestreams:reactive-streams dependency. On Java 9 and later,
+ * {@code java.util.concurrent.Flow} publishers are bridged with {@code org.reactivestreams.FlowAdapters}.
+ *
+ * @param <T> the type of the elements.
+ * @author Viktor Plane
+ */
+public final class RetryPublisher<T> implements Publisher<T> {
+
+    private static final String BAD_ARGUMENTS = "Source and strategy can't be null";
+    private static final String BAD_STRATEGY = "Strategy must be one of the strategies in this package";
+    private static final String BAD_REQUEST = "Requested elements must be positive";
+    private static final String BAD_STABLE_TIME = "Stable time can't be null or negative";
+    private static final long DEFAULT_STABLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Function<Optional<T>, Publisher<T>> source;
+    private final AbstractRetryStrategy<?> strategy;
+    private final long stableNanos;
+
+    private RetryPublisher(final Function<Optional<T>, Publisher<T>> source, final RetryStrategy strategy,
+                           final long stableNanos) {
+        SanityChecker.verifyNoObjectIsNull(BAD_ARGUMENTS, source, strategy);
+        if (!(strategy instanceof AbstractRetryStrategy)) {
+            throw new IllegalArgumentException(BAD_STRATEGY);
+        }
+
+        this.source = source;
+        this.strategy = (AbstractRetryStrategy<?>) strategy;
+        this.stableNanos = stableNanos;
+    }
+
+    /**
+     * Creates a publisher that resubscribes to the provided source when it fails. Elements delivered before the
+     * failure are delivered again if the source replays them.
+     *
+     * @param source   the {@link Publisher} to subscribe to.
+     * @param strategy the {@link RetryStrategy} whose backoff to follow.
+     * @param <T>      the type of the elements.
+     * @return {@link RetryPublisher}
+     */
+    public static <T> RetryPublisher<T> retry(final Publisher<T> source, final RetryStrategy strategy) {
+        SanityChecker.verifyNoObjectIsNull(BAD_ARGUMENTS, source);
+        return new RetryPublisher<>(lastDelivered -> source, strategy, DEFAULT_STABLE_NANOS);
+    }
+
+    /**
+     * Creates a publisher that resumes a failing source from the last delivered element. The provided function
+     * creates the source of every subscription, getting the last element that was delivered to the subscriber,
+     * or empty before any element was delivered.
+     *
+     * @param resumeFrom the function that creates a {@link Publisher} continuing after the provided element.
+     * @param strategy   the {@link RetryStrategy} whose backoff to follow.
+     * @param <T>        the type of the elements.
+     * @return {@link RetryPublisher}
+     */
+    public static <T> RetryPublisher<T> resume(final Function<Optional<T>, Publisher<T>> resumeFrom,
+                                               final RetryStrategy strategy) {
+        return new RetryPublisher<>(resumeFrom, strategy, DEFAULT_STABLE_NANOS);
+    }
+
+    /**
+     * Sets how long a subscription of the source has to stay up after delivering an element for its failure to
+     * start over from the first retry, instead of the default of a second. A subscription never counts as progress
+     * before it has been up for at least the wait before it.
+     *
+     * @param stableTime the {@link Duration} a subscription has to stay up, zero to count any element as progress.
+     * @return a new publisher instance, this instance is left untouched.
+     */
+    public RetryPublisher<T> stableAfter(final Duration stableTime) {
+        if (stableTime == null || stableTime.isNegative()) {
+            throw new IllegalArgumentException(BAD_STABLE_TIME);
+        }
+        return new RetryPublisher<>(source, strategy, stableTime.toNanos());
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super T> subscriber) {
+        SanityChecker.verifyNoObjectIsNull(BAD_ARGUMENTS, subscriber);
+        new RetrySubscription(subscriber).start();
+    }
+
+    /**
+     * The subscription of a single subscriber. Every subscription of the source gets a {@link SourceSubscriber} of
+     * its own, and a new one is only made after the previous one failed, so signals from the source are serial.
+     * Signals from a subscriber that has been superseded, or that come after its terminal signal, are ignored.
+     * An invalid request can fail the subscriber from another thread, so signals to the subscriber go through
+     * {@code signals}, and whichever thread holds it delivers the terminal signal once it's done.
+     */
+    private final class RetrySubscription implements Subscription {
+
+        private final Subscriber<? super T> downstream;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger signals = new AtomicInteger();
+        private volatile Throwable error;
+        private volatile boolean completed;
+        private boolean terminated;
+
+        private volatile SourceSubscriber current;
+        private Subscription upstream;
+        private volatile boolean cancelled;
+        private volatile Future<?> pendingRetry;
+
+        private volatile T lastDelivered;
+        private RuntimeException exception;
+        private int retry;
+        private long delay;
+        private long subscribedAt;
+        private long connectedAt;
+        private long failingSince;
+
+        RetrySubscription(final Subscriber<? super T> downstream) {
+            this.downstream = downstream;
+        }
+
+        void start() {
+            downstream.onSubscribe(this);
+            subscribeUpstream();
+        }
+
+        private void subscribeUpstream() {
+            if (cancelled) {
+                return;
+            }
+
+            final Publisher<T> publisher;
+            try {
+                publisher = source.apply(Optional.ofNullable(lastDelivered));
+            } catch (RuntimeException e) {
+                onFailure(false, e);
+                return;
+            }
+
+            strategy.log.trace("Subscription {} of publisher", retry + 1);
+            subscribedAt = strategy.startTiming(strategy.getTimeBudgetNanos());
+            connectedAt = strategy.getScheduler().nanoTime();
+            final SourceSubscriber subscriber = new SourceSubscriber(this);
+            current = subscriber;
+            publisher.subscribe(subscriber);
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                cancel();
+                signalError(new IllegalArgumentException(BAD_REQUEST));
+                return;
+            }
+
+            final Subscription subscription;
+            synchronized (this) {
+                requested.getAndAccumulate(n, (r, added) -> r + added < 0 ? Long.MAX_VALUE : r + added);
+                subscription = upstream;
+            }
+
+            if (subscription != null) {
+                subscription.request(n);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+
+            final Subscription subscription;
+            synchronized (this) {
+                subscription = upstream;
+                upstream = null;
+            }
+
+            if (subscription != null) {
+                subscription.cancel();
+            }
+            final Future<?> pending = pendingRetry;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+        }
+
+        /**
+         * Takes the subscription of the current subscriber of the source, and requests the outstanding demand.
+         * Returns false if the subscription should be cancelled instead.
+         */
+        private boolean onSubscribe(final SourceSubscriber subscriber, final Subscription subscription) {
+            final long outstanding;
+            synchronized (this) {
+                if (cancelled || current != subscriber) {
+                    return false;
+                }
+                upstream = subscription;
+                outstanding = requested.get();
+            }
+
+            if (outstanding > 0) {
+                subscription.request(outstanding);
+            }
+            return true;
+        }
+
+        private void onNext(final T element) {
+            if (cancelled) {
+                return;
+            }
+
+            lastDelivered = element;
+            if (requested.get() != Long.MAX_VALUE) {
+                requested.decrementAndGet();
+            }
+
+            if (signals.getAndIncrement() != 0) {
+                return;
+            }
+            if (!terminated) {
+                downstream.onNext(element);
+            }
+            if (signals.decrementAndGet() != 0) {
+                deliverTerminal();
+            }
+        }
+
+        private void onFailure(final boolean progressed, final Throwable throwable) {
+            synchronized (this) {
+                upstream = null;
+            }
+
+            if (cancelled) {
+                return;
+            }
+
+            if (!(throwable instanceof RuntimeException)) {
+                signalError(throwable);
+                return;
+            }
+
+            if (progressed && strategy.getScheduler().nanoTime() - connectedAt >= Math.max(delay, stableNanos)) {
+                recordProgress();
+            }
+
+            final RuntimeException e = (RuntimeException) throwable;
+            if (retry == 0) {
+                failingSince = subscribedAt;
+            }
+            exception = exception == null || exception == e ? e : AbstractRetryStrategy.addFailure(exception, e);
+            strategy.onFailure(retry, e, subscribedAt);
+
+            final long nextDelay = strategy.retryDelayNanos(retry, e, strategy.nextDelayNanos(retry, delay),
+                    failingSince, strategy.getTimeBudgetNanos());
+            if (nextDelay == AbstractRetryStrategy.NO_RETRY) {
+                signalError(exception);
+                return;
+            }
+
+            strategy.log.warn(AbstractRetryStrategy.FAILED_TASK, ++retry, strategy.getMaxRetries());
+            delay = nextDelay;
+            pendingRetry = strategy.getScheduler().schedule(this::subscribeUpstream, delay, TimeUnit.NANOSECONDS);
+            if (cancelled) {
+                pendingRetry.cancel(false);
+            }
+        }
+
+        private void onComplete(final boolean progressed) {
+            synchronized (this) {
+                upstream = null;
+            }
+
+            if (cancelled) {
+                return;
+            }
+
+            if (progressed) {
+                recordProgress();
+            }
+            completed = true;
+            signalTerminal();
+        }
+
+        /**
+         * Reports the subscription that made progress as a successful call, so that the next failure starts over
+         * from the first retry.
+         */
+        private void recordProgress() {
+            strategy.onSuccess(retry, subscribedAt, retry == 0 ? subscribedAt : failingSince);
+            exception = null;
+            retry = 0;
+            delay = 0;
+        }
+
+        private void signalError(final Throwable throwable) {
+            if (error == null) {
+                error = throwable;
+            }
+            signalTerminal();
+        }
+
+        private void signalTerminal() {
+            if (signals.getAndIncrement() == 0) {
+                deliverTerminal();
+            }
+        }
+
+        /**
+         * Delivers the terminal signal while holding {@code signals}, and again for every thread that tried to
+         * signal in the meantime, until no thread is left waiting.
+         */
+        private void deliverTerminal() {
+            do {
+                if (!terminated && (error != null || completed)) {
+                    terminated = true;
+                    if (error != null) {
+                        downstream.onError(error);
+                    } else {
+                        downstream.onComplete();
+                    }
+                }
+            } while (signals.decrementAndGet() != 0);
+        }
+    }
+
+    /**
+     * The subscriber of a single subscription of the source, which passes its signals on to the
+     * {@link RetrySubscription} for as long as it's the current one and hasn't terminated.
+     */
+    private final class SourceSubscriber implements Subscriber<T> {
+
+        private final RetrySubscription parent;
+        private Subscription subscription;
+        private boolean progressed;
+        private boolean done;
+
+        SourceSubscriber(final RetrySubscription parent) {
+            this.parent = parent;
+        }
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            if (this.subscription != null || !parent.onSubscribe(this, subscription)) {
+                subscription.cancel();
+                return;
+            }
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(final T element) {
+            if (isActive()) {
+                progressed = true;
+                parent.onNext(element);
+            }
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            if (isActive()) {
+                done = true;
+                parent.onFailure(progressed, throwable);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (isActive()) {
+                done = true;
+                parent.onComplete(progressed);
+            }
+        }
+
+        private boolean isActive() {
+            return !done && parent.current == this;
+        }
+    }
+}
@@ -18,17 +18,20 @@ package com.github.snieking.retry;
 
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 
 public interface RetryStrategy {
 
     /**
-     * Skip retry if one of the provided exceptions occur.
+     * Skip retry if one of the provided exceptions occur. Subclasses of the provided exceptions are skipped as well,
+     * and so are exceptions caused by one of them.
      *
      * @param exceptions list of exceptions to not perform retry if one of them occurs.
-     * @return the retry strategy instance.
+     * @return the configured retry strategy. The strategies in this package return a new instance and leave the
+     * original untouched.
      */
-    Object nonRetryExceptions(final Class... exceptions);
+    Object nonRetryExceptions(final Class<?>... exceptions);
 
     /**
      * Performs (and retries) a runnable task. Does not return anything.
@@ -43,7 +46,17 @@ public interface RetryStrategy {
      * @param runnable the {@link Runnable} that should be tried (and retried).
      */
     default void performAsync(final Runnable runnable) {
-        new Thread(() -> perform(runnable)).start();
+        performAsync(runnable, RetryExecutors.defaultExecutor());
+    }
+
+    /**
+     * Performs (and retries) a runnable task asynchronously on the provided executor. Does not return anything.
+     *
+     * @param runnable the {@link Runnable} that should be tried (and retried).
+     * @param executor the {@link Executor} that the task should be run on.
+     */
+    default void performAsync(final Runnable runnable, final Executor executor) {
+        executor.execute(() -> perform(runnable));
     }
 
     /**
@@ -63,6 +76,18 @@ public interface RetryStrategy {
      * @return CompletableFuture holding a {@link Optional} of the result from the provided {@link Supplier}.
      */
     default <T> CompletableFuture<Optional<T>> performAndGetAsync(final Supplier<T> task) {
-        return CompletableFuture.supplyAsync(() -> performAndGet(task));
+        return performAndGetAsync(task, RetryExecutors.defaultExecutor());
+    }
+
+    /**
+     * Performs (and retries if failed) a supplied task asynchronously on the provided executor and returns the result.
+     *
+     * @param task     the {@link Supplier} that should be tried (and retried).
+     * @param executor the {@link Executor} that the task should be run on.
+     * @param <T>      the return type.
+     * @return CompletableFuture holding a {@link Optional} of the result from the provided {@link Supplier}.
+     */
+    default <T> CompletableFuture<Optional<T>> performAndGetAsync(final Supplier<T> task, final Executor executor) {
+        return CompletableFuture.supplyAsync(() -> performAndGet(task), executor);
     }
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.util.SanityChecker;
+
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls with the same key into a single call of a {@link RetryStrategy}. The first caller of a
+ * key performs the task with the strategy, retries included, while callers of the same key that arrive meanwhile
+ * join it and get its result or exception, instead of retrying against the backend on their own.
+ *
+ * Calls in flight are kept in a {@link ConcurrentHashMap} by key, and removed as they complete, so a caller that
+ * arrives after a call completed starts a new one. Results are not cached beyond that. Callers of the same key must
+ * expect the same type of result.
+ *
+ * @param <K> the type of the keys.
+ * @author Viktor Plane
+ */
+public final class SingleFlight<K> {
+
+    private static final String BAD_STRATEGY = "Strategy can't be null";
+    private static final String BAD_ARGUMENTS = "Key and task can't be null";
+    private static final String INTERRUPTED = "Interrupted while waiting for the call in flight";
+
+    private final RetryStrategy strategy;
+    private final ConcurrentHashMap<K, CompletableFuture<Optional<?>>> inFlight = new ConcurrentHashMap<>();
+
+    private SingleFlight(final RetryStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * Creates a single flight that performs calls with the provided strategy.
+     *
+     * @param strategy the {@link RetryStrategy} that calls are performed with.
+     * @param <K>      the type of the keys.
+     * @return {@link SingleFlight}
+     */
+    public static <K> SingleFlight<K> createSingleFlight(final RetryStrategy strategy) {
+        SanityChecker.verifyNoObjectIsNull(BAD_STRATEGY, strategy);
+        return new SingleFlight<>(strategy);
+    }
+
+    /**
+     * Performs (and retries if failed) the task, unless a call with the same key is in flight, in which case that
+     * call is waited for instead.
+     *
+     * @param key  the key of the call.
+     * @param task the {@link Supplier} that should be tried (and retried).
+     * @param <T>  the return type.
+     * @return {@link Optional} of the result of the call.
+     * @throws CancellationException if the thread is interrupted while waiting for another caller's call.
+     */
+    public <T> Optional<T> performAndGet(final K key, final Supplier<T> task) {
+        SanityChecker.verifyNoObjectIsNull(BAD_ARGUMENTS, key, task);
+        final CompletableFuture<Optional<?>> call = new CompletableFuture<>();
+        final CompletableFuture<Optional<?>> existing = inFlight.putIfAbsent(key, call);
+        if (existing != null) {
+            return join(existing);
+        }
+
+        try {
+            final Optional<T> result = AbstractRetryStrategy.performAndGetOrThrow(strategy, task);
+            inFlight.remove(key, call);
+            call.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, call);
+            call.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Performs (and retries if failed) the task asynchronously, unless a call with the same key is in flight, in
+     * which case the returned future completes along with that call. Synchronous and asynchronous callers of a key
+     * join each other's calls.
+     *
+     * @param key  the key of the call.
+     * @param task the {@link Supplier} that should be tried (and retried).
+     * @param <T>  the return type.
+     * @return CompletableFuture holding a {@link Optional} of the result of the call.
+     */
+    public <T> CompletableFuture<Optional<T>> performAndGetAsync(final K key, final Supplier<T> task) {
+        SanityChecker.verifyNoObjectIsNull(BAD_ARGUMENTS, key, task);
+        final CompletableFuture<Optional<?>> call = new CompletableFuture<>();
+        final CompletableFuture<Optional<?>> existing = inFlight.putIfAbsent(key, call);
+        if (existing != null) {
+            return copyOf(existing);
+        }
+
+        final CompletableFuture<Optional<T>> performed;
+        try {
+            performed = strategy.performAndGetAsync(task);
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, call);
+            call.completeExceptionally(e);
+            throw e;
+        }
+
+        performed.whenComplete((result, throwable) -> {
+            inFlight.remove(key, call);
+            if (throwable != null) {
+                call.completeExceptionally(throwable);
+            } else {
+                call.complete(result);
+            }
+        });
+        return copyOf(call);
+    }
+
+    /**
+     * Gets the number of keys with a call in flight.
+     *
+     * @return the number of calls in flight.
+     */
+    public int getCallsInFlight() {
+        return inFlight.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Optional<T> join(final CompletableFuture<Optional<?>> call) {
+        try {
+            return (Optional<T>) call.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException(INTERRUPTED);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CompletionException(cause);
+        }
+    }
+
+    /**
+     * Creates a future that completes like the call, so that callers can't complete the shared future themselves.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> CompletableFuture<Optional<T>> copyOf(final CompletableFuture<Optional<?>> call) {
+        final CompletableFuture<Optional<T>> copy = new CompletableFuture<>();
+        call.whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                copy.completeExceptionally(throwable);
+            } else {
+                copy.complete((Optional<T>) result);
+            }
+        });
+        return copy;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.time;
+
+import com.github.snieking.util.SanityChecker;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A coarse {@link TimeSource} whose time is a sample of {@link System#nanoTime()} that a background ticker thread
+ * updates at a fixed resolution. Reading it is a single volatile read, which makes it cheap enough for tight polling
+ * loops, at the cost of lagging the precise clock by up to the resolution.
+ *
+ * As its time is sampled from {@link System#nanoTime()}, the timestamps of both can be compared with each other.
+ * Every source owns a daemon thread, so {@link #close()} it once it's no longer needed. A closed source reads the
+ * precise clock instead.
+ *
+ * @author Viktor Plane
+ */
+public final class CachedTimeSource implements TimeSource, AutoCloseable {
+
+    private static final String BAD_RESOLUTION = "Resolution must be positive";
+    private static final AtomicInteger TICKER_COUNT = new AtomicInteger();
+
+    private final long resolutionNanos;
+    private final Thread ticker;
+    private volatile long nanos = System.nanoTime();
+    private volatile boolean closed;
+
+    private CachedTimeSource(final long resolutionNanos) {
+        this.resolutionNanos = resolutionNanos;
+        this.ticker = new Thread(this::tick, "cached-time-source-" + TICKER_COUNT.incrementAndGet());
+        this.ticker.setDaemon(true);
+    }
+
+    /**
+     * Creates a source and starts its ticker thread.
+     *
+     * @param resolution how often the time is updated.
+     * @return {@link CachedTimeSource}
+     */
+    public static CachedTimeSource createCachedTimeSource(final Duration resolution) {
+        SanityChecker.verifyNoObjectIsNull(BAD_RESOLUTION, resolution);
+        if (resolution.isNegative() || resolution.isZero()) {
+            throw new IllegalArgumentException(BAD_RESOLUTION);
+        }
+
+        final CachedTimeSource source = new CachedTimeSource(resolution.toNanos());
+        source.ticker.start();
+        return source;
+    }
+
+    @Override
+    public long nanoTime() {
+        final long cached = nanos;
+        return closed ? System.nanoTime() : cached;
+    }
+
+    /**
+     * Gets how often the time is updated, which is also how far it can lag behind {@link System#nanoTime()}.
+     *
+     * @return the resolution in nanoseconds.
+     */
+    public long getResolutionNanos() {
+        return resolutionNanos;
+    }
+
+    /**
+     * Stops the ticker thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(ticker);
+    }
+
+    private void tick() {
+        while (!closed) {
+            LockSupport.parkNanos(this, resolutionNanos);
+            nanos = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.time;
+
+import com.github.snieking.util.SanityChecker;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link Scheduler} that keeps delayed tasks in a hashed timing wheel, for when millions of delays are pending at
+ * once, such as the waits and timeouts of asynchronous retries. Scheduling and cancelling a task are O(1) and
+ * lock-free, where a {@link java.util.concurrent.ScheduledThreadPoolExecutor} takes a lock and O(log n) for both.
+ *
+ * Time is divided into ticks, and the wheel is a ring of buckets with one bucket per tick. A task lands in the
+ * bucket of the tick it's due in, with the number of full turns of the wheel left before it's due. A single ticker
+ * thread wakes up once per tick, moves newly scheduled and cancelled tasks into and out of the wheel, and hands the
+ * tasks that are due to the executor in a single batch. Tasks therefore run up to a tick late, but never early.
+ * The ticker thread is started by the first task, and parks without ticking while nothing is pending.
+ *
+ * Sleeping and the clock are the same as for {@link Scheduler#system()}. {@link #close()} the scheduler once it's no
+ * longer needed, which cancels the tasks that are still pending.
+ *
+ * @author Viktor Plane
+ */
+public final class HashedWheelScheduler implements Scheduler, AutoCloseable {
+
+    private static final String BAD_TICK = "Tick must be positive";
+    private static final String BAD_WHEEL_SIZE = "Wheel size must be between 1 and 2^30";
+    private static final String BAD_EXECUTOR = "Executor can't be null";
+    private static final String BAD_TASK = "Task can't be null";
+    private static final String CLOSED = "Scheduler is closed";
+
+    private static final long DEFAULT_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+    private static final int MAX_WHEEL_SIZE = 1 << 30;
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+    private static final AtomicInteger TICKER_COUNT = new AtomicInteger();
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Executor executor;
+    private final long startNanos = System.nanoTime();
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final Thread ticker;
+
+    private volatile boolean idle;
+    private volatile boolean closed;
+    private long tick;
+
+    private HashedWheelScheduler(final long tickNanos, final int wheelSize, final Executor executor) {
+        this.tickNanos = tickNanos;
+        this.wheel = new Bucket[powerOfTwo(wheelSize)];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = wheel.length - 1;
+        this.executor = executor;
+        this.ticker = new Thread(this::runTicker, "hashed-wheel-scheduler-" + TICKER_COUNT.incrementAndGet());
+        this.ticker.setDaemon(true);
+    }
+
+    /**
+     * Creates a scheduler with ticks of a millisecond and 512 buckets, which runs the due tasks on its ticker
+     * thread, so they should be short.
+     *
+     * @return {@link HashedWheelScheduler}
+     */
+    public static HashedWheelScheduler createHashedWheelScheduler() {
+        return new HashedWheelScheduler(DEFAULT_TICK_NANOS, DEFAULT_WHEEL_SIZE, null);
+    }
+
+    /**
+     * Creates a scheduler that hands the tasks that are due in a tick to the provided executor, as a single batch.
+     *
+     * @param tick      the duration of a tick, which is how late a task can run.
+     * @param wheelSize the number of buckets, rounded up to a power of two. Tasks that are due further away than a
+     *                  turn of the wheel are kept in a bucket for more than one turn.
+     * @param executor  the {@link Executor} that the due tasks are run on.
+     * @return {@link HashedWheelScheduler}
+     */
+    public static HashedWheelScheduler createHashedWheelScheduler(final Duration tick, final int wheelSize,
+                                                                  final Executor executor) {
+        SanityChecker.verifyNoObjectIsNull(BAD_TICK, tick);
+        SanityChecker.verifyNoObjectIsNull(BAD_EXECUTOR, executor);
+        if (tick.isNegative() || tick.isZero()) {
+            throw new IllegalArgumentException(BAD_TICK);
+        }
+        if (wheelSize <= 0 || wheelSize > MAX_WHEEL_SIZE) {
+            throw new IllegalArgumentException(BAD_WHEEL_SIZE);
+        }
+
+        return new HashedWheelScheduler(tick.toNanos(), wheelSize, executor);
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public boolean sleepNanos(final long nanos) {
+        return SystemScheduler.INSTANCE.sleepNanos(nanos);
+    }
+
+    @Override
+    public boolean sleepNanosPrecisely(final long nanos) {
+        return SystemScheduler.INSTANCE.sleepNanosPrecisely(nanos);
+    }
+
+    /**
+     * Schedules the task in O(1) without taking a lock. Cancelling the returned {@link Future} is O(1) as well.
+     *
+     * @throws RejectedExecutionException if the scheduler is closed.
+     */
+    @Override
+    public Future<?> schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        SanityChecker.verifyNoObjectIsNull(BAD_TASK, task, unit);
+        if (closed) {
+            throw new RejectedExecutionException(CLOSED);
+        }
+        if (!started.get() && started.compareAndSet(false, true)) {
+            ticker.start();
+        }
+
+        final long elapsed = System.nanoTime() - startNanos;
+        final long delayNanos = Math.max(0, unit.toNanos(delay));
+        final long deadline = elapsed + delayNanos < elapsed ? Long.MAX_VALUE : elapsed + delayNanos;
+        final Timeout timeout = new Timeout(task, deadline);
+
+        pending.incrementAndGet();
+        added.add(timeout);
+        if (closed) {
+            timeout.cancel(false);
+        } else if (idle) {
+            LockSupport.unpark(ticker);
+        }
+        return timeout;
+    }
+
+    /**
+     * Gets the number of tasks that are scheduled and neither handed to the executor nor removed after being
+     * cancelled.
+     *
+     * @return the number of pending tasks.
+     */
+    public long getPendingTasks() {
+        return pending.get();
+    }
+
+    /**
+     * Stops the ticker thread and cancels the tasks that are still pending. Tasks that were already handed to the
+     * executor still run.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(ticker);
+    }
+
+    private void runTicker() {
+        while (!closed) {
+            if (pending.get() == 0) {
+                waitForTasks();
+                continue;
+            }
+
+            final long tickEnd = (tick + 1) * tickNanos;
+            if (!waitUntil(startNanos + tickEnd)) {
+                break;
+            }
+
+            removeCancelled();
+            transferAdded();
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+
+        cancelPending();
+    }
+
+    /**
+     * Parks until a task is scheduled, and skips the ticks that passed meanwhile, as the wheel is empty.
+     */
+    private void waitForTasks() {
+        idle = true;
+        while (pending.get() == 0 && !closed) {
+            LockSupport.park(this);
+            Thread.interrupted();
+        }
+        idle = false;
+        tick = Math.max(tick, (System.nanoTime() - startNanos) / tickNanos);
+    }
+
+    /**
+     * Parks until the provided deadline.
+     *
+     * @return false if the scheduler was closed meanwhile.
+     */
+    private boolean waitUntil(final long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0 && !closed) {
+            LockSupport.parkNanos(this, remaining);
+            Thread.interrupted();
+        }
+        return !closed;
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+                pending.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Moves newly scheduled tasks into the wheel, at most a fixed number per tick so that a flood of tasks can't
+     * hold up the ones that are due.
+     */
+    private void transferAdded() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            final Timeout timeout = added.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.isCancelled()) {
+                pending.decrementAndGet();
+                continue;
+            }
+
+            final long dueTick = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (dueTick - tick) / wheel.length;
+            wheel[(int) (Math.max(dueTick, tick) & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * Takes the tasks that are due out of the bucket and hands them to the executor.
+     */
+    private void expire(final Bucket bucket) {
+        List<Timeout> due = null;
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            final Timeout next = timeout.next;
+            if (timeout.remainingRounds <= 0 || timeout.isCancelled()) {
+                bucket.remove(timeout);
+                pending.decrementAndGet();
+                if (!timeout.isCancelled()) {
+                    if (due == null) {
+                        due = new ArrayList<>();
+                    }
+                    due.add(timeout);
+                }
+            } else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+
+        if (due != null) {
+            dispatch(due);
+        }
+    }
+
+    private void dispatch(final List<Timeout> due) {
+        if (executor == null) {
+            due.forEach(Timeout::run);
+            return;
+        }
+
+        try {
+            executor.execute(() -> due.forEach(Timeout::run));
+        } catch (RejectedExecutionException e) {
+            due.forEach(timeout -> timeout.fail(e));
+        }
+    }
+
+    private void cancelPending() {
+        for (Bucket bucket : wheel) {
+            Timeout timeout;
+            while ((timeout = bucket.head) != null) {
+                bucket.remove(timeout);
+                timeout.cancel(false);
+            }
+        }
+
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            timeout.cancel(false);
+        }
+        cancelled.clear();
+        pending.set(0);
+    }
+
+    private static int powerOfTwo(final int size) {
+        return size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    }
+
+    /**
+     * A scheduled task, linked into the bucket of the tick it's due in. Only the ticker thread touches the links.
+     */
+    private final class Timeout extends FutureTask<Void> {
+
+        private final long deadline;
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(final Runnable task, final long deadline) {
+            super(task, null);
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            final boolean cancelledNow = super.cancel(mayInterruptIfRunning);
+            if (cancelledNow && !closed) {
+                cancelled.add(this);
+            }
+            return cancelledNow;
+        }
+
+        private void fail(final Throwable t) {
+            setException(t);
+        }
+    }
+
+    /**
+     * A doubly linked list of the tasks that are due in the same tick of a turn, for O(1) removal.
+     */
+    private static final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(final Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.previous = tail;
+            }
+            tail = timeout;
+        }
+
+        private void remove(final Timeout timeout) {
+            if (timeout.previous != null) {
+                timeout.previous.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            } else {
+                tail = timeout.previous;
+            }
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.time;
+
+import com.github.snieking.util.SanityChecker;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link TimeSource} that only moves when it's advanced, for deterministic tests of timing logic.
+ * It can be read and advanced from any thread.
+ *
+ * @author Viktor Plane
+ */
+public final class ManualTimeSource implements TimeSource {
+
+    private static final String BAD_ADVANCE = "Time can only be advanced by a positive or zero duration";
+
+    private final AtomicLong nanos;
+
+    private ManualTimeSource(final long startNanos) {
+        this.nanos = new AtomicLong(startNanos);
+    }
+
+    /**
+     * Creates a source that starts at zero.
+     *
+     * @return {@link ManualTimeSource}
+     */
+    public static ManualTimeSource createManualTimeSource() {
+        return new ManualTimeSource(0);
+    }
+
+    /**
+     * Creates a source that starts at the provided time.
+     *
+     * @param startNanos the initial time in nanoseconds.
+     * @return {@link ManualTimeSource}
+     */
+    public static ManualTimeSource createManualTimeSource(final long startNanos) {
+        return new ManualTimeSource(startNanos);
+    }
+
+    @Override
+    public long nanoTime() {
+        return nanos.get();
+    }
+
+    /**
+     * Moves the time forward by the provided duration.
+     *
+     * @param duration the duration to move forward by.
+     * @return the new time in nanoseconds.
+     */
+    public long advance(final Duration duration) {
+        SanityChecker.verifyNoObjectIsNull(BAD_ADVANCE, duration);
+        return advanceNanos(duration.toNanos());
+    }
+
+    /**
+     * Moves the time forward by the provided nanoseconds.
+     *
+     * @param durationNanos the nanoseconds to move forward by.
+     * @return the new time in nanoseconds.
+     */
+    public long advanceNanos(final long durationNanos) {
+        if (durationNanos < 0) {
+            throw new IllegalArgumentException(BAD_ADVANCE);
+        }
+        return nanos.addAndGet(durationNanos);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.time;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The clock that waits and delayed tasks follow. {@link TimeManager} and the retry strategies go through a scheduler
+ * for everything that depends on the passing of time, so replacing {@link #system()} with a
+ * {@link VirtualScheduler} makes them run in virtual time, without really waiting.
+ *
+ * @author Viktor Plane
+ */
+public interface Scheduler extends TimeSource {
+
+    /**
+     * Waits until the provided nanoseconds have passed. Returns immediately if it isn't positive.
+     * An interrupt ends the wait early and leaves the interrupt flag of the thread set.
+     *
+     * @param nanos the nanoseconds to wait for.
+     * @return true if the time passed, false if the thread was interrupted.
+     */
+    boolean sleepNanos(long nanos);
+
+    /**
+     * Waits until the provided nanoseconds have passed without waking up late, for short waits. By default the
+     * same as {@link #sleepNanos(long)}.
+     *
+     * @param nanos the nanoseconds to wait for.
+     * @return true if the time passed, false if the thread was interrupted.
+     */
+    default boolean sleepNanosPrecisely(final long nanos) {
+        return sleepNanos(nanos);
+    }
+
+    /**
+     * Runs the provided task once after the provided delay. The task should be short and hand any heavier work off
+     * to an executor.
+     *
+     * @param task  the task that should be run once the delay has passed.
+     * @param delay the time to wait before running the task.
+     * @param unit  the {@link TimeUnit} of the delay.
+     * @return {@link Future} that can be used to cancel the task before it runs.
+     */
+    Future<?> schedule(Runnable task, long delay, TimeUnit unit);
+
+    /**
+     * Gets the scheduler that follows {@link System#nanoTime()}, parks threads to wait and runs delayed tasks on a
+     * single shared daemon thread.
+     *
+     * @return the system {@link Scheduler}.
+     */
+    static Scheduler system() {
+        return SystemScheduler.INSTANCE;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.time;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@link Scheduler} that follows the real clock, see {@link Scheduler#system()}.
+ *
+ * @author Viktor Plane
+ */
+final class SystemScheduler implements Scheduler {
+
+    static final SystemScheduler INSTANCE = new SystemScheduler();
+
+    private static final long PARK_SLACK_NANOS = 100_000;
+    private static final long SPIN_NANOS = 10_000;
+
+    private SystemScheduler() {
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Parks the thread in a loop until the deadline. Parking may wake up a little late, usually by tens of
+     * microseconds.
+     */
+    @Override
+    public boolean sleepNanos(final long nanos) {
+        if (nanos <= 0) {
+            return !Thread.currentThread().isInterrupted();
+        }
+
+        final long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            remaining = deadline - System.nanoTime();
+        }
+        return true;
+    }
+
+    /**
+     * Parks until shortly before the deadline, then yields, and spins through the last microseconds.
+     */
+    @Override
+    public boolean sleepNanosPrecisely(final long nanos) {
+        final long deadline = System.nanoTime() + nanos;
+        if (nanos > PARK_SLACK_NANOS && !sleepNanos(nanos - PARK_SLACK_NANOS)) {
+            return false;
+        }
+
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            if (remaining > SPIN_NANOS) {
+                Thread.yield();
+            }
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+
+    @Override
+    public Future<?> schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        return SchedulerHolder.SCHEDULER.schedule(task, delay, unit);
+    }
+
+    /**
+     * Lazily creates the shared scheduler thread the first time something is scheduled.
+     */
+    private static final class SchedulerHolder {
+
+        private static final ScheduledThreadPoolExecutor SCHEDULER = createScheduler();
+
+        private static ScheduledThreadPoolExecutor createScheduler() {
+            final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+                final Thread thread = new Thread(runnable, "time-manager-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.setRemoveOnCancelPolicy(true);
+            return scheduler;
+        }
+    }
+}
@@ -17,24 +17,61 @@
 package com.github.snieking.time;
 
 import com.github.snieking.util.SanityChecker;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Utility class for managing time. Using the Java 8 time API.
  *
+ * Waits, delayed tasks and the nanosecond clock go through the installed {@link Scheduler}, which is
+ * {@link Scheduler#system()} unless {@link #setScheduler(Scheduler)} replaced it, for example with a
+ * {@link VirtualScheduler} in tests. The wall clock methods always follow the real clock.
+ *
  * @author Viktor Plane
  */
 public class TimeManager {
 
-    private static final Logger LOG = LoggerFactory.getLogger(TimeManager.class);
     private static final String BAD_TIME = "Times can't be null";
+    private static final String BAD_TASK = "Task can't be null";
+    private static final String BAD_SCHEDULER = "Scheduler can't be null";
+
+    private static volatile Scheduler scheduler = Scheduler.system();
+
+    /**
+     * Gets the scheduler that waits and delayed tasks currently go through.
+     *
+     * @return the installed {@link Scheduler}.
+     */
+    public static Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Installs the scheduler that waits and delayed tasks go through, for the whole process. This includes the retry
+     * strategies that aren't configured with a scheduler of their own. Waits that already started are not affected.
+     *
+     * @param scheduler the {@link Scheduler} to install, {@link Scheduler#system()} restores the default.
+     */
+    public static void setScheduler(final Scheduler scheduler) {
+        SanityChecker.verifyNoObjectIsNull(BAD_SCHEDULER, scheduler);
+        TimeManager.scheduler = scheduler;
+    }
+
+    /**
+     * Gets the current time of the installed scheduler.
+     *
+     * @return the current time in nanoseconds.
+     */
+    public static long nanoTime() {
+        return scheduler.nanoTime();
+    }
 
     /**
-     * Checks if the duration has passed since the provided duration.
+     * Checks if the duration has passed since the provided timestamp, using the wall clock. This allocates and
+     * reads the wall clock on every call, prefer {@link #isDurationPassed(long, long)} in loops.
      *
      * @param timestamp the timestamp to check on if the duration has passed.
      * @param duration  the duration to check if it has passed from the provided timestamp.
@@ -42,30 +79,131 @@ public class TimeManager {
      */
     public static boolean isDurationPassed(final Instant timestamp, final Duration duration) {
         SanityChecker.verifyNoObjectIsNull(BAD_TIME, timestamp, duration);
-        return timestamp.plus(duration).isAfter(Instant.now());
+        return !timestamp.plus(duration).isAfter(Instant.now());
     }
 
     /**
-     * Waits for the provided duration to pass.
+     * Checks if the duration has passed since the provided timestamp, using {@link #coarseNanoTime()}. It allocates
+     * nothing and costs a couple of volatile reads, but notices the duration passing up to a millisecond late.
+     *
+     * @param startNanos    the timestamp, from {@link #coarseNanoTime()} or {@link #nanoTime()}.
+     * @param durationNanos the duration in nanoseconds.
+     * @return boolean if the duration has passed or not.
+     */
+    public static boolean isDurationPassed(final long startNanos, final long durationNanos) {
+        return coarseNanoTime() - startNanos >= durationNanos;
+    }
+
+    /**
+     * Gets the time of a {@link CachedTimeSource} that is shared by the whole process and updated every
+     * millisecond. It can be compared with timestamps from {@link System#nanoTime()}. When another scheduler is
+     * installed, this is the time of that scheduler instead.
+     *
+     * @return the coarse current time in nanoseconds.
+     */
+    public static long coarseNanoTime() {
+        final Scheduler current = scheduler;
+        return current == SystemScheduler.INSTANCE ? CoarseTimeSourceHolder.SOURCE.nanoTime() : current.nanoTime();
+    }
+
+    /**
+     * Waits for the provided duration to pass, see {@link #sleep(Duration)}.
      *
      * @param duration the time the thread should wait for to pass.
      */
     public static void waitUntilDurationPassed(final Duration duration) {
+        sleep(duration);
+    }
+
+    /**
+     * Waits for the provided duration to pass, with nanosecond precision. An interrupt ends the wait early and
+     * leaves the interrupt flag of the thread set.
+     *
+     * @param duration the time the thread should wait for to pass.
+     * @return true if the duration passed, false if the thread was interrupted.
+     */
+    public static boolean sleep(final Duration duration) {
         SanityChecker.verifyNoObjectIsNull(BAD_TIME, duration);
-        sleep(duration.toMillis());
+        return sleepNanos(toNanos(duration));
+    }
+
+    /**
+     * Parks the thread until the provided nanoseconds have passed. Returns immediately if it isn't positive.
+     * Parking may wake up a little late, usually by tens of microseconds, see {@link #sleepNanosPrecisely(long)}.
+     *
+     * An interrupt ends the wait early and leaves the interrupt flag of the thread set, so that the caller
+     * can stop whatever it was waiting to do.
+     *
+     * @param nanos the nanoseconds the thread should sleep for.
+     * @return true if the time passed, false if the thread was interrupted.
+     */
+    public static boolean sleepNanos(final long nanos) {
+        return scheduler.sleepNanos(nanos);
+    }
+
+    /**
+     * Sleeps for the provided nanoseconds without waking up late, which matters for sub-millisecond waits.
+     * The thread parks until shortly before the deadline, then yields, and spins through the last microseconds.
+     * This costs some CPU at the end of every wait, so it's meant for short waits.
+     *
+     * An interrupt ends the wait early and leaves the interrupt flag of the thread set.
+     *
+     * @param nanos the nanoseconds the thread should sleep for.
+     * @return true if the time passed, false if the thread was interrupted.
+     */
+    public static boolean sleepNanosPrecisely(final long nanos) {
+        return scheduler.sleepNanosPrecisely(nanos);
     }
 
     /**
-     * Sleeps for the provided milliseconds.
+     * Sleeps for the provided milliseconds, see {@link #sleepMillis(long)}.
      *
      * @param millis the milliseconds the thread should sleep for.
      */
     public static void sleep(final long millis) {
+        sleepMillis(millis);
+    }
+
+    /**
+     * Sleeps for the provided milliseconds, see {@link #sleepNanos(long)}.
+     *
+     * @param millis the milliseconds the thread should sleep for.
+     * @return true if the time passed, false if the thread was interrupted.
+     */
+    public static boolean sleepMillis(final long millis) {
+        return sleepNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * Runs the provided task once after the provided delay. All tasks share a single scheduler thread,
+     * so the task should be short and hand any heavier work off to an executor.
+     *
+     * @param task  the task that should be run once the delay has passed.
+     * @param delay the time to wait before running the task.
+     * @param unit  the {@link TimeUnit} of the delay.
+     * @return {@link Future} that can be used to cancel the task before it runs.
+     */
+    public static Future<?> schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        SanityChecker.verifyNoObjectIsNull(BAD_TASK, task, unit);
+        return scheduler.schedule(task, delay, unit);
+    }
+
+    /**
+     * Converts the duration to nanoseconds, saturating instead of overflowing.
+     */
+    private static long toNanos(final Duration duration) {
         try {
-            Thread.sleep(millis);
-        } catch (InterruptedException e) {
-            LOG.warn("Received an interrupt while sleeping.");
+            return duration.toNanos();
+        } catch (ArithmeticException e) {
+            return duration.isNegative() ? Long.MIN_VALUE : Long.MAX_VALUE;
         }
     }
 
+    /**
+     * Lazily starts the shared coarse time source the first time it's read.
+     */
+    private static final class CoarseTimeSourceHolder {
+        private static final CachedTimeSource SOURCE = CachedTimeSource.createCachedTimeSource(Duration.ofMillis(1));
+    }
+
 }
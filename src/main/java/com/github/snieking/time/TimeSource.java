@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.time;
+
+/**
+ * A source of monotonic nanosecond timestamps, like {@link System#nanoTime()}. Timestamps only mean something
+ * relative to other timestamps of the same source.
+ *
+ * {@link #system()} reads the precise clock on every call. A {@link CachedTimeSource} trades precision for a read
+ * that is nothing more than a volatile field, and a {@link ManualTimeSource} only moves when told to, which makes
+ * timing in tests deterministic.
+ *
+ * @author Viktor Plane
+ */
+@FunctionalInterface
+public interface TimeSource {
+
+    /**
+     * Gets the current time of the source.
+     *
+     * @return the current time in nanoseconds.
+     */
+    long nanoTime();
+
+    /**
+     * Gets the nanoseconds that passed since the provided timestamp.
+     *
+     * @param startNanos a previous {@link #nanoTime()} of this source.
+     * @return the elapsed nanoseconds.
+     */
+    default long elapsedNanos(final long startNanos) {
+        return nanoTime() - startNanos;
+    }
+
+    /**
+     * Checks if the provided duration has passed since the provided timestamp, without allocating anything.
+     *
+     * @param startNanos    a previous {@link #nanoTime()} of this source.
+     * @param durationNanos the duration in nanoseconds.
+     * @return true if the duration has passed.
+     */
+    default boolean isDurationPassed(final long startNanos, final long durationNanos) {
+        return nanoTime() - startNanos >= durationNanos;
+    }
+
+    /**
+     * Gets the source that reads {@link System#nanoTime()} on every call.
+     *
+     * @return the precise system {@link TimeSource}.
+     */
+    static TimeSource system() {
+        return System::nanoTime;
+    }
+}
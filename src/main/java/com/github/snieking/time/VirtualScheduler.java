@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.time;
+
+import com.github.snieking.util.SanityChecker;
+
+import java.time.Duration;
+import java.util.PriorityQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Scheduler} with a virtual clock, for tests and simulations. Nothing really waits: a sleep moves the clock
+ * forward at once, and delayed tasks are run by the thread that moves the clock past them, in the order they are
+ * due. Install it with {@link TimeManager#setScheduler(Scheduler)}, or configure a retry strategy with it, and a
+ * backoff of minutes takes microseconds.
+ *
+ * The clock can be read from any thread, but it's meant to be moved by one thread at a time, typically the test
+ * itself. Tasks that are due at the same time run in the order they were scheduled.
+ *
+ * @author Viktor Plane
+ */
+public final class VirtualScheduler implements Scheduler {
+
+    private static final String BAD_TASK = "Task can't be null";
+    private static final String BAD_ADVANCE = "Time can only be advanced by a positive or zero duration";
+
+    private final PriorityQueue<VirtualTask> tasks = new PriorityQueue<>();
+    private long scheduled;
+    private volatile long nanos;
+
+    private VirtualScheduler(final long startNanos) {
+        this.nanos = startNanos;
+    }
+
+    /**
+     * Creates a scheduler whose clock starts at zero.
+     *
+     * @return {@link VirtualScheduler}
+     */
+    public static VirtualScheduler createVirtualScheduler() {
+        return new VirtualScheduler(0);
+    }
+
+    /**
+     * Creates a scheduler whose clock starts at the provided time.
+     *
+     * @param startNanos the initial time in nanoseconds.
+     * @return {@link VirtualScheduler}
+     */
+    public static VirtualScheduler createVirtualScheduler(final long startNanos) {
+        return new VirtualScheduler(startNanos);
+    }
+
+    @Override
+    public long nanoTime() {
+        return nanos;
+    }
+
+    /**
+     * Moves the clock forward by the provided nanoseconds, running the tasks that become due, and returns at once.
+     */
+    @Override
+    public boolean sleepNanos(final long nanos) {
+        if (Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+
+        if (nanos > 0) {
+            advanceNanos(nanos);
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+
+    @Override
+    public Future<?> schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        SanityChecker.verifyNoObjectIsNull(BAD_TASK, task, unit);
+        final long delayNanos = Math.max(0, unit.toNanos(delay));
+        synchronized (tasks) {
+            final VirtualTask scheduledTask = new VirtualTask(task, saturatedAdd(nanos, delayNanos), scheduled++);
+            tasks.add(scheduledTask);
+            return scheduledTask;
+        }
+    }
+
+    /**
+     * Moves the clock forward by the provided duration, running the tasks that become due on the way.
+     *
+     * @param duration the duration to move forward by.
+     * @return the new time in nanoseconds.
+     */
+    public long advance(final Duration duration) {
+        SanityChecker.verifyNoObjectIsNull(BAD_ADVANCE, duration);
+        return advanceNanos(duration.toNanos());
+    }
+
+    /**
+     * Moves the clock forward by the provided nanoseconds, running the tasks that become due on the way.
+     * The clock reads the due time of every task while it runs, so tasks that schedule new tasks see the time
+     * they expect.
+     *
+     * @param durationNanos the nanoseconds to move forward by.
+     * @return the new time in nanoseconds.
+     */
+    public long advanceNanos(final long durationNanos) {
+        if (durationNanos < 0) {
+            throw new IllegalArgumentException(BAD_ADVANCE);
+        }
+
+        final long target = saturatedAdd(nanos, durationNanos);
+        VirtualTask task;
+        while ((task = nextTask(target)) != null) {
+            task.run();
+        }
+
+        synchronized (tasks) {
+            if (target > nanos) {
+                nanos = target;
+            }
+            return nanos;
+        }
+    }
+
+    /**
+     * Runs every scheduled task, including those that they schedule, moving the clock forward to each of them.
+     *
+     * @return the number of tasks that were run.
+     */
+    public int runUntilIdle() {
+        int ran = 0;
+        VirtualTask task;
+        while ((task = nextTask(Long.MAX_VALUE)) != null) {
+            task.run();
+            ran++;
+        }
+        return ran;
+    }
+
+    /**
+     * Gets the number of tasks that are scheduled and not yet run or cancelled.
+     *
+     * @return the number of pending tasks.
+     */
+    public int getPendingTasks() {
+        synchronized (tasks) {
+            return tasks.size();
+        }
+    }
+
+    /**
+     * Takes the next task that is due at the provided time, and moves the clock to when it's due.
+     */
+    private VirtualTask nextTask(final long target) {
+        synchronized (tasks) {
+            final VirtualTask next = tasks.peek();
+            if (next == null || next.dueNanos > target) {
+                return null;
+            }
+
+            tasks.poll();
+            if (next.dueNanos > nanos) {
+                nanos = next.dueNanos;
+            }
+            return next;
+        }
+    }
+
+    private static long saturatedAdd(final long nanos, final long durationNanos) {
+        final long sum = nanos + durationNanos;
+        return sum < nanos ? Long.MAX_VALUE : sum;
+    }
+
+    /**
+     * A task that is due at a point in virtual time.
+     */
+    private final class VirtualTask extends FutureTask<Void> implements Comparable<VirtualTask> {
+
+        private final long dueNanos;
+        private final long sequence;
+
+        private VirtualTask(final Runnable task, final long dueNanos, final long sequence) {
+            super(task, null);
+            this.dueNanos = dueNanos;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            final boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                synchronized (tasks) {
+                    tasks.remove(this);
+                }
+            }
+            return cancelled;
+        }
+
+        @Override
+        public int compareTo(final VirtualTask other) {
+            final int byDueTime = Long.compare(dueNanos, other.dueNanos);
+            return byDueTime != 0 ? byDueTime : Long.compare(sequence, other.sequence);
+        }
+    }
+}
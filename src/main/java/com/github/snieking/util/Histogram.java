@@ -0,0 +1,465 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Utility class for aggregating values, typically latencies in nanoseconds, from any number of threads and reading
+ * their percentiles.
+ *
+ * Values are counted in log-linear buckets: every power of two is split into 2^precisionBits linear sub-buckets,
+ * so any non-negative long can be recorded and every percentile is accurate to within 1 / 2^precisionBits.
+ * Recording is a single atomic increment into a stripe of counters picked by the recording thread, so threads
+ * rarely contend and never wait on each other.
+ *
+ * {@link #snapshot()} reads the counts, while {@link #snapshotAndReset()} also takes them out of the histogram,
+ * which gives the values of an interval without losing any recorded concurrently. Snapshots can be merged and
+ * serialized to a compact byte format.
+ *
+ * @author Viktor Plane
+ */
+public final class Histogram {
+
+    private static final String BAD_PRECISION = "Precision bits must be between 1 and 10";
+    private static final String BAD_SNAPSHOT = "Snapshots must have the same precision";
+    private static final String BAD_BYTES = "Bytes are not a serialized histogram snapshot";
+
+    private static final int DEFAULT_PRECISION_BITS = 5;
+    private static final int MAX_PRECISION_BITS = 10;
+    private static final int MAX_STRIPES = 8;
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+    private static final byte FORMAT_VERSION = 1;
+
+    private final int precisionBits;
+    private final AtomicLongArray[] stripes;
+
+    private Histogram(final int precisionBits) {
+        this.precisionBits = precisionBits;
+        this.stripes = new AtomicLongArray[STRIPES];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new AtomicLongArray(bucketCount(precisionBits));
+        }
+    }
+
+    /**
+     * Creates a histogram whose percentiles are accurate to within about 3%.
+     *
+     * @return {@link Histogram}
+     */
+    public static Histogram createHistogram() {
+        return new Histogram(DEFAULT_PRECISION_BITS);
+    }
+
+    /**
+     * Creates a histogram whose percentiles are accurate to within 1 / 2^precisionBits. Every extra bit doubles the
+     * memory of the histogram.
+     *
+     * @param precisionBits the number of bits of precision, between 1 and 10.
+     * @return {@link Histogram}
+     */
+    public static Histogram createHistogram(final int precisionBits) {
+        verifyPrecision(precisionBits);
+        return new Histogram(precisionBits);
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value the value, negative values are recorded as 0.
+     */
+    public void record(final long value) {
+        stripe().incrementAndGet(indexOf(Math.max(0, value), precisionBits));
+    }
+
+    /**
+     * Records a value the provided number of times.
+     *
+     * @param value the value, negative values are recorded as 0.
+     * @param count the number of times to record it.
+     */
+    public void record(final long value, final long count) {
+        stripe().addAndGet(indexOf(Math.max(0, value), precisionBits), count);
+    }
+
+    /**
+     * Adds the counts of the provided snapshot to this histogram.
+     *
+     * @param snapshot the {@link Snapshot} to add.
+     * @throws IllegalArgumentException if the snapshot doesn't have the precision of this histogram.
+     */
+    public void merge(final Snapshot snapshot) {
+        if (snapshot.precisionBits != precisionBits) {
+            throw new IllegalArgumentException(BAD_SNAPSHOT);
+        }
+
+        final AtomicLongArray stripe = stripe();
+        for (int i = 0; i < snapshot.counts.length; i++) {
+            if (snapshot.counts[i] != 0) {
+                stripe.addAndGet(i, snapshot.counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads the counts of the histogram. Values recorded while reading may or may not be included.
+     *
+     * @return the {@link Snapshot}.
+     */
+    public Snapshot snapshot() {
+        final long[] counts = new long[bucketCount(precisionBits)];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += stripe.get(i);
+            }
+        }
+
+        return new Snapshot(precisionBits, counts);
+    }
+
+    /**
+     * Takes the counts out of the histogram, leaving it empty. Every recorded value ends up in exactly one snapshot,
+     * also when recorded while taking it.
+     *
+     * @return the {@link Snapshot} of the values recorded since the previous reset.
+     */
+    public Snapshot snapshotAndReset() {
+        final long[] counts = new long[bucketCount(precisionBits)];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < counts.length; i++) {
+                if (stripe.get(i) != 0) {
+                    counts[i] += stripe.getAndSet(i, 0);
+                }
+            }
+        }
+
+        return new Snapshot(precisionBits, counts);
+    }
+
+    private AtomicLongArray stripe() {
+        return stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+    }
+
+    private static int stripes(final int processors) {
+        int stripes = 1;
+        while (stripes < Math.min(processors, MAX_STRIPES)) {
+            stripes <<= 1;
+        }
+
+        return stripes;
+    }
+
+    private static void verifyPrecision(final int precisionBits) {
+        if (precisionBits < 1 || precisionBits > MAX_PRECISION_BITS) {
+            throw new IllegalArgumentException(BAD_PRECISION);
+        }
+    }
+
+    private static int bucketCount(final int precisionBits) {
+        return (Long.SIZE - precisionBits) << precisionBits;
+    }
+
+    private static int indexOf(final long value, final int precisionBits) {
+        final int subBuckets = 1 << precisionBits;
+        if (value < subBuckets) {
+            return (int) value;
+        }
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - precisionBits)) & (subBuckets - 1);
+        return ((exponent - precisionBits + 1) << precisionBits) + subBucket;
+    }
+
+    private static long lowerBound(final int index, final int precisionBits) {
+        final int subBuckets = 1 << precisionBits;
+        if (index < subBuckets) {
+            return index;
+        }
+
+        final int exponent = (index >>> precisionBits) + precisionBits - 1;
+        final long subBucket = index & (subBuckets - 1);
+        return (subBuckets + subBucket) << (exponent - precisionBits);
+    }
+
+    private static long upperBound(final int index, final int precisionBits) {
+        return index + 1 < bucketCount(precisionBits) ? lowerBound(index + 1, precisionBits) - 1 : Long.MAX_VALUE;
+    }
+
+    /**
+     * The counts of a histogram at a single point in time, or of a single interval.
+     */
+    public static final class Snapshot {
+
+        private final int precisionBits;
+        private final long[] counts;
+        private final long count;
+
+        private Snapshot(final int precisionBits, final long[] counts) {
+            this.precisionBits = precisionBits;
+            this.counts = counts;
+
+            long sum = 0;
+            for (long bucket : counts) {
+                sum += bucket;
+            }
+            this.count = sum;
+        }
+
+        /**
+         * Gets the number of recorded values.
+         *
+         * @return the number of values.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Gets the value that the provided percentage of the recorded values are at or below.
+         *
+         * @param percentile the percentile, between 0 and 100.
+         * @return the upper bound of the bucket holding the percentile, 0 if nothing has been recorded.
+         */
+        public long getValueAtPercentile(final double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+
+            final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBound(i, precisionBits);
+                }
+            }
+
+            return getMax();
+        }
+
+        /**
+         * Gets the smallest recorded value.
+         *
+         * @return the lower bound of the lowest bucket with values, 0 if nothing has been recorded.
+         */
+        public long getMin() {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    return lowerBound(i, precisionBits);
+                }
+            }
+
+            return 0;
+        }
+
+        /**
+         * Gets the largest recorded value.
+         *
+         * @return the upper bound of the highest bucket with values, 0 if nothing has been recorded.
+         */
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] != 0) {
+                    return upperBound(i, precisionBits);
+                }
+            }
+
+            return 0;
+        }
+
+        /**
+         * Gets the mean of the recorded values, taking the middle of every bucket.
+         *
+         * @return the mean, 0 if nothing has been recorded.
+         */
+        public double getMean() {
+            if (count == 0) {
+                return 0;
+            }
+
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    final double lower = lowerBound(i, precisionBits);
+                    sum += counts[i] * (lower + (upperBound(i, precisionBits) - lower) / 2);
+                }
+            }
+
+            return sum / count;
+        }
+
+        /**
+         * Creates a snapshot holding the values of both this and the provided snapshot.
+         *
+         * @param other the {@link Snapshot} to merge with.
+         * @return the merged {@link Snapshot}.
+         * @throws IllegalArgumentException if the snapshots don't have the same precision.
+         */
+        public Snapshot merge(final Snapshot other) {
+            if (other.precisionBits != precisionBits) {
+                throw new IllegalArgumentException(BAD_SNAPSHOT);
+            }
+
+            final long[] merged = Arrays.copyOf(counts, counts.length);
+            for (int i = 0; i < merged.length; i++) {
+                merged[i] += other.counts[i];
+            }
+
+            return new Snapshot(precisionBits, merged);
+        }
+
+        /**
+         * Serializes the snapshot. Only buckets holding values are written, as varint encoded pairs of the distance
+         * to the previous bucket and the count, after a version and the precision.
+         *
+         * @return the serialized snapshot.
+         */
+        public byte[] toByteArray() {
+            int buckets = 0;
+            for (long bucket : counts) {
+                if (bucket != 0) {
+                    buckets++;
+                }
+            }
+
+            final VarintWriter writer = new VarintWriter(2 + 5 + buckets * 6);
+            writer.writeByte(FORMAT_VERSION);
+            writer.writeByte((byte) precisionBits);
+            writer.writeVarint(buckets);
+
+            int previous = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    writer.writeVarint(i - previous);
+                    writer.writeVarint(counts[i]);
+                    previous = i;
+                }
+            }
+
+            return writer.toByteArray();
+        }
+
+        /**
+         * Deserializes a snapshot written by {@link #toByteArray()}.
+         *
+         * @param bytes the serialized snapshot.
+         * @return the {@link Snapshot}.
+         * @throws IllegalArgumentException if the bytes are not a serialized snapshot.
+         */
+        public static Snapshot fromByteArray(final byte[] bytes) {
+            SanityChecker.verifyNoObjectIsNull(BAD_BYTES, bytes);
+            final VarintReader reader = new VarintReader(bytes);
+            if (reader.readByte() != FORMAT_VERSION) {
+                throw new IllegalArgumentException(BAD_BYTES);
+            }
+
+            final int precisionBits = reader.readByte();
+            if (precisionBits < 1 || precisionBits > MAX_PRECISION_BITS) {
+                throw new IllegalArgumentException(BAD_BYTES);
+            }
+
+            final long[] counts = new long[bucketCount(precisionBits)];
+            final long buckets = reader.readVarint();
+            long index = 0;
+            for (long i = 0; i < buckets; i++) {
+                final long gap = reader.readVarint();
+                final long bucket = reader.readVarint();
+                if (gap < 0 || gap == 0 && i > 0 || gap >= counts.length - index || bucket <= 0) {
+                    throw new IllegalArgumentException(BAD_BYTES);
+                }
+                index += gap;
+                counts[(int) index] = bucket;
+            }
+
+            if (reader.hasRemaining()) {
+                throw new IllegalArgumentException(BAD_BYTES);
+            }
+            return new Snapshot(precisionBits, counts);
+        }
+    }
+
+    /**
+     * Writes unsigned LEB128 varints into a growing byte array.
+     */
+    private static final class VarintWriter {
+
+        private byte[] bytes;
+        private int position;
+
+        VarintWriter(final int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        void writeByte(final byte value) {
+            if (position == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[position++] = value;
+        }
+
+        void writeVarint(final long value) {
+            long remaining = value;
+            while ((remaining & ~0x7FL) != 0) {
+                writeByte((byte) ((remaining & 0x7F) | 0x80));
+                remaining >>>= 7;
+            }
+            writeByte((byte) remaining);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, position);
+        }
+    }
+
+    /**
+     * Reads unsigned LEB128 varints from a byte array.
+     */
+    private static final class VarintReader {
+
+        private final byte[] bytes;
+        private int position;
+
+        VarintReader(final byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        byte readByte() {
+            if (position == bytes.length) {
+                throw new IllegalArgumentException(BAD_BYTES);
+            }
+            return bytes[position++];
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += 7) {
+                final byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+
+            throw new IllegalArgumentException(BAD_BYTES);
+        }
+
+        boolean hasRemaining() {
+            return position < bytes.length;
+        }
+    }
+}
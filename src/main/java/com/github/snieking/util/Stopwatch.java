@@ -16,47 +16,159 @@
 
 package com.github.snieking.util;
 
-import java.time.Instant;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Utility class for making it easier to track how long stuff takes.
  *
+ * Measures with {@link System#nanoTime()}, so times are monotonic and unaffected by changes to the wall clock.
+ * The state is a few primitive longs, so starting, stopping, lapping and reading the stopwatch allocates nothing,
+ * and a stopwatch can be reused with {@link #restart()}. A stopwatch is meant to be used by a single thread, while
+ * the times of many stopwatches can be aggregated by recording them into a shared {@link Histogram}.
+ *
  * @author Viktor Plane
  */
 public class Stopwatch {
-    private final Instant start;
-    private Instant stop;
+    private long startNanos;
+    private long lapNanos;
+    private long stopNanos;
+    private boolean running;
+
+    private Stopwatch() {
+    }
 
-    private Stopwatch(final Instant start) {
-        this.start = start;
+    /**
+     * Starts the stopwatch over, discarding the time measured so far.
+     *
+     * @return the {@link Stopwatch} instance.
+     */
+    public Stopwatch restart() {
+        startNanos = System.nanoTime();
+        lapNanos = startNanos;
+        running = true;
+        return this;
+    }
+
+    /**
+     * Stops the stopwatch and discards the time measured so far. It reads zero until it's restarted.
+     *
+     * @return the {@link Stopwatch} instance.
+     */
+    public Stopwatch reset() {
+        startNanos = 0;
+        lapNanos = 0;
+        stopNanos = 0;
+        running = false;
+        return this;
     }
 
     /**
-     * Stops the stopwatch.
+     * Stops the stopwatch. The time it reads stays the same until it's restarted. Stopping a stopwatch that isn't
+     * running does nothing.
      *
      * @return the {@link Stopwatch} instance.
      */
     public Stopwatch stop() {
-        stop = Instant.now();
+        if (running) {
+            stopNanos = System.nanoTime();
+            running = false;
+        }
+        return this;
+    }
+
+    /**
+     * Checks if the stopwatch is running.
+     *
+     * @return true if the stopwatch has been started and not stopped.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Ends the current lap and starts the next one. The first lap starts along with the stopwatch.
+     *
+     * @return the time of the lap that ended in nanoseconds, up until the stop if the stopwatch is stopped.
+     */
+    public long lap() {
+        final long now = now();
+        final long lap = now - lapNanos;
+        lapNanos = now;
+        return lap;
+    }
+
+    /**
+     * Ends the current lap, records its time into the provided histogram, and starts the next one.
+     *
+     * @param histogram the {@link Histogram} to record the time of the lap into, in nanoseconds.
+     * @return the time of the lap that ended in nanoseconds.
+     */
+    public long lap(final Histogram histogram) {
+        final long lap = lap();
+        histogram.record(lap);
+        return lap;
+    }
+
+    /**
+     * Stops the stopwatch and records the time since the start into the provided histogram.
+     *
+     * @param histogram the {@link Histogram} to record the elapsed time into, in nanoseconds.
+     * @return the {@link Stopwatch} instance.
+     */
+    public Stopwatch stop(final Histogram histogram) {
+        stop();
+        histogram.record(elapsedNanos());
         return this;
     }
 
+    /**
+     * Gets the time of the current lap, without ending it.
+     *
+     * @return the time since the last lap, or the start, in nanoseconds.
+     */
+    public long split() {
+        return now() - lapNanos;
+    }
+
+    /**
+     * Gets the time that passed since the start, up until the stop if the stopwatch is stopped.
+     *
+     * @return time in nanoseconds.
+     */
+    public long elapsedNanos() {
+        return now() - startNanos;
+    }
+
+    /**
+     * Gets the time that passed since the start, up until the stop if the stopwatch is stopped.
+     *
+     * @param unit the {@link TimeUnit} of the result.
+     * @return time in the provided unit, truncated.
+     */
+    public long elapsed(final TimeUnit unit) {
+        return unit.convert(elapsedNanos(), TimeUnit.NANOSECONDS);
+    }
+
     /**
      * Gets the time that passed during the start and stop of the stopwatch.
      *
-     * @return time in seconds.
+     * @return time in seconds, truncated.
      */
     public long getTimeInSeconds() {
-        return stop.getEpochSecond() - start.getEpochSecond();
+        return elapsed(TimeUnit.SECONDS);
     }
 
     /**
      * Gets the time that passed during the start and stop of the stopwatch.
      *
-     * @return time in milliseconds.
+     * @return time in milliseconds, truncated.
      */
     public long getTimeInMilliSeconds() {
-        return stop.toEpochMilli() - start.toEpochMilli();
+        return elapsed(TimeUnit.MILLISECONDS);
+    }
+
+    private long now() {
+        return running ? System.nanoTime() : stopNanos;
     }
 
     /**
@@ -65,6 +177,15 @@ public class Stopwatch {
      * @return the {@link Stopwatch} instance.
      */
     public static Stopwatch start() {
-        return new Stopwatch(Instant.now());
+        return new Stopwatch().restart();
+    }
+
+    /**
+     * Creates a new stopwatch that isn't running, to be started with {@link #restart()}.
+     *
+     * @return the {@link Stopwatch} instance.
+     */
+    public static Stopwatch createUnstarted() {
+        return new Stopwatch();
     }
 }
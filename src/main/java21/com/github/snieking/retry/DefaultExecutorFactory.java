@@ -0,0 +1,42 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executor that is shared by all strategies that haven't been configured with one.
+ *
+ * This is the Java 21 version of the class, which runs the default executor on virtual threads.
+ *
+ * @author Viktor Plane
+ */
+final class DefaultExecutorFactory {
+
+    private DefaultExecutorFactory() {
+    }
+
+    /**
+     * Creates an executor that runs every attempt on a new virtual thread.
+     *
+     * @return the default {@link Executor}.
+     */
+    static Executor create() {
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+}
@@ -16,39 +16,358 @@
 
 package com.github.snieking.retry;
 
+import com.github.snieking.time.HashedWheelScheduler;
+import com.github.snieking.time.TimeManager;
+import com.github.snieking.time.VirtualScheduler;
 import com.github.snieking.util.Stopwatch;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.github.snieking.retry.BasicRetryStrategy.createRetryStrategy;
 
 public class BasicRetryStrategyTest extends BaseRetryStrategyTest {
 
+    @Test
+    public void testCountIsMaxAttempts() {
+        final AtomicInteger attempts = new AtomicInteger();
+        try {
+            createRetryStrategy(Duration.ZERO, 10).perform(() -> {
+                attempts.incrementAndGet();
+                throw new IllegalStateException();
+            });
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(10, attempts.get());
+        }
+    }
+
     @Test
     public void testBasicRetryStrategy() {
-        final Stopwatch timer = Stopwatch.start();
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
         try {
             createRetryStrategy(Duration.ofSeconds(1), 5)
+                    .scheduler(scheduler)
                     .perform(() -> {
                         throw new IllegalStateException();
                     });
-        } catch (Exception e) {
-            final long time = timer.stop().getTimeInSeconds();
-            Assert.assertTrue(time >= 5);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(TimeUnit.SECONDS.toNanos(4), scheduler.nanoTime());
         }
     }
 
     @Test
     public void testBasicRetryGet() {
-        final Stopwatch timer = Stopwatch.start();
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        final Optional<String> result = createRetryStrategy(Duration.ofSeconds(1), 5)
+                .scheduler(scheduler)
+                .performAndGet(this::getMessageButThrowsException);
+
+        Assert.assertFalse(result.isPresent());
+        Assert.assertEquals(TimeUnit.SECONDS.toNanos(4), scheduler.nanoTime());
+    }
+
+    @Test
+    public void testSubclassOfNonRetryableExceptionIsNotRetried() {
+        final AtomicInteger attempts = new AtomicInteger();
+        try {
+            createRetryStrategy(Duration.ofMillis(10), 5)
+                    .nonRetryExceptions(IllegalArgumentException.class)
+                    .perform(() -> {
+                        attempts.incrementAndGet();
+                        throw new NumberFormatException();
+                    });
+            Assert.fail("Expected the exception to be thrown");
+        } catch (NumberFormatException e) {
+            Assert.assertEquals(1, attempts.get());
+        }
+    }
+
+    @Test
+    public void testNonRetryableCauseIsNotRetried() {
+        final AtomicInteger attempts = new AtomicInteger();
+        try {
+            createRetryStrategy(Duration.ofMillis(10), 5)
+                    .nonRetryExceptions(IllegalArgumentException.class)
+                    .perform(() -> {
+                        attempts.incrementAndGet();
+                        throw new IllegalStateException(new IllegalArgumentException());
+                    });
+            Assert.fail("Expected the exception to be thrown");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(1, attempts.get());
+        }
+    }
+
+    @Test
+    public void testAsyncRetriesDoNotHoldExecutorThread() {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final RetryStrategy retryStrategy = createRetryStrategy(Duration.ofMillis(200), 3);
+            final List<CompletableFuture<Optional<String>>> futures = new ArrayList<>();
+
+            final Stopwatch timer = Stopwatch.start();
+            for (int i = 0; i < 5; i++) {
+                futures.add(retryStrategy.performAndGetAsync(this::getMessageButThrowsException, executor));
+            }
+
+            for (CompletableFuture<Optional<String>> future : futures) {
+                try {
+                    future.join();
+                    Assert.fail("Expected the retries to be exhausted");
+                } catch (CompletionException e) {
+                    Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+                    Assert.assertEquals(2, e.getCause().getSuppressed().length);
+                }
+            }
+
+            // Holding the single thread during the waits would take 5 * 400 milliseconds.
+            Assert.assertTrue(timer.stop().getTimeInMilliSeconds() < 1500);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testTimeBudgetShortensWaitThatWouldOverrunIt() {
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        final AtomicInteger attempts = new AtomicInteger();
         try {
             createRetryStrategy(Duration.ofSeconds(1), 5)
-                    .performAndGet(this::getMessageButThrowsException);
-        } catch (Exception e) {
-            final long time = timer.stop().getTimeInSeconds();
-            Assert.assertTrue(time >= 5);
+                    .scheduler(scheduler)
+                    .timeBudget(Duration.ofMillis(800))
+                    .perform(() -> {
+                        attempts.incrementAndGet();
+                        throw new IllegalStateException();
+                    });
+            Assert.fail("Expected the exception to be thrown");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(2, attempts.get());
+            Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(720), scheduler.nanoTime());
+        }
+    }
+
+    @Test
+    public void testTimeBudgetLeavesMarginForLastAttempt() {
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        final AtomicInteger attempts = new AtomicInteger();
+        try {
+            createRetryStrategy(Duration.ofMillis(100), 10)
+                    .scheduler(scheduler)
+                    .timeBudget(Duration.ofMillis(350))
+                    .perform(() -> {
+                        attempts.incrementAndGet();
+                        throw new IllegalStateException();
+                    });
+            Assert.fail("Expected the exception to be thrown");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(5, attempts.get());
+            Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(315), scheduler.nanoTime());
+        }
+    }
+
+    @Test
+    public void testPerCallTimeBudget() {
+        final AtomicInteger attempts = new AtomicInteger();
+        final Stopwatch timer = Stopwatch.start();
+        try {
+            createRetryStrategy(Duration.ofMillis(100), 10)
+                    .perform(() -> {
+                        attempts.incrementAndGet();
+                        throw new IllegalStateException();
+                    }, Duration.ofMillis(350));
+            Assert.fail("Expected the exception to be thrown");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(attempts.get() >= 3 && attempts.get() <= 5);
+            Assert.assertEquals(attempts.get() - 1, e.getSuppressed().length);
+            Assert.assertTrue(timer.stop().getTimeInMilliSeconds() < 350);
+        }
+    }
+
+    @Test
+    public void testAsyncTimeBudget() {
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        final AtomicInteger attempts = new AtomicInteger();
+        final CompletableFuture<Optional<Object>> future = createRetryStrategy(Duration.ofSeconds(1), 5)
+                .scheduler(scheduler)
+                .executor(Runnable::run)
+                .timeBudget(Duration.ofMillis(500))
+                .performAndGetAsync(() -> {
+                    attempts.incrementAndGet();
+                    throw new IllegalStateException();
+                });
+        Assert.assertEquals(1, scheduler.getPendingTasks());
+        scheduler.advance(Duration.ofMillis(450));
+        try {
+            future.join();
+            Assert.fail("Expected the exception to be thrown");
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            Assert.assertEquals(2, attempts.get());
+        }
+    }
+
+    @Test
+    public void testBatchRetriesOnlyFailedKeys() {
+        final List<Integer> keys = Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        final List<Integer> attemptSizes = new ArrayList<>();
+
+        final Map<Integer, BatchResult<String>> results = createRetryStrategy(Duration.ofMillis(1), 4)
+                .performBatch(keys, batch -> {
+                    final boolean firstAttempt = attemptSizes.isEmpty();
+                    attemptSizes.add(batch.size());
+
+                    final Map<Integer, BatchResult<String>> outcome = new HashMap<>();
+                    for (Integer key : batch) {
+                        final boolean fails = key == 9 || firstAttempt && key % 2 == 1;
+                        outcome.put(key, fails
+                                ? BatchResult.failure(new IllegalStateException())
+                                : BatchResult.success("value-" + key));
+                    }
+                    return outcome;
+                });
+
+        Assert.assertEquals(Arrays.asList(10, 5, 1, 1), attemptSizes);
+        Assert.assertEquals(keys, new ArrayList<>(results.keySet()));
+        for (Integer key : keys) {
+            Assert.assertEquals(key != 9, results.get(key).isSuccess());
+        }
+        Assert.assertEquals(Optional.of("value-1"), results.get(1).getValue());
+        Assert.assertTrue(results.get(9).getFailure().get() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testBatchKeysFailingWithNonRetryableExceptionAreNotRetried() {
+        final List<List<String>> attempts = new ArrayList<>();
+
+        final Map<String, BatchResult<Void>> results = createRetryStrategy(Duration.ofMillis(1), 3)
+                .nonRetryExceptions(IllegalArgumentException.class)
+                .performBatch(Arrays.asList("invalid", "flaky"), batch -> {
+                    attempts.add(batch);
+                    final Map<String, BatchResult<Void>> outcome = new HashMap<>();
+                    outcome.put("invalid", BatchResult.failure(new IllegalArgumentException()));
+                    if (attempts.size() > 1) {
+                        outcome.put("flaky", BatchResult.success(null));
+                    }
+                    return outcome;
+                });
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList("invalid", "flaky"), Collections.singletonList("flaky")),
+                attempts);
+        Assert.assertFalse(results.get("invalid").isSuccess());
+        Assert.assertTrue(results.get("flaky").isSuccess());
+    }
+
+    @Test
+    public void testBatchOperationThatThrowsFailsEveryKey() {
+        final AtomicInteger attempts = new AtomicInteger();
+
+        final Map<String, BatchResult<String>> results = createRetryStrategy(Duration.ofMillis(1), 3)
+                .performBatch(Arrays.asList("a", "b"), batch -> {
+                    attempts.incrementAndGet();
+                    throw new IllegalStateException();
+                });
+
+        Assert.assertEquals(3, attempts.get());
+        Assert.assertTrue(results.get("a").getFailure().get() instanceof IllegalStateException);
+        Assert.assertTrue(results.get("b").getFailure().get() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testInterruptAbortsTheRetries() throws InterruptedException {
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch failed = new CountDownLatch(1);
+        final AtomicReference<Throwable> thrown = new AtomicReference<>();
+        final AtomicBoolean stillInterrupted = new AtomicBoolean();
+        final RetryMetrics metrics = RetryMetrics.createRetryMetrics();
+
+        final Thread caller = new Thread(() -> {
+            try {
+                createRetryStrategy(Duration.ofSeconds(10), 5).listener(metrics)
+                        .perform(() -> {
+                            attempts.incrementAndGet();
+                            failed.countDown();
+                            throw new IllegalStateException();
+                        });
+            } catch (RuntimeException e) {
+                thrown.set(e);
+                stillInterrupted.set(Thread.currentThread().isInterrupted());
+            }
+        });
+        caller.start();
+        failed.await();
+        caller.interrupt();
+        caller.join(1000);
+
+        Assert.assertFalse(caller.isAlive());
+        Assert.assertTrue(thrown.get() instanceof CancellationException);
+        Assert.assertTrue(thrown.get().getCause() instanceof IllegalStateException);
+        Assert.assertTrue(stillInterrupted.get());
+        Assert.assertEquals(1, attempts.get());
+        Assert.assertEquals(1, metrics.snapshot().getCalls(RetryListener.Outcome.INTERRUPTED));
+    }
+
+    @Test
+    public void testInterruptedBatchReturnsTheOutcomesSoFar() {
+        final AtomicInteger attempts = new AtomicInteger();
+
+        Thread.currentThread().interrupt();
+        final Map<String, BatchResult<String>> results;
+        try {
+            results = createRetryStrategy(Duration.ofSeconds(10), 5)
+                    .performBatch(Collections.singletonList("a"), batch -> {
+                        attempts.incrementAndGet();
+                        throw new IllegalStateException();
+                    });
+        } finally {
+            Assert.assertTrue(Thread.interrupted());
+        }
+
+        Assert.assertEquals(1, attempts.get());
+        Assert.assertFalse(results.get("a").isSuccess());
+    }
+
+    @Test
+    public void testAsyncRetriesAndTimeoutsOnATimingWheel() {
+        final AtomicInteger attempts = new AtomicInteger();
+        try (HashedWheelScheduler scheduler = HashedWheelScheduler.createHashedWheelScheduler()) {
+            final Optional<String> result = createRetryStrategy(Duration.ofMillis(5), 3)
+                    .scheduler(scheduler)
+                    .attemptTimeout(Duration.ofMillis(50))
+                    .performAndGetAsync(() -> {
+                        if (attempts.incrementAndGet() == 1) {
+                            TimeManager.sleep(10_000);
+                        }
+                        if (attempts.get() < 3) {
+                            throw new IllegalStateException();
+                        }
+                        return "Hello";
+                    })
+                    .join();
+
+            Assert.assertEquals(Optional.of("Hello"), result);
+            Assert.assertEquals(3, attempts.get());
+            TimeManager.sleep(20);
+            Assert.assertEquals(0, scheduler.getPendingTasks());
         }
     }
 
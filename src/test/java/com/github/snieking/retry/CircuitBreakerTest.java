@@ -0,0 +1,239 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.time.VirtualScheduler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.snieking.retry.CircuitBreaker.createCountBasedCircuitBreaker;
+import static com.github.snieking.retry.CircuitBreaker.createTimeBasedCircuitBreaker;
+
+public class CircuitBreakerTest {
+
+    private static final Duration COOL_DOWN = Duration.ofMillis(100);
+
+    private final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+    private final BasicRetryStrategy strategy = BasicRetryStrategy.createRetryStrategy(Duration.ZERO, 4)
+            .scheduler(scheduler);
+
+    @Test
+    public void testOpensAndRejectsWithoutAttempting() {
+        final CircuitBreaker circuitBreaker = createCountBasedCircuitBreaker(10, 0.5, Duration.ofMinutes(1));
+        final RetryStrategy retryStrategy = circuitBreaker.wrap(OneTimeRetryStrategy.createRetryStrategy(Duration.ZERO));
+        final AtomicInteger attempts = new AtomicInteger();
+
+        for (int i = 0; i < 5; i++) {
+            try {
+                retryStrategy.perform(() -> {
+                    attempts.incrementAndGet();
+                    throw new IllegalStateException();
+                });
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+        }
+
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        Assert.assertEquals(10, attempts.get());
+
+        try {
+            retryStrategy.perform(attempts::incrementAndGet);
+            Assert.fail("Expected the task to be rejected");
+        } catch (CircuitBreakerOpenException e) {
+            Assert.assertEquals(10, attempts.get());
+        }
+    }
+
+    @Test
+    public void testStaysClosedBelowThreshold() {
+        final CircuitBreaker circuitBreaker = createTimeBasedCircuitBreaker(Duration.ofMinutes(1), 0.5, COOL_DOWN);
+
+        for (int i = 0; i < 20; i++) {
+            circuitBreaker.recordSuccess();
+            if (i % 3 == 0) {
+                circuitBreaker.recordFailure();
+            }
+        }
+
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        Assert.assertEquals(7 / 27.0, circuitBreaker.getFailureRate(), 0.0001);
+    }
+
+    @Test
+    public void testTrialTaskClosesAfterCoolDown() {
+        final CircuitBreaker circuitBreaker = openedCircuitBreaker();
+        final RetryStrategy retryStrategy = circuitBreaker.wrap(strategy);
+
+        scheduler.advance(COOL_DOWN);
+        Assert.assertEquals(Optional.of("ok"), retryStrategy.performAndGet(() -> "ok"));
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        Assert.assertEquals(0, circuitBreaker.getFailureRate(), 0);
+    }
+
+    @Test
+    public void testFailedTrialTaskReopensWithoutRetrying() {
+        final CircuitBreaker circuitBreaker = openedCircuitBreaker();
+        final RetryStrategy retryStrategy = circuitBreaker.wrap(strategy);
+        final AtomicInteger attempts = new AtomicInteger();
+
+        scheduler.advance(COOL_DOWN);
+        try {
+            retryStrategy.perform(() -> {
+                attempts.incrementAndGet();
+                throw new IllegalStateException();
+            });
+            Assert.fail("Expected the trial task to fail");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(1, e.getSuppressed().length);
+            Assert.assertTrue(e.getSuppressed()[0] instanceof CircuitBreakerOpenException);
+        }
+
+        Assert.assertEquals(1, attempts.get());
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void testRejectedTrialTaskIsReleased() {
+        final CircuitBreaker circuitBreaker = openedCircuitBreaker();
+        final RetryStrategy rejecting = circuitBreaker.wrap(strategy.executor(task -> {
+            throw new RejectedExecutionException();
+        }));
+
+        scheduler.advance(COOL_DOWN);
+        try {
+            rejecting.performAndGetAsync(() -> "ok").join();
+            Assert.fail("Expected the trial task to be rejected by the executor");
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        Assert.assertEquals(Optional.of("ok"), circuitBreaker.wrap(strategy).performAndGet(() -> "ok"));
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void testCancelledTrialTaskIsReleased() {
+        final CircuitBreaker circuitBreaker = openedCircuitBreaker();
+        final RetryStrategy idle = circuitBreaker.wrap(strategy.executor(task -> {
+        }));
+
+        scheduler.advance(COOL_DOWN);
+        idle.performAndGetAsync(() -> "ok").cancel(false);
+        Assert.assertEquals(Optional.of("ok"), circuitBreaker.wrap(strategy).performAndGet(() -> "ok"));
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void testHungTrialTaskIsReplacedAfterCoolDown() {
+        final CircuitBreaker circuitBreaker = openedCircuitBreaker();
+        final RetryStrategy idle = circuitBreaker.wrap(strategy.executor(task -> {
+        }));
+        final RetryStrategy retryStrategy = circuitBreaker.wrap(strategy);
+
+        scheduler.advance(COOL_DOWN);
+        final CompletableFuture<Optional<String>> hung = idle.performAndGetAsync(() -> "ok");
+        try {
+            retryStrategy.performAndGet(() -> "ok");
+            Assert.fail("Expected the task to be rejected while the trial is in progress");
+        } catch (CircuitBreakerOpenException e) {
+            Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        }
+
+        scheduler.advance(COOL_DOWN);
+        Assert.assertEquals(Optional.of("ok"), retryStrategy.performAndGet(() -> "ok"));
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        Assert.assertFalse(hung.isDone());
+    }
+
+    @Test
+    public void testCallFromBeforeOpeningCantDecideTheTrial() {
+        final CircuitBreaker circuitBreaker = createCountBasedCircuitBreaker(4, 0.5, COOL_DOWN);
+        final BasicRetryStrategy delayed = BasicRetryStrategy.createRetryStrategy(COOL_DOWN.multipliedBy(2), 2);
+        final RetryStrategy slow = circuitBreaker.wrap(delayed.scheduler(scheduler).executor(Runnable::run));
+        final RetryStrategy idle = circuitBreaker.wrap(strategy.executor(task -> {
+        }));
+        final AtomicInteger attempts = new AtomicInteger();
+
+        final CompletableFuture<Optional<String>> late = slow.performAndGetAsync(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException();
+            }
+            return "late";
+        });
+        try {
+            circuitBreaker.wrap(strategy).perform(() -> {
+                throw new IllegalStateException();
+            });
+            Assert.fail("Expected the task to fail");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        }
+
+        scheduler.advance(COOL_DOWN);
+        idle.performAndGetAsync(() -> "ok");
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        scheduler.advance(COOL_DOWN);
+        Assert.assertTrue(late.isCompletedExceptionally());
+        Assert.assertEquals(1, attempts.get());
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void testAsyncRejection() throws InterruptedException {
+        final RetryStrategy retryStrategy = openedCircuitBreaker().wrap(strategy);
+
+        final CompletableFuture<Optional<String>> future = retryStrategy.performAndGetAsync(() -> "ok");
+        try {
+            future.get();
+            Assert.fail("Expected the task to be rejected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof CircuitBreakerOpenException);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidThreshold() {
+        createCountBasedCircuitBreaker(10, 1.5, COOL_DOWN);
+    }
+
+    /**
+     * Opens a breaker through the strategy, so that it's opened in the virtual time of the strategy.
+     */
+    private CircuitBreaker openedCircuitBreaker() {
+        final CircuitBreaker circuitBreaker = createCountBasedCircuitBreaker(4, 0.5, COOL_DOWN);
+        try {
+            circuitBreaker.wrap(strategy).perform(() -> {
+                throw new IllegalStateException();
+            });
+            Assert.fail("Expected the task to fail");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        }
+        return circuitBreaker;
+    }
+}
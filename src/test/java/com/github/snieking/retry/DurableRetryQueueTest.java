@@ -0,0 +1,411 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.time.TimeManager;
+import com.github.snieking.time.VirtualScheduler;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static com.github.snieking.retry.DurableRetryQueue.createDurableRetryQueue;
+
+public class DurableRetryQueueTest {
+
+    private static final DurableRetryQueue.Serializer<String> STRINGS = new DurableRetryQueue.Serializer<String>() {
+        @Override
+        public byte[] serialize(final String task) {
+            return task.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String deserialize(final byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTasksAreRetriedUntilTheySucceed() throws IOException {
+        final List<String> handled = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger attempts = new AtomicInteger();
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        final RetryStrategy strategy = BasicRetryStrategy.createRetryStrategy(Duration.ofSeconds(1), 3)
+                .executor(Runnable::run)
+                .scheduler(scheduler);
+
+        try (DurableRetryQueue<String> queue = createDurableRetryQueue(folder.newFolder().toPath(), strategy, STRINGS,
+                task -> {
+                    if (attempts.incrementAndGet() < 3) {
+                        throw new IllegalStateException();
+                    }
+                    handled.add(task);
+                })) {
+            queue.enqueue("webhook");
+            Assert.assertEquals(1, queue.getPendingTasks());
+
+            scheduler.runUntilIdle();
+            Assert.assertEquals(Collections.singletonList("webhook"), handled);
+            Assert.assertEquals(3, attempts.get());
+            Assert.assertEquals(0, queue.getPendingTasks());
+        }
+    }
+
+    @Test
+    public void testTaskIsGivenUpOnOnceRetriesAreExhausted() throws IOException {
+        final AtomicInteger attempts = new AtomicInteger();
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        final RetryStrategy strategy = BasicRetryStrategy.createRetryStrategy(Duration.ZERO, 3)
+                .executor(Runnable::run)
+                .scheduler(scheduler)
+                .nonRetryExceptions(IllegalArgumentException.class);
+
+        try (DurableRetryQueue<String> queue = createDurableRetryQueue(folder.newFolder().toPath(), strategy, STRINGS,
+                task -> {
+                    attempts.incrementAndGet();
+                    throw "invalid".equals(task) ? new IllegalArgumentException() : new IllegalStateException();
+                })) {
+            queue.enqueue("flaky");
+            scheduler.runUntilIdle();
+            Assert.assertEquals(3, attempts.get());
+
+            queue.enqueue("invalid");
+            scheduler.runUntilIdle();
+            Assert.assertEquals(4, attempts.get());
+            Assert.assertEquals(0, queue.getPendingTasks());
+        }
+    }
+
+    @Test
+    public void testPendingTasksAreReplayedWithTheirBackoff() throws IOException {
+        final Path directory = folder.newFolder().toPath();
+        final AtomicInteger attempts = new AtomicInteger();
+        final RetryStrategy failing = BasicRetryStrategy.createRetryStrategy(Duration.ofHours(1), 5)
+                .executor(Runnable::run)
+                .scheduler(VirtualScheduler.createVirtualScheduler());
+
+        try (DurableRetryQueue<String> queue = createDurableRetryQueue(directory, failing, STRINGS, task -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException();
+        })) {
+            queue.enqueue("first");
+            queue.enqueue("second");
+        }
+        Assert.assertEquals(2, attempts.get());
+
+        final List<String> handled = new ArrayList<>();
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        final RetryStrategy succeeding = BasicRetryStrategy.createRetryStrategy(Duration.ofHours(1), 5)
+                .executor(Runnable::run)
+                .scheduler(scheduler);
+        try (DurableRetryQueue<String> queue = createDurableRetryQueue(directory, succeeding, STRINGS,
+                handled::add)) {
+            Assert.assertEquals(2, queue.getPendingTasks());
+            Assert.assertTrue(handled.isEmpty());
+
+            scheduler.advance(Duration.ofMinutes(59));
+            Assert.assertTrue(handled.isEmpty());
+            scheduler.advance(Duration.ofMinutes(2));
+            Assert.assertEquals(Arrays.asList("first", "second"), handled);
+            Assert.assertEquals(0, queue.getPendingTasks());
+        }
+
+        try (DurableRetryQueue<String> queue = createDurableRetryQueue(directory, succeeding, STRINGS,
+                handled::add)) {
+            Assert.assertEquals(0, queue.getPendingTasks());
+        }
+    }
+
+    @Test
+    public void testCompactionDropsCompletedTasks() throws IOException {
+        final Path directory = folder.newFolder().toPath();
+        final RetryStrategy strategy = BasicRetryStrategy.createRetryStrategy(Duration.ofHours(1), 2)
+                .executor(Runnable::run)
+                .scheduler(VirtualScheduler.createVirtualScheduler());
+        final char[] large = new char[1000];
+        Arrays.fill(large, 'x');
+
+        try (DurableRetryQueue<String> queue = createDurableRetryQueue(directory, 64 << 10, Duration.ofMillis(1),
+                strategy, STRINGS, task -> {
+                    if (task.startsWith("pending")) {
+                        throw new IllegalStateException();
+                    }
+                })) {
+            queue.enqueue("pending");
+            for (int i = 0; i < 1000; i++) {
+                queue.enqueue(new String(large));
+            }
+
+            Assert.assertEquals(1, queue.getPendingTasks());
+            Assert.assertTrue(awaitSegments(directory, 2));
+        }
+
+        final List<String> handled = new ArrayList<>();
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        try (DurableRetryQueue<String> queue = createDurableRetryQueue(directory, 64 << 10, Duration.ofMillis(1),
+                BasicRetryStrategy.createRetryStrategy(Duration.ZERO, 1).executor(Runnable::run).scheduler(scheduler),
+                STRINGS, handled::add)) {
+            scheduler.runUntilIdle();
+            Assert.assertEquals(Collections.singletonList("pending"), handled);
+            Assert.assertEquals(1, countSegments(directory));
+        }
+    }
+
+    @Test
+    public void testRecordsThatFillSegmentsUnevenly() throws IOException {
+        final Path directory = folder.newFolder().toPath();
+        final RetryStrategy failing = BasicRetryStrategy.createRetryStrategy(Duration.ofHours(1), 2)
+                .executor(Runnable::run)
+                .scheduler(VirtualScheduler.createVirtualScheduler());
+        final char[] large = new char[20000];
+
+        try (DurableRetryQueue<String> queue = createDurableRetryQueue(directory, 64 << 10, Duration.ofMillis(1),
+                failing, STRINGS, task -> {
+                    throw new IllegalStateException();
+                })) {
+            for (int i = 0; i < 10; i++) {
+                Arrays.fill(large, (char) ('a' + i));
+                queue.enqueue(new String(large));
+            }
+            Assert.assertEquals(10, queue.getPendingTasks());
+        }
+
+        final List<String> handled = new ArrayList<>();
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        try (DurableRetryQueue<String> queue = createDurableRetryQueue(directory, 64 << 10, Duration.ofMillis(1),
+                BasicRetryStrategy.createRetryStrategy(Duration.ZERO, 1).executor(Runnable::run).scheduler(scheduler),
+                STRINGS, handled::add)) {
+            Assert.assertEquals(10, queue.getPendingTasks());
+            scheduler.advance(Duration.ofHours(2));
+            Assert.assertEquals(10, handled.size());
+            Assert.assertEquals(0, queue.getPendingTasks());
+        }
+    }
+
+    @Test
+    public void testTasksOfLargerSegmentsAreReplayed() throws IOException {
+        final Path directory = folder.newFolder().toPath();
+        final char[] large = new char[100_000];
+        Arrays.fill(large, 'x');
+
+        try (DurableRetryQueue<String> queue = createDurableRetryQueue(directory, 1 << 20, Duration.ofMillis(1),
+                BasicRetryStrategy.createRetryStrategy(Duration.ZERO, 1).executor(task -> { }), STRINGS,
+                task -> { })) {
+            queue.enqueue(new String(large));
+        }
+
+        final List<String> handled = new ArrayList<>();
+        try (DurableRetryQueue<String> queue = createDurableRetryQueue(directory, 64 << 10, Duration.ofMillis(1),
+                BasicRetryStrategy.createRetryStrategy(Duration.ZERO, 1).executor(Runnable::run), STRINGS,
+                handled::add)) {
+            Assert.assertEquals(Collections.singletonList(new String(large)), handled);
+            Assert.assertEquals(0, queue.getPendingTasks());
+        }
+    }
+
+    @Test
+    public void testTasksAreRetriedWithinTheTimeBudgetOfTheStrategy() throws IOException {
+        final AtomicInteger attempts = new AtomicInteger();
+        final RetryMetrics metrics = RetryMetrics.createRetryMetrics();
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        final RetryStrategy strategy = BasicRetryStrategy.createRetryStrategy(Duration.ofSeconds(1), 10)
+                .executor(Runnable::run)
+                .scheduler(scheduler)
+                .timeBudget(Duration.ofMillis(2500))
+                .listener(metrics);
+
+        try (DurableRetryQueue<String> queue = createDurableRetryQueue(folder.newFolder().toPath(), strategy, STRINGS,
+                task -> {
+                    attempts.incrementAndGet();
+                    throw new IllegalStateException();
+                })) {
+            queue.enqueue("webhook");
+            scheduler.runUntilIdle();
+
+            Assert.assertEquals(4, attempts.get());
+            Assert.assertEquals(0, queue.getPendingTasks());
+            Assert.assertEquals(1, metrics.snapshot().getCalls(RetryListener.Outcome.TIME_BUDGET_EXHAUSTED));
+        }
+    }
+
+    @Test
+    public void testTaskRejectedByTheExecutorStaysPending() throws IOException {
+        final AtomicInteger rejections = new AtomicInteger();
+        final List<String> handled = new ArrayList<>();
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        final RetryStrategy strategy = BasicRetryStrategy.createRetryStrategy(Duration.ZERO, 3)
+                .executor(task -> {
+                    if (rejections.incrementAndGet() <= 3) {
+                        throw new RejectedExecutionException();
+                    }
+                    task.run();
+                })
+                .scheduler(scheduler);
+
+        try (DurableRetryQueue<String> queue = createDurableRetryQueue(folder.newFolder().toPath(), strategy, STRINGS,
+                handled::add)) {
+            queue.enqueue("webhook");
+            Assert.assertEquals(1, queue.getPendingTasks());
+            Assert.assertTrue(handled.isEmpty());
+
+            scheduler.runUntilIdle();
+            Assert.assertEquals(Collections.singletonList("webhook"), handled);
+            Assert.assertEquals(0, queue.getPendingTasks());
+        }
+    }
+
+    @Test
+    public void testReplaySubmitsNoMoreThanTheExecutorAccepts() throws IOException {
+        final Path directory = folder.newFolder().toPath();
+        final RetryStrategy idle = BasicRetryStrategy.createRetryStrategy(Duration.ZERO, 1).executor(task -> { });
+        try (DurableRetryQueue<String> queue = createDurableRetryQueue(directory, idle, STRINGS, task -> { })) {
+            for (int i = 0; i < 20; i++) {
+                queue.enqueue("task-" + i);
+            }
+        }
+
+        final List<Runnable> accepted = new ArrayList<>();
+        final AtomicInteger submitted = new AtomicInteger();
+        final List<String> handled = new ArrayList<>();
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        final RetryStrategy bounded = BasicRetryStrategy.createRetryStrategy(Duration.ZERO, 1)
+                .executor(task -> {
+                    submitted.incrementAndGet();
+                    if (accepted.size() == 5) {
+                        throw new RejectedExecutionException();
+                    }
+                    accepted.add(task);
+                })
+                .scheduler(scheduler);
+
+        try (DurableRetryQueue<String> queue = createDurableRetryQueue(directory, bounded, STRINGS, handled::add)) {
+            Assert.assertEquals(5, accepted.size());
+            Assert.assertEquals(6, submitted.get());
+
+            for (int i = 0; i < 100 && handled.size() < 20; i++) {
+                final List<Runnable> running = new ArrayList<>(accepted);
+                accepted.clear();
+                running.forEach(Runnable::run);
+                scheduler.advance(Duration.ofSeconds(1));
+            }
+
+            Assert.assertEquals(20, handled.size());
+            Assert.assertEquals(20, new HashSet<>(handled).size());
+            Assert.assertEquals(0, queue.getPendingTasks());
+        }
+    }
+
+    @Test
+    public void testCompletedSegmentsBehindAPendingOneAreDeleted() throws IOException {
+        final Path directory = folder.newFolder().toPath();
+        final RetryStrategy strategy = BasicRetryStrategy.createRetryStrategy(Duration.ofHours(1), 2)
+                .executor(Runnable::run)
+                .scheduler(VirtualScheduler.createVirtualScheduler());
+        final char[] large = new char[1000];
+        Arrays.fill(large, 'x');
+
+        try (DurableRetryQueue<String> queue = createDurableRetryQueue(directory, 64 << 10, Duration.ofMillis(1),
+                strategy, STRINGS, task -> {
+                    if (task.startsWith("pending")) {
+                        throw new IllegalStateException();
+                    }
+                })) {
+            for (int i = 0; i < 40; i++) {
+                queue.enqueue("pending-" + i + new String(large));
+            }
+            for (int i = 0; i < 1000; i++) {
+                queue.enqueue(new String(large));
+            }
+
+            Assert.assertEquals(40, queue.getPendingTasks());
+            Assert.assertTrue(awaitSegments(directory, 2));
+        }
+
+        final List<String> handled = new ArrayList<>();
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        try (DurableRetryQueue<String> queue = createDurableRetryQueue(directory, 64 << 10, Duration.ofMillis(1),
+                BasicRetryStrategy.createRetryStrategy(Duration.ZERO, 1).executor(Runnable::run).scheduler(scheduler),
+                STRINGS, handled::add)) {
+            scheduler.advance(Duration.ofHours(2));
+            Assert.assertEquals(40, handled.size());
+            Assert.assertTrue(handled.stream().allMatch(task -> task.startsWith("pending")));
+            Assert.assertEquals(0, queue.getPendingTasks());
+        }
+    }
+
+    @Test
+    public void testReplayStopsAtACorruptRecord() throws IOException {
+        final Path directory = folder.newFolder().toPath();
+        final RetryStrategy idle = BasicRetryStrategy.createRetryStrategy(Duration.ZERO, 1).executor(task -> { });
+
+        try (DurableRetryQueue<String> queue = createDurableRetryQueue(directory, idle, STRINGS, task -> { })) {
+            queue.enqueue("one");
+            queue.enqueue("two");
+        }
+
+        try (RandomAccessFile segment = new RandomAccessFile(directory.resolve("retry-0.journal").toFile(), "rw")) {
+            segment.seek(45);
+            segment.write(0xFF);
+        }
+
+        try (DurableRetryQueue<String> queue = createDurableRetryQueue(directory, idle, STRINGS, task -> { })) {
+            Assert.assertEquals(1, queue.getPendingTasks());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testForeignStrategiesAreRejected() throws IOException {
+        createDurableRetryQueue(folder.newFolder().toPath(), CircuitBreaker.createCircuitBreaker()
+                .wrap(BasicRetryStrategy.createRetryStrategy(Duration.ZERO, 1)), STRINGS, task -> { });
+    }
+
+    private static boolean awaitSegments(final Path directory, final long max) throws IOException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (countSegments(directory) > max) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            TimeManager.sleep(1);
+        }
+        return true;
+    }
+
+    private static long countSegments(final Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
@@ -17,13 +17,18 @@
 package com.github.snieking.retry;
 
 import com.github.snieking.time.TimeManager;
+import com.github.snieking.time.VirtualScheduler;
 import com.github.snieking.util.Stopwatch;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static com.github.snieking.retry.ExponentialRetryStrategy.createRetryStrategy;
 
@@ -31,21 +36,40 @@ public class ExponentialRetryStrategyTest extends BaseRetryStrategyTest {
 
     @Test
     public void testDefaultExponentialRetryer() {
-        long base = 10;
-        int maxExponent = 3;
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        final List<Long> attemptTimes = new ArrayList<>();
 
-        final Stopwatch timer = Stopwatch.start();
         try {
-            createRetryStrategy(maxExponent, base)
+            createRetryStrategy(3, 10)
+                    .scheduler(scheduler)
                     .perform(() -> {
+                        attemptTimes.add(scheduler.nanoTime());
                         throw new IllegalStateException();
                     });
-        } catch (Exception e) {
-            final long time = timer.stop().getTimeInSeconds();
-            Assert.assertTrue(time >= getSecondsFromBaseAndExponent(base, maxExponent));
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(Arrays.asList(0L, millis(10), millis(110), millis(1110)), attemptTimes);
         }
     }
 
+    @Test
+    public void testAsyncBackoffInVirtualTime() {
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        final List<Long> attemptTimes = new ArrayList<>();
+
+        final CompletableFuture<Optional<String>> future = createRetryStrategy(5, 2)
+                .scheduler(scheduler)
+                .performAndGetAsync(() -> {
+                    attemptTimes.add(scheduler.nanoTime());
+                    return failForCertainAttemptsThenReturnHello(3);
+                }, Runnable::run);
+
+        Assert.assertFalse(future.isDone());
+        Assert.assertEquals(3, scheduler.runUntilIdle());
+        Assert.assertEquals(Optional.of("hello"), future.join());
+        Assert.assertEquals(Arrays.asList(0L, millis(2), millis(6), millis(14)), attemptTimes);
+    }
+
     @Test(expected = IllegalStateException.class)
     public void testNonRetryableExceptions() {
         final long base = 10;
@@ -127,6 +151,32 @@ public class ExponentialRetryStrategyTest extends BaseRetryStrategyTest {
         Assert.assertTrue(future.isDone());
     }
 
+    @Test
+    public void testBackoffSchedule() {
+        final long[] expected = {
+                TimeUnit.MILLISECONDS.toNanos(10),
+                TimeUnit.MILLISECONDS.toNanos(100),
+                TimeUnit.MILLISECONDS.toNanos(1000),
+                TimeUnit.MILLISECONDS.toNanos(10000)
+        };
+
+        Assert.assertArrayEquals(expected, createRetryStrategy(4, 10).getBackoffSchedule());
+    }
+
+    @Test
+    public void testBackoffScheduleIsCappedInsteadOfOverflowing() {
+        final ExponentialRetryStrategy retryStrategy = createRetryStrategy(100, 10);
+
+        Assert.assertEquals(100, retryStrategy.getMaxRetries());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), retryStrategy.getDelayNanos(2));
+        Assert.assertEquals(Long.MAX_VALUE, retryStrategy.getDelayNanos(20));
+        Assert.assertEquals(Long.MAX_VALUE, retryStrategy.getDelayNanos(99));
+    }
+
+    private static long millis(final long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
     private int getSecondsFromBaseAndExponent(final long base, final int maxExponent) {
         return (int) Math.pow(base, maxExponent) / 1000;
     }
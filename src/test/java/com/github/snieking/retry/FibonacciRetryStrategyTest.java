@@ -17,12 +17,15 @@
 package com.github.snieking.retry;
 
 import com.github.snieking.time.TimeManager;
+import com.github.snieking.time.VirtualScheduler;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.time.Duration;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class FibonacciRetryStrategyTest extends BaseRetryStrategyTest {
 
@@ -65,4 +68,43 @@ public class FibonacciRetryStrategyTest extends BaseRetryStrategyTest {
         TimeManager.waitUntilDurationPassed(Duration.ofMillis(1250));
         Assert.assertTrue(future.isDone());
     }
+
+    @Test
+    public void testBackoffSchedule() {
+        final long[] expected = {
+                TimeUnit.MILLISECONDS.toNanos(100),
+                TimeUnit.MILLISECONDS.toNanos(200),
+                TimeUnit.MILLISECONDS.toNanos(300),
+                TimeUnit.MILLISECONDS.toNanos(500),
+                TimeUnit.MILLISECONDS.toNanos(800)
+        };
+
+        Assert.assertArrayEquals(expected, FibonacciRetryStrategy.createRetryStrategy(6, 100).getBackoffSchedule());
+    }
+
+    @Test
+    public void testBackoffScheduleIsCappedInsteadOfOverflowing() {
+        final FibonacciRetryStrategy retryStrategy = FibonacciRetryStrategy.createRetryStrategy(1000, 100);
+
+        Assert.assertEquals(999, retryStrategy.getMaxRetries());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(Integer.MAX_VALUE), retryStrategy.getDelayNanos(998));
+    }
+
+    @Test
+    public void testMaxFibIsMaxAttempts() {
+        final AtomicInteger attempts = new AtomicInteger();
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        try {
+            FibonacciRetryStrategy.createRetryStrategy(4, 100)
+                    .scheduler(scheduler)
+                    .perform(() -> {
+                        attempts.incrementAndGet();
+                        throw new IllegalStateException();
+                    });
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(4, attempts.get());
+            Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(100 + 200 + 300), scheduler.nanoTime());
+        }
+    }
 }
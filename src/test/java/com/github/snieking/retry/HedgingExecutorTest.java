@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.time.TimeManager;
+import com.github.snieking.time.VirtualScheduler;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.snieking.retry.HedgingExecutor.createHedgingExecutor;
+
+public class HedgingExecutorTest {
+
+    private static final ThreadPoolExecutor EXECUTOR = RetryExecutors.newBoundedExecutor(4, 100);
+    private static final ThreadPoolExecutor VIRTUAL_TIME_EXECUTOR = RetryExecutors.newBoundedExecutor(4, 100);
+
+    @AfterClass
+    public static void shutdown() {
+        EXECUTOR.shutdownNow();
+        VIRTUAL_TIME_EXECUTOR.shutdownNow();
+    }
+
+    @Test
+    public void testHedgeWinsAndSlowAttemptIsCancelled() throws InterruptedException {
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch cancelled = new CountDownLatch(1);
+
+        final Optional<Integer> result = createHedgingExecutor(Duration.ofMillis(50), 1)
+                .executor(EXECUTOR)
+                .performAndGet(() -> {
+                    final int attempt = attempts.incrementAndGet();
+                    if (attempt == 1) {
+                        try {
+                            Thread.sleep(5000);
+                        } catch (InterruptedException e) {
+                            cancelled.countDown();
+                        }
+                    }
+                    return attempt;
+                });
+
+        Assert.assertEquals(Optional.of(2), result);
+        Assert.assertTrue(cancelled.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFastTaskIsNotHedged() {
+        final AtomicInteger attempts = new AtomicInteger();
+        final HedgingExecutor hedgingExecutor = createHedgingExecutor(Duration.ofMillis(100), 2).executor(EXECUTOR);
+
+        Assert.assertEquals(Optional.of("fast"), hedgingExecutor.performAndGet(() -> {
+            attempts.incrementAndGet();
+            return "fast";
+        }));
+
+        TimeManager.sleep(300);
+        Assert.assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void testHedgesAreCapped() {
+        final AtomicInteger attempts = new AtomicInteger();
+
+        createHedgingExecutor(Duration.ofMillis(20), 2)
+                .executor(EXECUTOR)
+                .performAndGet(() -> {
+                    attempts.incrementAndGet();
+                    TimeManager.sleep(300);
+                    return null;
+                });
+
+        Assert.assertEquals(3, attempts.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFailsWhenEveryAttemptFails() {
+        createHedgingExecutor(Duration.ofMillis(10), 2)
+                .executor(EXECUTOR)
+                .performAndGet(() -> {
+                    TimeManager.sleep(50);
+                    throw new IllegalStateException();
+                });
+    }
+
+    @Test
+    public void testPercentileDelayFollowsLatencies() {
+        final Duration initialDelay = Duration.ofSeconds(10);
+        final HedgingExecutor hedgingExecutor = createHedgingExecutor(95, initialDelay, 1).executor(EXECUTOR);
+
+        for (int i = 0; i < 100; i++) {
+            hedgingExecutor.performAndGet(() -> "fast");
+        }
+
+        Assert.assertTrue(hedgingExecutor.getHedgeDelayNanos() < initialDelay.toNanos());
+    }
+
+    @Test
+    public void testHedgesAreScheduledWithTheConfiguredScheduler() {
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        final AtomicInteger attempts = new AtomicInteger();
+
+        final CompletableFuture<Optional<Integer>> future = createHedgingExecutor(Duration.ofSeconds(1), 1)
+                .executor(VIRTUAL_TIME_EXECUTOR)
+                .scheduler(scheduler)
+                .performAndGetAsync(() -> {
+                    final int attempt = attempts.incrementAndGet();
+                    if (attempt == 1) {
+                        TimeManager.sleep(5000);
+                    }
+                    return attempt;
+                });
+
+        Assert.assertEquals(1, scheduler.getPendingTasks());
+        scheduler.advance(Duration.ofSeconds(1));
+        Assert.assertEquals(Optional.of(2), future.join());
+    }
+
+    @Test
+    public void testLatenciesAreMeasuredFromTheStartOfTheCall() {
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        final Duration slowAttempt = Duration.ofMillis(10);
+        final HedgingExecutor hedgingExecutor = createHedgingExecutor(95, slowAttempt, 1)
+                .executor(VIRTUAL_TIME_EXECUTOR)
+                .scheduler(scheduler);
+
+        for (int i = 0; i < 100; i++) {
+            final AtomicInteger attempts = new AtomicInteger();
+            final CompletableFuture<Optional<Integer>> future = hedgingExecutor.performAndGetAsync(() -> {
+                final int attempt = attempts.incrementAndGet();
+                if (attempt == 1) {
+                    TimeManager.sleep(5000);
+                }
+                return attempt;
+            });
+
+            scheduler.advance(slowAttempt);
+            Assert.assertEquals(Optional.of(2), future.join());
+        }
+
+        final long hedgeDelay = hedgingExecutor.getHedgeDelayNanos();
+        Assert.assertTrue(hedgeDelay > slowAttempt.toNanos() * 0.9 && hedgeDelay < slowAttempt.toNanos() * 1.1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        createHedgingExecutor(100, Duration.ofMillis(10), 1);
+    }
+}
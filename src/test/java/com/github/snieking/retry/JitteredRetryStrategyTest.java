@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.snieking.retry.JitteredRetryStrategy.Jitter;
+import static com.github.snieking.retry.JitteredRetryStrategy.createRetryStrategy;
+
+public class JitteredRetryStrategyTest {
+
+    private static final Duration BASE = Duration.ofMillis(100);
+    private static final Duration CAP = Duration.ofSeconds(1);
+    private static final long BASE_NANOS = BASE.toNanos();
+    private static final long CAP_NANOS = CAP.toNanos();
+    private static final int DRAWS = 10_000;
+
+    @Test
+    public void testCappedExponentialSchedule() {
+        final long[] schedule = createRetryStrategy(Jitter.FULL, BASE, CAP, 6).getBackoffSchedule();
+        final long[] expected = {100, 200, 400, 800, 1000, 1000};
+
+        Assert.assertEquals(expected.length, schedule.length);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(expected[i]), schedule[i]);
+        }
+    }
+
+    @Test
+    public void testFullJitter() {
+        final JitteredRetryStrategy retryStrategy = createRetryStrategy(Jitter.FULL, BASE, CAP, 4)
+                .random(new Random(1));
+
+        final long ceiling = retryStrategy.getDelayNanos(3);
+        long sum = 0;
+        for (int i = 0; i < DRAWS; i++) {
+            final long delay = retryStrategy.nextDelayNanos(3, 0);
+            Assert.assertTrue(delay >= 0 && delay < ceiling);
+            sum += delay;
+        }
+
+        Assert.assertEquals(ceiling / 2, sum / DRAWS, ceiling * 0.05);
+    }
+
+    @Test
+    public void testEqualJitter() {
+        final JitteredRetryStrategy retryStrategy = createRetryStrategy(Jitter.EQUAL, BASE, CAP, 4)
+                .random(new Random(2));
+
+        final long ceiling = retryStrategy.getDelayNanos(2);
+        long sum = 0;
+        for (int i = 0; i < DRAWS; i++) {
+            final long delay = retryStrategy.nextDelayNanos(2, 0);
+            Assert.assertTrue(delay >= ceiling / 2 && delay < ceiling);
+            sum += delay;
+        }
+
+        Assert.assertEquals(ceiling * 3 / 4, sum / DRAWS, ceiling * 0.05);
+    }
+
+    @Test
+    public void testDecorrelatedJitter() {
+        final JitteredRetryStrategy retryStrategy = createRetryStrategy(Jitter.DECORRELATED, BASE, CAP, 4)
+                .random(new Random(3));
+
+        long previous = 0;
+        for (int i = 0; i < DRAWS; i++) {
+            final long delay = retryStrategy.nextDelayNanos(i, previous);
+            final long upper = Math.min(CAP_NANOS, Math.max(BASE_NANOS, previous) * 3);
+            Assert.assertTrue(delay >= BASE_NANOS && delay <= upper);
+            previous = delay;
+        }
+    }
+
+    @Test
+    public void testSeededWaitsAreReproducible() {
+        final JitteredRetryStrategy first = createRetryStrategy(Jitter.DECORRELATED).random(new Random(42));
+        final JitteredRetryStrategy second = createRetryStrategy(Jitter.DECORRELATED).random(new Random(42));
+
+        long previous = 0;
+        for (int retry = 0; retry < 4; retry++) {
+            final long delay = first.nextDelayNanos(retry, previous);
+            Assert.assertEquals(delay, second.nextDelayNanos(retry, previous));
+            previous = delay;
+        }
+    }
+
+    @Test
+    public void testGivesUpAfterMaxRetries() {
+        final AtomicInteger attempts = new AtomicInteger();
+        try {
+            createRetryStrategy(Jitter.EQUAL, Duration.ofMillis(1), Duration.ofMillis(2), 3)
+                    .nonRetryExceptions(IllegalArgumentException.class)
+                    .perform(() -> {
+                        attempts.incrementAndGet();
+                        throw new IllegalStateException();
+                    });
+            Assert.fail("Expected the task to fail");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(4, attempts.get());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapShorterThanBase() {
+        createRetryStrategy(Jitter.FULL, CAP, BASE, 3);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.time.VirtualScheduler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static com.github.snieking.retry.LoadingCache.createLoadingCache;
+
+public class LoadingCacheTest {
+
+    private static final Duration REFRESH_AFTER = Duration.ofSeconds(10);
+    private static final Duration EXPIRE_AFTER = Duration.ofSeconds(60);
+
+    private final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+    private final RetryStrategy strategy = BasicRetryStrategy.createRetryStrategy(Duration.ofMillis(100), 3)
+            .executor(Runnable::run)
+            .scheduler(scheduler);
+
+    @Test
+    public void testValuesAreLoadedOnce() {
+        final AtomicInteger loads = new AtomicInteger();
+        final LoadingCache<String, Integer> cache = createCache(key -> loads.incrementAndGet());
+
+        Assert.assertEquals(Optional.of(1), cache.get("key"));
+        Assert.assertEquals(Optional.of(1), cache.get("key"));
+        Assert.assertEquals(Optional.of(1), cache.getIfPresent("key"));
+        Assert.assertEquals(Optional.empty(), cache.getIfPresent("other"));
+        Assert.assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testOldEntriesAreRefreshedAhead() {
+        final AtomicInteger loads = new AtomicInteger();
+        final LoadingCache<String, Integer> cache = createCache(key -> loads.incrementAndGet());
+        cache.get("key");
+
+        scheduler.advance(REFRESH_AFTER);
+        Assert.assertEquals(Optional.of(1), cache.get("key"));
+        Assert.assertEquals(Optional.of(2), cache.get("key"));
+        Assert.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testStaleEntriesAreServedWhileTheLoaderFails() {
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger value = new AtomicInteger(1);
+        final AtomicBoolean down = new AtomicBoolean();
+        final LoadingCache<String, Integer> cache = createCache(key -> {
+            if (down.get()) {
+                failures.incrementAndGet();
+                throw new IllegalStateException();
+            }
+            return value.get();
+        });
+        cache.get("key");
+        down.set(true);
+
+        scheduler.advance(REFRESH_AFTER);
+        Assert.assertEquals(Optional.of(1), cache.get("key"));
+        scheduler.runUntilIdle();
+        Assert.assertEquals(3, failures.get());
+
+        scheduler.advance(EXPIRE_AFTER);
+        Assert.assertEquals(Optional.of(1), cache.get("key"));
+        Assert.assertEquals(Optional.of(1), cache.getIfPresent("key"));
+        scheduler.runUntilIdle();
+        Assert.assertEquals(6, failures.get());
+
+        Assert.assertEquals(Optional.of(1), cache.get("key"));
+        Assert.assertEquals(6, failures.get());
+
+        down.set(false);
+        value.set(2);
+        scheduler.advance(REFRESH_AFTER);
+        cache.get("key");
+        Assert.assertEquals(Optional.of(2), cache.getIfPresent("key"));
+        Assert.assertEquals(6, failures.get());
+    }
+
+    @Test
+    public void testExpiredEntriesAreReloadedBeforeTheyAreServed() {
+        final AtomicInteger loads = new AtomicInteger();
+        final LoadingCache<String, Integer> cache = createCache(key -> loads.incrementAndGet());
+        cache.get("key");
+
+        scheduler.advance(EXPIRE_AFTER);
+        Assert.assertEquals(Optional.empty(), cache.getIfPresent("key"));
+        Assert.assertEquals(Optional.of(2), cache.get("key"));
+    }
+
+    @Test
+    public void testFailedLoadsOfMissingKeysThrow() {
+        final AtomicInteger loads = new AtomicInteger();
+        final LoadingCache<String, Integer> cache = createCache(key -> {
+            loads.incrementAndGet();
+            throw new IllegalStateException();
+        });
+
+        try {
+            cache.get("key");
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(3, loads.get());
+        }
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testNullValuesAreNotCached() {
+        final AtomicInteger loads = new AtomicInteger();
+        final LoadingCache<String, Integer> cache = createCache(key -> {
+            loads.incrementAndGet();
+            return null;
+        });
+
+        Assert.assertEquals(Optional.empty(), cache.get("key"));
+        Assert.assertEquals(Optional.empty(), cache.get("key"));
+        Assert.assertEquals(2, loads.get());
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyReadEntriesAreEvicted() {
+        final LoadingCache<Integer, Integer> cache = createLoadingCache(key -> key, strategy, 100, REFRESH_AFTER,
+                EXPIRE_AFTER);
+
+        for (int i = 0; i < 1_000; i++) {
+            scheduler.advanceNanos(1);
+            cache.get(0);
+            cache.get(i);
+            Assert.assertTrue(cache.size() <= 100);
+        }
+        Assert.assertEquals(Optional.of(0), cache.getIfPresent(0));
+        Assert.assertEquals(Optional.of(999), cache.getIfPresent(999));
+    }
+
+    @Test
+    public void testPutAndInvalidate() {
+        final LoadingCache<String, Integer> cache = createCache(key -> 1);
+
+        cache.put("key", 2);
+        Assert.assertEquals(Optional.of(2), cache.get("key"));
+        cache.invalidate("key");
+        Assert.assertEquals(Optional.of(1), cache.get("key"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRefreshIntervalLongerThanExpiryIsRejected() {
+        createLoadingCache(key -> key, strategy, 100, EXPIRE_AFTER, REFRESH_AFTER);
+    }
+
+    private LoadingCache<String, Integer> createCache(final Function<String, Integer> loader) {
+        return createLoadingCache(loader, strategy, 100, REFRESH_AFTER, EXPIRE_AFTER);
+    }
+}
@@ -20,10 +20,17 @@ import org.junit.Test;
 
 import java.time.Duration;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.github.snieking.retry.OneTimeRetryStrategy.createRetryStrategy;
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 public class OneTimeRetryStrategyTest {
 
@@ -59,6 +66,16 @@ public class OneTimeRetryStrategyTest {
         });
     }
 
+    @Test
+    public void testConfiguringLeavesOriginalUntouched() {
+        final OneTimeRetryStrategy original = createRetryStrategy();
+        final OneTimeRetryStrategy configured = original.nonRetryExceptions(IllegalStateException.class);
+
+        assertEquals(2, countAttemptsOfFailingTask(original));
+        assertEquals(1, countAttemptsOfFailingTask(configured));
+        assertEquals(2, countAttemptsOfFailingTask(createRetryStrategy()));
+    }
+
     @Test(expected = IllegalStateException.class)
     public void testPermanentException() {
         createRetryStrategy()
@@ -76,6 +93,164 @@ public class OneTimeRetryStrategyTest {
         assertEquals(getHelloMessage(), msg.get());
     }
 
+    @Test
+    public void testPerformAndGetIsEmptyOnceTheRetryFails() {
+        final AtomicInteger attempts = new AtomicInteger();
+        final Optional<String> msg = createRetryStrategy()
+                .performAndGet(() -> {
+                    attempts.incrementAndGet();
+                    throw new IllegalStateException();
+                });
+
+        assertFalse(msg.isPresent());
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testPerformAsyncOnConfiguredExecutor() throws Exception {
+        final ThreadPoolExecutor executor = RetryExecutors.newBoundedExecutor(1, 10);
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread[] threads = new Thread[2];
+
+        try {
+            createRetryStrategy(Duration.ofMillis(10))
+                    .executor(executor)
+                    .performAsync(() -> {
+                        threads[attempts.get()] = Thread.currentThread();
+                        if (attempts.incrementAndGet() == 1) {
+                            throw new IllegalStateException();
+                        }
+                        done.countDown();
+                    });
+
+            assertTrue(done.await(1, TimeUnit.SECONDS));
+            assertEquals(2, attempts.get());
+            assertTrue(threads[0].getName().startsWith("retry-executor-"));
+            assertEquals(threads[0], threads[1]);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testHungAttemptIsInterruptedAndRetried() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        final long start = System.nanoTime();
+        final Optional<String> result = createRetryStrategy(Duration.ZERO)
+                .attemptTimeout(Duration.ofMillis(100))
+                .performAndGet(() -> {
+                    if (attempts.incrementAndGet() == 1) {
+                        hang(interrupted);
+                    }
+                    return getHelloMessage();
+                });
+
+        assertEquals(Optional.of("Hello"), result);
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+    }
+
+    @Test
+    public void testAttemptTimeoutsExhaustRetries() {
+        final long start = System.nanoTime();
+        try {
+            createRetryStrategy(Duration.ZERO)
+                    .attemptTimeout(Duration.ofMillis(50))
+                    .perform(() -> hang(new CountDownLatch(1)));
+            throw new AssertionError("Expected the attempts to time out");
+        } catch (AttemptTimeoutException e) {
+            assertEquals(1, e.getSuppressed().length);
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        }
+    }
+
+    @Test
+    public void testHungAsyncAttemptIsInterruptedAndRetried() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        final Optional<String> result = createRetryStrategy(Duration.ZERO)
+                .attemptTimeout(Duration.ofMillis(100))
+                .performAndGetAsync(() -> {
+                    if (attempts.incrementAndGet() == 1) {
+                        hang(interrupted);
+                    }
+                    return getHelloMessage();
+                })
+                .get(1, TimeUnit.SECONDS);
+
+        assertEquals(Optional.of("Hello"), result);
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testLateAttemptDoesNotCancelTheTimeoutOfTheNextOne() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch firstReleased = new CountDownLatch(1);
+        final CountDownLatch secondStarted = new CountDownLatch(1);
+        final CountDownLatch secondReleased = new CountDownLatch(1);
+
+        final CompletableFuture<Optional<String>> future = createRetryStrategy(Duration.ZERO)
+                .attemptTimeout(Duration.ofMillis(200))
+                .performAndGetAsync(() -> {
+                    if (attempts.incrementAndGet() == 1) {
+                        awaitIgnoringInterrupts(firstReleased);
+                    } else {
+                        secondStarted.countDown();
+                        awaitIgnoringInterrupts(secondReleased);
+                    }
+                    return getHelloMessage();
+                });
+
+        try {
+            assertTrue(secondStarted.await(1, TimeUnit.SECONDS));
+            firstReleased.countDown();
+            future.get(1, TimeUnit.SECONDS);
+            throw new AssertionError("Expected the second attempt to time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AttemptTimeoutException);
+        } finally {
+            secondReleased.countDown();
+        }
+    }
+
+    private static void awaitIgnoringInterrupts(final CountDownLatch latch) {
+        boolean released = false;
+        while (!released) {
+            try {
+                released = latch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // The attempt ignores the interrupt of its timeout.
+            }
+        }
+    }
+
+    private static void hang(final CountDownLatch interrupted) {
+        try {
+            Thread.sleep(10_000);
+        } catch (InterruptedException e) {
+            interrupted.countDown();
+        }
+    }
+
+    private int countAttemptsOfFailingTask(final RetryStrategy retryStrategy) {
+        final AtomicInteger attempts = new AtomicInteger();
+        try {
+            retryStrategy.perform(() -> {
+                attempts.incrementAndGet();
+                throw new IllegalStateException();
+            });
+        } catch (IllegalStateException e) {
+            return attempts.get();
+        }
+
+        throw new AssertionError("Expected the task to fail");
+    }
+
     private String getHelloMessage() {
         return "Hello";
     }
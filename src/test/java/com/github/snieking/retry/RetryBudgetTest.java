@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import com.github.snieking.time.VirtualScheduler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.snieking.retry.RetryBudget.createRetryBudget;
+
+public class RetryBudgetTest {
+
+    @Test
+    public void testMinRetriesPerSecond() {
+        final RetryBudget budget = createRetryBudget(0, 2, Duration.ofSeconds(1));
+
+        Assert.assertTrue(budget.tryAcquireRetry());
+        Assert.assertTrue(budget.tryAcquireRetry());
+        Assert.assertFalse(budget.tryAcquireRetry());
+    }
+
+    @Test
+    public void testRatioOfSuccesses() {
+        final RetryBudget budget = createRetryBudget(0.5, 0, Duration.ofSeconds(10));
+        Assert.assertFalse(budget.tryAcquireRetry());
+
+        for (int i = 0; i < 4; i++) {
+            budget.recordSuccess();
+        }
+
+        Assert.assertEquals(2, budget.getAvailableRetries());
+        Assert.assertTrue(budget.tryAcquireRetry());
+        Assert.assertTrue(budget.tryAcquireRetry());
+        Assert.assertFalse(budget.tryAcquireRetry());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidWindow() {
+        createRetryBudget(0.2, 10, Duration.ZERO);
+    }
+
+    @Test
+    public void testStrategyGivesUpWhenBudgetIsExhausted() {
+        final RetryStrategy retryStrategy = BasicRetryStrategy
+                .createRetryStrategy(Duration.ofMillis(10), 5)
+                .retryBudget(createRetryBudget(0, 1, Duration.ofSeconds(1)));
+
+        Assert.assertEquals(2, countAttemptsOfFailingTask(retryStrategy));
+        Assert.assertEquals(1, countAttemptsOfFailingTask(retryStrategy));
+    }
+
+    @Test
+    public void testBudgetIsCountedInTheTimeOfTheStrategy() {
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        final RetryStrategy retryStrategy = BasicRetryStrategy
+                .createRetryStrategy(Duration.ofMillis(10), 5)
+                .scheduler(scheduler)
+                .retryBudget(createRetryBudget(0, 1, Duration.ofSeconds(1)));
+
+        Assert.assertEquals(2, countAttemptsOfFailingTask(retryStrategy));
+        Assert.assertEquals(1, countAttemptsOfFailingTask(retryStrategy));
+
+        scheduler.advance(Duration.ofSeconds(1));
+        Assert.assertEquals(2, countAttemptsOfFailingTask(retryStrategy));
+    }
+
+    private int countAttemptsOfFailingTask(final RetryStrategy retryStrategy) {
+        final AtomicInteger attempts = new AtomicInteger();
+        try {
+            retryStrategy.perform(() -> {
+                attempts.incrementAndGet();
+                throw new IllegalStateException();
+            });
+        } catch (IllegalStateException e) {
+            return attempts.get();
+        }
+
+        throw new AssertionError("Expected the task to fail");
+    }
+}
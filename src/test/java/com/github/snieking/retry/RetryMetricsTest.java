@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.github.snieking.retry.RetryListener.Outcome;
+import static com.github.snieking.retry.RetryMetrics.createRetryMetrics;
+
+public class RetryMetricsTest {
+
+    @Test
+    public void testRecordsAttemptsAndOutcomes() {
+        final RetryMetrics metrics = createRetryMetrics();
+        final BasicRetryStrategy retryStrategy = BasicRetryStrategy.createRetryStrategy(Duration.ofMillis(1), 3)
+                .listener(metrics);
+
+        retryStrategy.performAndGet(() -> "first attempt");
+        final AtomicInteger attempts = new AtomicInteger();
+        retryStrategy.performAndGet(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException();
+            }
+            return "second attempt";
+        });
+        fail(retryStrategy, IllegalStateException::new);
+        fail(retryStrategy.nonRetryExceptions(IllegalArgumentException.class), IllegalArgumentException::new);
+
+        final RetryMetrics.Snapshot snapshot = metrics.snapshot();
+        Assert.assertEquals(4, snapshot.getCalls());
+        Assert.assertEquals(2, snapshot.getCalls(Outcome.SUCCESS));
+        Assert.assertEquals(1, snapshot.getCalls(Outcome.RETRIES_EXHAUSTED));
+        Assert.assertEquals(1, snapshot.getCalls(Outcome.NON_RETRYABLE));
+        Assert.assertEquals(7, snapshot.getAttempts());
+        Assert.assertEquals(5, snapshot.getFailedAttempts());
+        Assert.assertEquals(3, snapshot.getRetries());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(3), snapshot.getRetryDelayNanos());
+        Assert.assertEquals(Long.valueOf(4), snapshot.getFailuresByType().get(IllegalStateException.class.getName()));
+        Assert.assertEquals(Long.valueOf(1), snapshot.getFailuresByType().get(IllegalArgumentException.class.getName()));
+        Assert.assertTrue(snapshot.getCallLatencyNanos(100) >= TimeUnit.MILLISECONDS.toNanos(2));
+        Assert.assertTrue(snapshot.getAttemptLatencyNanos(50) < snapshot.getCallLatencyNanos(100));
+    }
+
+    @Test
+    public void testRecordsAsyncCallsAndBudgetOutcomes() {
+        final RetryMetrics metrics = createRetryMetrics();
+        final RetryStrategy retryStrategy = OneTimeRetryStrategy.createRetryStrategy(Duration.ZERO)
+                .retryBudget(RetryBudget.createRetryBudget(0, 1, Duration.ofSeconds(1)))
+                .listener(metrics);
+
+        retryStrategy.performAndGetAsync(() -> "async").join();
+        fail(retryStrategy, IllegalStateException::new);
+        fail(retryStrategy, IllegalStateException::new);
+
+        final RetryMetrics.Snapshot snapshot = metrics.snapshot();
+        Assert.assertEquals(1, snapshot.getCalls(Outcome.SUCCESS));
+        Assert.assertEquals(1, snapshot.getCalls(Outcome.RETRIES_EXHAUSTED));
+        Assert.assertEquals(1, snapshot.getCalls(Outcome.RETRY_BUDGET_EXHAUSTED));
+        Assert.assertEquals(4, snapshot.getAttempts());
+    }
+
+    @Test
+    public void testFailingListenerDoesNotChangeTheOutcome() {
+        final AtomicInteger attempts = new AtomicInteger();
+        final RetryListener listener = new RetryListener() {
+            @Override
+            public void onAttemptFailed(final int retry, final RuntimeException exception, final long attemptNanos) {
+                throw new IllegalStateException("listener");
+            }
+
+            @Override
+            public void onRetryScheduled(final int retry, final long delayNanos) {
+                throw new IllegalStateException("listener");
+            }
+        };
+
+        final String result = BasicRetryStrategy.createRetryStrategy(Duration.ZERO, 2)
+                .listener(listener)
+                .performAndGet(() -> {
+                    if (attempts.incrementAndGet() == 1) {
+                        throw new IllegalArgumentException();
+                    }
+                    return "second attempt";
+                })
+                .orElse(null);
+
+        Assert.assertEquals("second attempt", result);
+        Assert.assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testEmptySnapshot() {
+        final RetryMetrics.Snapshot snapshot = createRetryMetrics().snapshot();
+
+        Assert.assertEquals(0, snapshot.getCalls());
+        Assert.assertEquals(0, snapshot.getCallLatencyNanos(99));
+        Assert.assertTrue(snapshot.getFailuresByType().isEmpty());
+    }
+
+    private static void fail(final RetryStrategy retryStrategy, final Supplier<RuntimeException> exception) {
+        try {
+            retryStrategy.perform(() -> {
+                throw exception.get();
+            });
+        } catch (RuntimeException e) {
+            return;
+        }
+
+        throw new AssertionError("Expected the task to fail");
+    }
+}
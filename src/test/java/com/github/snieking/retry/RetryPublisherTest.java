@@ -0,0 +1,249 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RetryPublisherTest {
+
+    private static final RetryStrategy RETRY_STRATEGY = BasicRetryStrategy.createRetryStrategy(Duration.ofMillis(1), 4);
+
+    @Test
+    public void testResubscribesAfterFailure() throws InterruptedException {
+        final AtomicInteger failingSubscriptions = new AtomicInteger(2);
+        final TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+
+        RetryPublisher.retry(new TestPublisher(1, 3, 2, failingSubscriptions), RETRY_STRATEGY).subscribe(subscriber);
+
+        Assert.assertTrue(subscriber.done.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList(1, 2, 1, 2, 1, 2, 3), subscriber.elements);
+        Assert.assertNull(subscriber.error);
+    }
+
+    @Test
+    public void testResumesFromLastDeliveredElement() throws InterruptedException {
+        final AtomicInteger failingSubscriptions = new AtomicInteger(2);
+        final TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+
+        RetryPublisher.<Integer>resume(last -> new TestPublisher(last.orElse(0) + 1, 5, 2, failingSubscriptions),
+                RETRY_STRATEGY).subscribe(subscriber);
+
+        Assert.assertTrue(subscriber.done.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5), subscriber.elements);
+    }
+
+    @Test
+    public void testOutstandingDemandCarriesOverToNewSubscription() throws InterruptedException {
+        final AtomicInteger failingSubscriptions = new AtomicInteger(1);
+        final TestSubscriber subscriber = new TestSubscriber(3);
+
+        RetryPublisher.<Integer>resume(last -> new TestPublisher(last.orElse(0) + 1, 4, 1, failingSubscriptions),
+                RETRY_STRATEGY).subscribe(subscriber);
+
+        Thread.sleep(200);
+        Assert.assertEquals(Arrays.asList(1, 2, 3), subscriber.elements);
+        Assert.assertEquals(1, subscriber.done.getCount());
+
+        subscriber.subscription.request(1);
+        Assert.assertTrue(subscriber.done.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList(1, 2, 3, 4), subscriber.elements);
+    }
+
+    @Test
+    public void testFailsOnceRetriesAreExhausted() throws InterruptedException {
+        final TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+
+        RetryPublisher.retry(new TestPublisher(1, 3, 0, new AtomicInteger(Integer.MAX_VALUE)), RETRY_STRATEGY)
+                .subscribe(subscriber);
+
+        Assert.assertTrue(subscriber.done.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(subscriber.elements.isEmpty());
+        Assert.assertTrue(subscriber.error instanceof IllegalStateException);
+        Assert.assertEquals(3, subscriber.error.getSuppressed().length);
+    }
+
+    @Test
+    public void testSourceFailingAfterEveryElementRunsOutOfRetries() throws InterruptedException {
+        final TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+
+        RetryPublisher.<Integer>resume(last -> new TestPublisher(last.orElse(0) + 1, 100, 1,
+                new AtomicInteger(Integer.MAX_VALUE)), RETRY_STRATEGY).subscribe(subscriber);
+
+        Assert.assertTrue(subscriber.done.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList(1, 2, 3, 4), subscriber.elements);
+        Assert.assertTrue(subscriber.error instanceof IllegalStateException);
+        Assert.assertEquals(3, subscriber.error.getSuppressed().length);
+    }
+
+    @Test
+    public void testInvalidRequestFailsTheSubscriber() throws InterruptedException {
+        final AtomicInteger subscriptions = new AtomicInteger();
+        final TestSubscriber subscriber = new TestSubscriber(0);
+
+        RetryPublisher.retry(new TestPublisher(1, 3, 0, subscriptions), RETRY_STRATEGY).subscribe(subscriber);
+
+        Assert.assertTrue(subscriber.done.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(subscriber.error instanceof IllegalArgumentException);
+        Assert.assertTrue(subscriber.elements.isEmpty());
+        Assert.assertEquals(0, subscriptions.get());
+    }
+
+    @Test
+    public void testSignalsOfSupersededSubscriptionAreIgnored() throws InterruptedException {
+        final List<Subscriber<? super Integer>> subscribers = new CopyOnWriteArrayList<>();
+        final TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+        final Publisher<Integer> source = sourceSubscriber -> {
+            subscribers.add(sourceSubscriber);
+            sourceSubscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(final long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            if (subscribers.size() == 1) {
+                sourceSubscriber.onError(new IllegalStateException());
+            }
+        };
+
+        RetryPublisher.retry(source, RETRY_STRATEGY).subscribe(subscriber);
+        while (subscribers.size() < 2) {
+            Thread.sleep(1);
+        }
+
+        Assert.assertNotSame(subscribers.get(0), subscribers.get(1));
+        subscribers.get(0).onNext(0);
+        subscribers.get(0).onComplete();
+        subscribers.get(1).onNext(1);
+        Assert.assertEquals(1, subscriber.done.getCount());
+
+        subscribers.get(1).onComplete();
+        Assert.assertTrue(subscriber.done.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList(1), subscriber.elements);
+        Assert.assertNull(subscriber.error);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeStableTime() {
+        RetryPublisher.retry(new TestPublisher(1, 3, 0, new AtomicInteger()), RETRY_STRATEGY)
+                .stableAfter(Duration.ofMillis(-1));
+    }
+
+    /**
+     * Synchronously emits the elements from the provided first element up to size, failing after the provided number
+     * of elements as long as there are failing subscriptions left.
+     */
+    private static final class TestPublisher implements Publisher<Integer> {
+
+        private final int from;
+        private final int size;
+        private final int failAfter;
+        private final AtomicInteger failingSubscriptions;
+
+        TestPublisher(final int from, final int size, final int failAfter, final AtomicInteger failingSubscriptions) {
+            this.from = from;
+            this.size = size;
+            this.failAfter = failAfter;
+            this.failingSubscriptions = failingSubscriptions;
+        }
+
+        @Override
+        public void subscribe(final Subscriber<? super Integer> subscriber) {
+            final boolean fails = failingSubscriptions.getAndDecrement() > 0;
+            subscriber.onSubscribe(new Subscription() {
+                private int next = from;
+                private int emitted;
+                private boolean done;
+
+                @Override
+                public void request(final long n) {
+                    for (long i = 0; i < n && !done; i++) {
+                        if (fails && emitted == failAfter) {
+                            done = true;
+                            subscriber.onError(new IllegalStateException());
+                            return;
+                        }
+                        if (next > size) {
+                            break;
+                        }
+                        emitted++;
+                        subscriber.onNext(next++);
+                    }
+
+                    if (!done && next > size && !(fails && emitted == failAfter)) {
+                        done = true;
+                        subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    done = true;
+                }
+            });
+        }
+    }
+
+    private static final class TestSubscriber implements Subscriber<Integer> {
+
+        private final long initialRequest;
+        private final List<Integer> elements = new CopyOnWriteArrayList<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Subscription subscription;
+        private volatile Throwable error;
+
+        TestSubscriber(final long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(final Integer element) {
+            elements.add(element);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+}
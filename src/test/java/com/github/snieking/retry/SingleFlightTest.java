@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.retry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.snieking.retry.SingleFlight.createSingleFlight;
+
+public class SingleFlightTest {
+
+    private static final int CALLERS = 16;
+
+    @Test
+    public void testConcurrentCallersShareOneCall() throws Exception {
+        final SingleFlight<String> singleFlight = createSingleFlight(
+                BasicRetryStrategy.createRetryStrategy(Duration.ofMillis(1), 3));
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final List<Future<Optional<String>>> results = callConcurrently(() -> singleFlight.performAndGet("key", () -> {
+            await(release);
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException();
+            }
+            return "value";
+        }));
+        waitForJoiners(singleFlight);
+        release.countDown();
+
+        for (Future<Optional<String>> result : results) {
+            Assert.assertEquals(Optional.of("value"), result.get(1, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(2, attempts.get());
+        Assert.assertEquals(0, singleFlight.getCallsInFlight());
+    }
+
+    @Test
+    public void testConcurrentCallersShareTheFailure() throws Exception {
+        final SingleFlight<String> singleFlight = createSingleFlight(
+                BasicRetryStrategy.createRetryStrategy(Duration.ZERO, 3));
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final List<Future<Optional<String>>> results = callConcurrently(() -> singleFlight.performAndGet("key", () -> {
+            await(release);
+            attempts.incrementAndGet();
+            throw new IllegalStateException();
+        }));
+        waitForJoiners(singleFlight);
+        release.countDown();
+
+        for (Future<Optional<String>> result : results) {
+            try {
+                result.get(1, TimeUnit.SECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        Assert.assertEquals(3, attempts.get());
+        Assert.assertEquals(0, singleFlight.getCallsInFlight());
+    }
+
+    @Test
+    public void testKeysAndCompletedCallsAreNotShared() {
+        final SingleFlight<Integer> singleFlight = createSingleFlight(
+                BasicRetryStrategy.createRetryStrategy(Duration.ZERO, 1));
+        final AtomicInteger calls = new AtomicInteger();
+
+        Assert.assertEquals(Optional.of(1), singleFlight.performAndGet(1, calls::incrementAndGet));
+        Assert.assertEquals(Optional.of(2), singleFlight.performAndGet(1, calls::incrementAndGet));
+        Assert.assertEquals(Optional.of(3), singleFlight.performAndGet(2, calls::incrementAndGet));
+    }
+
+    @Test
+    public void testAsyncCallersJoinTheCallInFlight() {
+        final SingleFlight<String> singleFlight = createSingleFlight(
+                BasicRetryStrategy.createRetryStrategy(Duration.ZERO, 1));
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final CompletableFuture<Optional<Integer>> first = singleFlight.performAndGetAsync("key", () -> {
+            await(release);
+            return calls.incrementAndGet();
+        });
+        final CompletableFuture<Optional<Integer>> second = singleFlight.performAndGetAsync("key",
+                calls::incrementAndGet);
+
+        Assert.assertEquals(1, singleFlight.getCallsInFlight());
+        release.countDown();
+        Assert.assertEquals(Optional.of(1), first.join());
+        Assert.assertEquals(Optional.of(1), second.join());
+        Assert.assertEquals(1, calls.get());
+    }
+
+    private static <T> List<Future<T>> callConcurrently(final Callable<T> call) {
+        final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        final List<Future<T>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(executor.submit(call));
+        }
+        executor.shutdown();
+        return results;
+    }
+
+    /**
+     * Gives the callers some time to find the call in flight, as joining can't be observed from the outside.
+     */
+    private static void waitForJoiners(final SingleFlight<?> singleFlight) throws InterruptedException {
+        while (singleFlight.getCallsInFlight() == 0) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(50);
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.time;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class HashedWheelSchedulerTest {
+
+    @Test
+    public void testTaskRunsAfterItsDelay() throws InterruptedException {
+        try (HashedWheelScheduler scheduler = HashedWheelScheduler.createHashedWheelScheduler()) {
+            final CountDownLatch ran = new CountDownLatch(1);
+            final AtomicLong ranAfter = new AtomicLong();
+            final long start = System.nanoTime();
+
+            scheduler.schedule(() -> {
+                ranAfter.set(System.nanoTime() - start);
+                ran.countDown();
+            }, 20, TimeUnit.MILLISECONDS);
+
+            Assert.assertTrue(ran.await(1, TimeUnit.SECONDS));
+            Assert.assertTrue(ranAfter.get() >= TimeUnit.MILLISECONDS.toNanos(20));
+            Assert.assertEquals(0, scheduler.getPendingTasks());
+        }
+    }
+
+    @Test
+    public void testTasksBeyondATurnOfTheWheel() throws InterruptedException {
+        final AtomicInteger batches = new AtomicInteger();
+        try (HashedWheelScheduler scheduler = HashedWheelScheduler.createHashedWheelScheduler(Duration.ofMillis(1), 8,
+                task -> {
+                    batches.incrementAndGet();
+                    task.run();
+                })) {
+            final CountDownLatch ran = new CountDownLatch(1000);
+            final long start = System.nanoTime();
+            for (int i = 0; i < 1000; i++) {
+                scheduler.schedule(ran::countDown, 30 + i % 3, TimeUnit.MILLISECONDS);
+            }
+
+            Assert.assertTrue(ran.await(1, TimeUnit.SECONDS));
+            Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+            Assert.assertTrue(batches.get() < 100);
+        }
+    }
+
+    @Test
+    public void testCancelledTaskIsNotRun() throws InterruptedException {
+        try (HashedWheelScheduler scheduler = HashedWheelScheduler.createHashedWheelScheduler()) {
+            final AtomicInteger runs = new AtomicInteger();
+            final Future<?> cancelled = scheduler.schedule(runs::incrementAndGet, 10, TimeUnit.MILLISECONDS);
+            final CountDownLatch later = new CountDownLatch(1);
+            scheduler.schedule(later::countDown, 30, TimeUnit.MILLISECONDS);
+
+            Assert.assertTrue(cancelled.cancel(false));
+            Assert.assertTrue(later.await(1, TimeUnit.SECONDS));
+            Assert.assertEquals(0, runs.get());
+            Assert.assertEquals(0, scheduler.getPendingTasks());
+        }
+    }
+
+    @Test
+    public void testManyPendingTasks() throws InterruptedException {
+        try (HashedWheelScheduler scheduler = HashedWheelScheduler.createHashedWheelScheduler()) {
+            final int tasks = 200_000;
+            final CountDownLatch ran = new CountDownLatch(tasks / 2);
+            for (int i = 0; i < tasks; i++) {
+                final Future<?> future = scheduler.schedule(ran::countDown, i % 50, TimeUnit.MILLISECONDS);
+                if (i % 2 == 0) {
+                    future.cancel(false);
+                }
+            }
+
+            Assert.assertTrue(ran.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testCloseCancelsPendingTasks() throws InterruptedException {
+        final HashedWheelScheduler scheduler = HashedWheelScheduler.createHashedWheelScheduler();
+        final Future<?> pending = scheduler.schedule(() -> { }, 1, TimeUnit.HOURS);
+
+        scheduler.close();
+        try {
+            pending.get(1, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (CancellationException expected) {
+            // The task was cancelled by closing the scheduler.
+        } catch (ExecutionException | TimeoutException e) {
+            Assert.fail(e.toString());
+        }
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testClosedSchedulerRejectsTasks() {
+        final HashedWheelScheduler scheduler = HashedWheelScheduler.createHashedWheelScheduler();
+        scheduler.close();
+        scheduler.schedule(() -> { }, 1, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testRejectedBatchFailsItsTasks() throws InterruptedException {
+        try (HashedWheelScheduler scheduler = HashedWheelScheduler.createHashedWheelScheduler(Duration.ofMillis(1),
+                16, task -> {
+                    throw new RejectedExecutionException();
+                })) {
+            final Future<?> future = scheduler.schedule(() -> { }, 1, TimeUnit.MILLISECONDS);
+            try {
+                future.get(1, TimeUnit.SECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+            } catch (TimeoutException e) {
+                Assert.fail(e.toString());
+            }
+        }
+    }
+}
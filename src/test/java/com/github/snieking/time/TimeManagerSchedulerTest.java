@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.time;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Installs a scheduler in {@link TimeManager}, which every thread of the process sees. Surefire runs the methods of
+ * a class in parallel but the classes one after another, so this class must keep a single test method.
+ */
+public class TimeManagerSchedulerTest {
+
+    @Test
+    public void testTimeManagerFollowsTheInstalledScheduler() {
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler(1000);
+        TimeManager.setScheduler(scheduler);
+        try {
+            final long start = TimeManager.nanoTime();
+            Assert.assertTrue(TimeManager.sleep(Duration.ofMinutes(10)));
+            Assert.assertEquals(TimeUnit.MINUTES.toNanos(10), TimeManager.nanoTime() - start);
+            Assert.assertTrue(TimeManager.isDurationPassed(start, TimeUnit.MINUTES.toNanos(10)));
+            Assert.assertEquals(scheduler.nanoTime(), TimeManager.coarseNanoTime());
+        } finally {
+            TimeManager.setScheduler(Scheduler.system());
+        }
+        Assert.assertSame(Scheduler.system(), TimeManager.getScheduler());
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.time;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TimeManagerTest {
+
+    @Test
+    public void testSubMillisecondWaits() {
+        final long start = System.nanoTime();
+        Assert.assertTrue(TimeManager.sleep(Duration.ofNanos(300_000)));
+        Assert.assertTrue(System.nanoTime() - start >= 300_000);
+
+        final long preciseStart = System.nanoTime();
+        Assert.assertTrue(TimeManager.sleepNanosPrecisely(200_000));
+        final long elapsed = System.nanoTime() - preciseStart;
+        Assert.assertTrue(elapsed >= 200_000);
+        Assert.assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void testOriginalWaitsKeepTheirSignatures() throws NoSuchMethodException {
+        Assert.assertEquals(void.class, TimeManager.class.getMethod("sleep", long.class).getReturnType());
+        Assert.assertEquals(void.class,
+                TimeManager.class.getMethod("waitUntilDurationPassed", Duration.class).getReturnType());
+    }
+
+    @Test
+    public void testInterruptEndsTheWait() throws InterruptedException {
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        final Thread sleeper = new Thread(() -> interrupted.set(!TimeManager.sleepMillis(10_000)
+                && Thread.currentThread().isInterrupted()));
+        sleeper.start();
+        sleeper.interrupt();
+        sleeper.join(1000);
+
+        Assert.assertFalse(sleeper.isAlive());
+        Assert.assertTrue(interrupted.get());
+    }
+
+    @Test
+    public void testAlreadyInterruptedThreadDoesNotWait() {
+        Thread.currentThread().interrupt();
+        try {
+            Assert.assertFalse(TimeManager.sleepNanosPrecisely(TimeUnit.SECONDS.toNanos(10)));
+            Assert.assertFalse(TimeManager.sleepNanos(0));
+            Assert.assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void testHugeDurationsDoNotOverflow() {
+        Assert.assertTrue(TimeManager.sleep(Duration.ofSeconds(-Long.MAX_VALUE / 2)));
+    }
+
+    @Test
+    public void testIsDurationPassed() {
+        Assert.assertTrue(TimeManager.isDurationPassed(Instant.now().minusSeconds(2), Duration.ofSeconds(1)));
+        Assert.assertFalse(TimeManager.isDurationPassed(Instant.now(), Duration.ofSeconds(10)));
+
+        final long start = TimeManager.coarseNanoTime();
+        Assert.assertFalse(TimeManager.isDurationPassed(start, TimeUnit.SECONDS.toNanos(10)));
+        Assert.assertTrue(TimeManager.sleep(Duration.ofMillis(20)));
+        Assert.assertTrue(TimeManager.isDurationPassed(start, TimeUnit.MILLISECONDS.toNanos(10)));
+        Assert.assertTrue(TimeManager.isDurationPassed(System.nanoTime() - TimeUnit.SECONDS.toNanos(1),
+                TimeUnit.MILLISECONDS.toNanos(500)));
+    }
+}
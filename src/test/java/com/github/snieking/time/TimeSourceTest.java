@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.time;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+public class TimeSourceTest {
+
+    @Test
+    public void testManualTimeSourceOnlyMovesWhenAdvanced() {
+        final ManualTimeSource source = ManualTimeSource.createManualTimeSource(100);
+        final long start = source.nanoTime();
+
+        Assert.assertEquals(100, start);
+        Assert.assertFalse(source.isDurationPassed(start, 50));
+        Assert.assertEquals(150, source.advanceNanos(50));
+        Assert.assertTrue(source.isDurationPassed(start, 50));
+        Assert.assertEquals(TimeUnit.SECONDS.toNanos(1) + 150, source.advance(Duration.ofSeconds(1)));
+        Assert.assertEquals(TimeUnit.SECONDS.toNanos(1) + 50, source.elapsedNanos(start));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testManualTimeSourceCannotGoBack() {
+        ManualTimeSource.createManualTimeSource().advance(Duration.ofNanos(-1));
+    }
+
+    @Test
+    public void testCachedTimeSourceFollowsTheSystemClock() {
+        try (CachedTimeSource source = CachedTimeSource.createCachedTimeSource(Duration.ofMillis(1))) {
+            final long start = System.nanoTime();
+            TimeManager.sleep(20);
+
+            final long cached = source.nanoTime();
+            Assert.assertTrue(cached - start >= TimeUnit.MILLISECONDS.toNanos(10));
+            Assert.assertTrue(cached <= System.nanoTime());
+            Assert.assertTrue(source.isDurationPassed(start, TimeUnit.MILLISECONDS.toNanos(10)));
+            Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(1), source.getResolutionNanos());
+        }
+    }
+
+    @Test
+    public void testClosedCachedTimeSourceReadsTheSystemClock() {
+        final CachedTimeSource source = CachedTimeSource.createCachedTimeSource(Duration.ofHours(1));
+        source.close();
+
+        final long start = System.nanoTime();
+        Assert.assertTrue(source.nanoTime() >= start);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCachedTimeSourceNeedsAResolution() {
+        CachedTimeSource.createCachedTimeSource(Duration.ZERO);
+    }
+
+    @Test
+    public void testSystemTimeSource() {
+        final long start = System.nanoTime();
+        Assert.assertTrue(TimeSource.system().nanoTime() >= start);
+        Assert.assertTrue(TimeSource.system().isDurationPassed(start, 0));
+    }
+}
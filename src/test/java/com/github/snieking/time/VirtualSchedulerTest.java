@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.time;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class VirtualSchedulerTest {
+
+    @Test
+    public void testSleepMovesTheClockAtOnce() {
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        final long start = System.nanoTime();
+
+        Assert.assertTrue(scheduler.sleepNanos(TimeUnit.HOURS.toNanos(1)));
+        Assert.assertEquals(TimeUnit.HOURS.toNanos(1), scheduler.nanoTime());
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void testTasksRunInOrderAtTheirDueTime() {
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        final List<String> runs = new ArrayList<>();
+
+        scheduler.schedule(() -> runs.add("b@" + scheduler.nanoTime()), 20, TimeUnit.NANOSECONDS);
+        scheduler.schedule(() -> {
+            runs.add("a@" + scheduler.nanoTime());
+            scheduler.schedule(() -> runs.add("c@" + scheduler.nanoTime()), 5, TimeUnit.NANOSECONDS);
+        }, 10, TimeUnit.NANOSECONDS);
+        scheduler.schedule(() -> runs.add("d@" + scheduler.nanoTime()), 20, TimeUnit.NANOSECONDS);
+
+        Assert.assertEquals(17, scheduler.advanceNanos(17));
+        Assert.assertEquals(Arrays.asList("a@10", "c@15"), runs);
+        Assert.assertEquals(2, scheduler.getPendingTasks());
+
+        Assert.assertEquals(2, scheduler.runUntilIdle());
+        Assert.assertEquals(Arrays.asList("a@10", "c@15", "b@20", "d@20"), runs);
+        Assert.assertEquals(20, scheduler.nanoTime());
+    }
+
+    @Test
+    public void testCancelledTaskIsNotRun() {
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        final List<String> runs = new ArrayList<>();
+
+        final Future<?> cancelled = scheduler.schedule(() -> runs.add("cancelled"), 1, TimeUnit.SECONDS);
+        Assert.assertTrue(cancelled.cancel(false));
+        Assert.assertEquals(0, scheduler.getPendingTasks());
+
+        scheduler.advance(Duration.ofSeconds(2));
+        Assert.assertTrue(runs.isEmpty());
+    }
+
+    @Test
+    public void testInterruptedSleepDoesNotMoveTheClock() {
+        final VirtualScheduler scheduler = VirtualScheduler.createVirtualScheduler();
+        Thread.currentThread().interrupt();
+        try {
+            Assert.assertFalse(scheduler.sleepNanos(100));
+            Assert.assertEquals(0, scheduler.nanoTime());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testClockCannotGoBack() {
+        VirtualScheduler.createVirtualScheduler().advanceNanos(-1);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class HistogramTest {
+
+    private static final double PRECISION = 1.0 / 32;
+
+    @Test
+    public void testPercentilesAreWithinPrecision() {
+        final Histogram histogram = Histogram.createHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        final Histogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(10_000, snapshot.getCount());
+        assertWithinPrecision(5_000_000, snapshot.getValueAtPercentile(50));
+        assertWithinPrecision(9_900_000, snapshot.getValueAtPercentile(99));
+        assertWithinPrecision(9_990_000, snapshot.getValueAtPercentile(99.9));
+        assertWithinPrecision(10_000_000, snapshot.getMax());
+        Assert.assertTrue(snapshot.getMin() <= 1000);
+        Assert.assertEquals(5_000_500, snapshot.getMean(), 5_000_500 * PRECISION);
+    }
+
+    @Test
+    public void testExtremeValues() {
+        final Histogram histogram = Histogram.createHistogram(1);
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        final Histogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(0, snapshot.getMin());
+        Assert.assertEquals(Long.MAX_VALUE, snapshot.getMax());
+    }
+
+    @Test
+    public void testSnapshotAndResetTakesOutTheCounts() {
+        final Histogram histogram = Histogram.createHistogram();
+        histogram.record(42, 3);
+
+        Assert.assertEquals(3, histogram.snapshotAndReset().getCount());
+        Assert.assertEquals(0, histogram.snapshot().getCount());
+        Assert.assertEquals(0, histogram.snapshot().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testConcurrentRecordingLosesNothing() throws InterruptedException {
+        final Histogram histogram = Histogram.createHistogram();
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    histogram.record(i);
+                }
+            }));
+        }
+
+        long taken = 0;
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            taken += histogram.snapshotAndReset().getCount();
+            thread.join();
+        }
+
+        Assert.assertEquals(400_000, taken + histogram.snapshotAndReset().getCount());
+    }
+
+    @Test
+    public void testMerge() {
+        final Histogram first = Histogram.createHistogram();
+        final Histogram second = Histogram.createHistogram();
+        first.record(100);
+        second.record(1_000_000);
+
+        final Histogram.Snapshot merged = first.snapshot().merge(second.snapshot());
+        Assert.assertEquals(2, merged.getCount());
+        assertWithinPrecision(1_000_000, merged.getMax());
+
+        first.merge(second.snapshot());
+        Assert.assertEquals(2, first.snapshot().getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeWithOtherPrecision() {
+        Histogram.createHistogram(3).merge(Histogram.createHistogram(4).snapshot());
+    }
+
+    @Test
+    public void testSerialization() {
+        final Histogram histogram = Histogram.createHistogram();
+        for (long value = 0; value < 1_000_000; value += 7) {
+            histogram.record(value);
+        }
+
+        final Histogram.Snapshot snapshot = histogram.snapshot();
+        final byte[] bytes = snapshot.toByteArray();
+        final Histogram.Snapshot restored = Histogram.Snapshot.fromByteArray(bytes);
+
+        Assert.assertTrue(bytes.length < 2000);
+        Assert.assertEquals(snapshot.getCount(), restored.getCount());
+        Assert.assertEquals(snapshot.getMin(), restored.getMin());
+        Assert.assertEquals(snapshot.getMax(), restored.getMax());
+        Assert.assertEquals(snapshot.getValueAtPercentile(99.9), restored.getValueAtPercentile(99.9));
+        Assert.assertArrayEquals(bytes, restored.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDeserializingGarbage() {
+        Histogram.Snapshot.fromByteArray(new byte[]{1, 5, 1, (byte) 0xFF});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDeserializingNegativeBucketIndex() {
+        final byte[] minusOne = {-1, -1, -1, -1, -1, -1, -1, -1, -1, 1};
+        final byte[] bytes = new byte[3 + minusOne.length + 1];
+        bytes[0] = 1;
+        bytes[1] = 5;
+        bytes[2] = 1;
+        System.arraycopy(minusOne, 0, bytes, 3, minusOne.length);
+        bytes[bytes.length - 1] = 1;
+
+        Histogram.Snapshot.fromByteArray(bytes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDeserializingRepeatedBucketIndex() {
+        Histogram.Snapshot.fromByteArray(new byte[]{1, 5, 2, 3, 1, 0, 1});
+    }
+
+    @Test
+    public void testStopwatchRecordsLaps() {
+        final Histogram histogram = Histogram.createHistogram();
+        final Stopwatch stopwatch = Stopwatch.start();
+
+        for (int i = 0; i < 10; i++) {
+            stopwatch.lap(histogram);
+        }
+        stopwatch.stop(histogram);
+
+        Assert.assertEquals(11, histogram.snapshot().getCount());
+    }
+
+    private static void assertWithinPrecision(final long expected, final long actual) {
+        Assert.assertTrue(actual + " not within precision of " + expected,
+                actual >= expected && actual <= expected * (1 + PRECISION));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 Viktor Plane
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.snieking.util;
+
+import com.github.snieking.time.TimeManager;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class StopwatchTest {
+
+    @Test
+    public void testStopFreezesElapsedTime() {
+        final Stopwatch stopwatch = Stopwatch.start();
+        TimeManager.sleep(50);
+        stopwatch.stop();
+
+        final long elapsed = stopwatch.elapsedNanos();
+        Assert.assertTrue(stopwatch.getTimeInMilliSeconds() >= 50);
+        Assert.assertEquals(0, stopwatch.getTimeInSeconds());
+
+        TimeManager.sleep(20);
+        Assert.assertFalse(stopwatch.isRunning());
+        Assert.assertEquals(elapsed, stopwatch.elapsedNanos());
+    }
+
+    @Test
+    public void testLapsAddUpToElapsedTime() {
+        final Stopwatch stopwatch = Stopwatch.start();
+        TimeManager.sleep(20);
+        final long first = stopwatch.lap();
+        TimeManager.sleep(30);
+        final long second = stopwatch.lap();
+        stopwatch.stop();
+
+        Assert.assertTrue(first >= TimeUnit.MILLISECONDS.toNanos(20));
+        Assert.assertTrue(second >= TimeUnit.MILLISECONDS.toNanos(30));
+        Assert.assertEquals(stopwatch.elapsedNanos(), first + second + stopwatch.split());
+    }
+
+    @Test
+    public void testResetAndRestart() {
+        final Stopwatch stopwatch = Stopwatch.createUnstarted();
+        Assert.assertEquals(0, stopwatch.elapsedNanos());
+
+        stopwatch.restart();
+        TimeManager.sleep(20);
+        Assert.assertTrue(stopwatch.elapsed(TimeUnit.MILLISECONDS) >= 20);
+
+        stopwatch.reset();
+        Assert.assertFalse(stopwatch.isRunning());
+        Assert.assertEquals(0, stopwatch.elapsedNanos());
+
+        stopwatch.restart();
+        Assert.assertTrue(stopwatch.elapsed(TimeUnit.MILLISECONDS) < 20);
+    }
+}